@@ -0,0 +1,39 @@
+package fr.epita.assistants.ping.data.model;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// schedule and lease of a cluster job, see ClusterScheduler
+@Entity
+@Table(name = "cluster_jobs")
+@Getter
+@Setter
+@NoArgsConstructor
+public class ClusterJobModel {
+
+    @Id
+    @Column(name = "name", updatable = false, nullable = false)
+    public String name;
+
+    // instance running it, null when nobody does
+    @Column(name = "owner")
+    public String owner;
+
+    // renewed while it runs, past it the owner is considered gone
+    @Column(name = "lease_until")
+    public Instant leaseUntil;
+
+    @Column(name = "next_run_at")
+    public Instant nextRunAt;
+
+    @Column(name = "last_run_id")
+    public UUID lastRunId;
+}
@@ -0,0 +1,56 @@
+package fr.epita.assistants.ping.data.model;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// one run of a cluster job on one instance
+@Entity
+@Table(name = "cluster_job_runs")
+@Getter
+@Setter
+@NoArgsConstructor
+public class ClusterJobRunModel {
+
+    // LOST: its instance died or lost the database while it ran
+    public enum Status { RUNNING, DONE, FAILED, LOST }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "id", updatable = false, nullable = false)
+    public UUID id;
+
+    @Column(name = "job_name", nullable = false)
+    public String jobName;
+
+    @Column(name = "node", nullable = false)
+    public String node;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    public Status status;
+
+    @Column(name = "error")
+    public String error;
+
+    // what the job says it did
+    @Column(name = "summary")
+    public String summary;
+
+    @Column(name = "started_at", nullable = false)
+    public Instant startedAt;
+
+    @Column(name = "finished_at")
+    public Instant finishedAt;
+}
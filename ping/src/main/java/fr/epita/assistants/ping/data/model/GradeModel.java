@@ -0,0 +1,69 @@
+package fr.epita.assistants.ping.data.model;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// one autograder run on a project, see GradingService
+// project and user are kept as plain ids, the grading threads never need the entities
+@Entity
+@Table(name = "grades")
+@Getter
+@Setter
+@NoArgsConstructor
+public class GradeModel {
+
+    public enum Status { QUEUED, RUNNING, DONE, ERROR }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "id", updatable = false, nullable = false)
+    public UUID id;
+
+    @Column(name = "project_id", nullable = false)
+    public UUID projectId;
+
+    @Column(name = "requested_by")
+    public UUID requestedBy;
+
+    @Column(name = "job_id")
+    public UUID jobId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    public Status status;
+
+    @Column(name = "passed", nullable = false)
+    public int passed;
+
+    @Column(name = "failed", nullable = false)
+    public int failed;
+
+    @Column(name = "skipped", nullable = false)
+    public int skipped;
+
+    // passed / (passed + failed) * 100, null until the run is done
+    @Column(name = "score")
+    public Double score;
+
+    // error of the run (no test report, timeout...)
+    @Column(name = "message")
+    public String message;
+
+    @Column(name = "created_at", nullable = false)
+    public Instant createdAt;
+
+    @Column(name = "finished_at")
+    public Instant finishedAt;
+}
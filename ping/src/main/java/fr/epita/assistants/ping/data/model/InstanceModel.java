@@ -0,0 +1,31 @@
+package fr.epita.assistants.ping.data.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// a running ping instance, see InstanceRegistry
+@Entity
+@Table(name = "instances")
+@Getter
+@Setter
+@NoArgsConstructor
+public class InstanceModel {
+
+    @Id
+    @Column(name = "id", updatable = false, nullable = false)
+    public String id;
+
+    @Column(name = "started_at", nullable = false)
+    public Instant startedAt;
+
+    // last heartbeat, an instance not seen for a few intervals is gone
+    @Column(name = "seen_at", nullable = false)
+    public Instant seenAt;
+}
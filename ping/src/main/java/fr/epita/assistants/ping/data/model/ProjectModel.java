@@ -4,6 +4,10 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
@@ -20,6 +24,7 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 @Entity
+@Cacheable // second-level cache, size and ttl of the region are in application.properties
 @Table(name = "projects")
 @Getter
 @Setter
@@ -36,13 +41,19 @@ public class ProjectModel {
     @Column(name = "path")
     public String path;
 
+    // the PROJECT_STORAGE_ROOTS entry path is in, changed by the storage rebalancer
+    @Column(name = "storage_root")
+    public String storageRoot;
+
     // 1 project has 1 owner (in our case)
     @ManyToOne(fetch = FetchType.LAZY) // Lazy just means that you don't load the owner until we use it (opposite of eager)
     @JoinColumn(name = "owner_id", nullable = false)
     public UserModel owner;
 
     // one project has many members one user can be member of many projects
+    // the members list has its own cache region, hibernate drops it whenever the list is changed
     @ManyToMany(fetch = FetchType.LAZY)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(
         name = "project_members",
         joinColumns = @JoinColumn(name = "project_id"),
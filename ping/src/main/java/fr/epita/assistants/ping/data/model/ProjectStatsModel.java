@@ -0,0 +1,47 @@
+package fr.epita.assistants.ping.data.model;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// summary of a project for the dashboard, see ProjectStatsService
+@Entity
+@Table(name = "project_stats")
+@Getter
+@Setter
+@NoArgsConstructor
+public class ProjectStatsModel {
+
+    @Id
+    @Column(name = "project_id", updatable = false, nullable = false)
+    public UUID projectId;
+
+    @Column(name = "member_count", nullable = false)
+    public int memberCount;
+
+    // last change of its files through the api, or last commit
+    @Column(name = "last_modified_at")
+    public Instant lastModifiedAt;
+
+    @Column(name = "last_commit_id")
+    public String lastCommitId;
+
+    @Column(name = "last_commit_message")
+    public String lastCommitMessage;
+
+    @Column(name = "last_commit_author")
+    public String lastCommitAuthor;
+
+    @Column(name = "last_commit_at")
+    public Instant lastCommitAt;
+
+    @Column(name = "updated_at", nullable = false)
+    public Instant updatedAt;
+}
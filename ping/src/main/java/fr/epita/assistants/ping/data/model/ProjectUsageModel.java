@@ -0,0 +1,39 @@
+package fr.epita.assistants.ping.data.model;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// last saved disk usage of a project, see QuotaService
+@Entity
+@Table(name = "project_usage")
+@Getter
+@Setter
+@NoArgsConstructor
+public class ProjectUsageModel {
+
+    @Id
+    @Column(name = "project_id", updatable = false, nullable = false)
+    public UUID projectId;
+
+    @Column(name = "bytes", nullable = false)
+    public long bytes;
+
+    // regular files only, folders are free
+    @Column(name = "files", nullable = false)
+    public long files;
+
+    @Column(name = "updated_at", nullable = false)
+    public Instant updatedAt;
+
+    // last time the counters were checked against a walk of the project
+    @Column(name = "reconciled_at")
+    public Instant reconciledAt;
+}
@@ -7,6 +7,7 @@ import lombok.Setter;
 import java.util.UUID;
 
 @Entity
+@Cacheable // second-level cache, size and ttl of the region are in application.properties
 @Table(name = "users")
 @Getter
 @Setter
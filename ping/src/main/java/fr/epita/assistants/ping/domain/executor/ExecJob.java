@@ -0,0 +1,198 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// one run of a feature command (ex: git commit) and the output it produced
+// the output is kept in a bounded buffer (oldest lines are dropped) so a subscriber that comes late
+// still gets what is left of the backlog before the live lines
+public class ExecJob {
+
+    public enum State { RUNNING, SUCCEEDED, FAILED, CANCELLED, TIMED_OUT }
+
+    public record OutputLine(long seq, String stream, String text) {}
+
+    public interface Listener {
+        void onLine(OutputLine line);
+
+        void onFinished(ExecJob job);
+    }
+
+    private final UUID id = UUID.randomUUID();
+    private final UUID projectId;
+    private final String feature;
+    private final String command;
+    private final Instant startedAt = Instant.now();
+    private final int maxLines;
+
+    private final ArrayDeque<OutputLine> backlog = new ArrayDeque<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private long nextSeq = 1;
+    private long droppedLines;
+    private State state = State.RUNNING;
+    private Integer exitCode;
+    private String error;
+    private Instant finishedAt;
+    private Process process;
+    private boolean cancelled;
+    private boolean timedOut;
+    private Duration timeout;
+    private UUID startedBy;
+
+    public ExecJob(UUID projectId, String feature, String command, int maxLines) {
+        this.projectId = projectId;
+        this.feature = feature;
+        this.command = command;
+        this.maxLines = maxLines;
+    }
+
+    public synchronized void append(String stream, String text) {
+        OutputLine line = new OutputLine(nextSeq++, stream, text);
+        backlog.addLast(line);
+        if (backlog.size() > maxLines) {
+            backlog.removeFirst();
+            droppedLines++;
+        }
+        // called under the lock so every listener sees the lines in order and none is missed or doubled
+        for (Listener listener : List.copyOf(listeners)) {
+            listener.onLine(line);
+        }
+    }
+
+    // exit code of the last child process of the job, a feature may run several of them
+    public synchronized void processExited(int exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    // error is null when the feature went fine
+    public synchronized void finish(String error) {
+        if (state != State.RUNNING) {
+            return;
+        }
+        this.error = error;
+        this.process = null;
+        if (cancelled) {
+            this.state = State.CANCELLED;
+        } else if (timedOut) {
+            this.state = State.TIMED_OUT;
+        } else {
+            this.state = error == null ? State.SUCCEEDED : State.FAILED;
+        }
+        this.finishedAt = Instant.now();
+        for (Listener listener : List.copyOf(listeners)) {
+            listener.onFinished(this);
+        }
+        listeners.clear();
+    }
+
+    // replays the lines after afterSeq then keeps the listener for the live ones
+    public synchronized void subscribe(long afterSeq, Listener listener) {
+        for (OutputLine line : backlog) {
+            if (line.seq() > afterSeq) {
+                listener.onLine(line);
+            }
+        }
+        if (state == State.RUNNING) {
+            listeners.add(listener);
+        } else {
+            listener.onFinished(this);
+        }
+    }
+
+    public synchronized void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // the child process running right now for this job, false if the job was cancelled before it started
+    synchronized boolean attach(Process process) {
+        if (cancelled) {
+            return false;
+        }
+        this.process = process;
+        return true;
+    }
+
+    synchronized void detach(Process process) {
+        if (this.process == process) {
+            this.process = null;
+        }
+    }
+
+    // marks the job cancelled and gives back the process to kill (null if none is running)
+    synchronized Process requestCancel() {
+        if (state != State.RUNNING) {
+            return null;
+        }
+        cancelled = true;
+        return process;
+    }
+
+    synchronized void markTimedOut() {
+        timedOut = true;
+    }
+
+    // timeout of each command of the job, null for the supervisor's default
+    public synchronized void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    public synchronized Duration getTimeout() {
+        return timeout;
+    }
+
+    public synchronized void setStartedBy(UUID userId) {
+        this.startedBy = userId;
+    }
+
+    public synchronized UUID getStartedBy() {
+        return startedBy;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public UUID getProjectId() {
+        return projectId;
+    }
+
+    public String getFeature() {
+        return feature;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Integer getExitCode() {
+        return exitCode;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    public synchronized Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public synchronized long getDroppedLines() {
+        return droppedLines;
+    }
+}
@@ -0,0 +1,74 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// the exec jobs of the last minutes, so their output can be streamed while they run and replayed after
+@ApplicationScoped
+public class ExecJobRegistry {
+
+    @Inject
+    Logger logger;
+
+    @ConfigProperty(name = "EXEC_OUTPUT_MAX_LINES", defaultValue = "5000")
+    int maxLines;
+
+    @ConfigProperty(name = "EXEC_JOB_RETENTION_SECONDS", defaultValue = "600")
+    long retentionSeconds;
+
+    private final Map<UUID, ExecJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService asyncRunner = Executors.newVirtualThreadPerTaskExecutor();
+
+    @PreDestroy
+    void shutdown() {
+        asyncRunner.shutdownNow();
+    }
+
+    public ExecJob create(UUID projectId, String feature, String command) {
+        removeExpired();
+        ExecJob job = new ExecJob(projectId, feature, command, maxLines);
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    public ExecJob get(UUID jobId) {
+        return jobs.get(jobId);
+    }
+
+    // runs the feature on the calling thread, the job is finished whatever happens
+    public void run(ExecJob job, Runnable feature) {
+        try {
+            feature.run();
+            job.finish(null);
+        } catch (RuntimeException e) {
+            job.finish(e.getMessage());
+            throw e;
+        }
+    }
+
+    // same but the caller gets the hand back right away and follows the job through its stream
+    public void runAsync(ExecJob job, Runnable feature) {
+        asyncRunner.execute(() -> {
+            try {
+                run(job, feature);
+            } catch (RuntimeException e) {
+                logger.warn("Exec job " + job.getId() + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private void removeExpired() {
+        long limit = System.currentTimeMillis() - retentionSeconds * 1000;
+        jobs.values().removeIf(job -> job.getFinishedAt() != null && job.getFinishedAt().toEpochMilli() < limit);
+    }
+}
@@ -9,4 +9,15 @@ public interface FeatureExecutor {
     String name();
 
     void execute(File projectRoot, Object request);
+
+    // same, with the output of the commands sent to job so it can be streamed
+    default void execute(File projectRoot, Object request, ExecJob job) {
+        execute(projectRoot, request);
+    }
+
+    // true if the request changes the project in a way two runs at once would break (ex: the git index),
+    // those run one at a time per project (ProjectLanes)
+    default boolean mutates(Object request) {
+        return false;
+    }
 }
\ No newline at end of file
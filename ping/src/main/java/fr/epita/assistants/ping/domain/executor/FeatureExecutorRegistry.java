@@ -0,0 +1,165 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.service.CompressedStorage;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Any;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+
+// every FeatureExecutor bean, keyed by its name(), so adding a feature is just adding a bean
+// each feature can have its own limits:
+//   FEATURE_<NAME>_MAX_CONCURRENCY  jobs of this feature running at once (default FEATURE_DEFAULT_MAX_CONCURRENCY)
+//   FEATURE_<NAME>_TIMEOUT_SECONDS  timeout of each command (default EXEC_TIMEOUT_SECONDS)
+// the requests a feature says mutate the project first wait for the previous ones of that project (ProjectLanes)
+@ApplicationScoped
+public class FeatureExecutorRegistry {
+
+    @Inject
+    @Any
+    Instance<FeatureExecutor> executors;
+
+    @Inject
+    ProcessSupervisor supervisor;
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    CompressedStorage compressedStorage;
+
+    @Inject
+    ProjectLanes lanes;
+
+    @ConfigProperty(name = "FEATURE_DEFAULT_MAX_CONCURRENCY", defaultValue = "8")
+    int defaultMaxConcurrency;
+
+    @ConfigProperty(name = "EXEC_QUEUE_TIMEOUT_MS", defaultValue = "5000")
+    long queueTimeoutMs;
+
+    private record Feature(FeatureExecutor executor, Semaphore slots, int maxConcurrency, Duration timeout) {}
+
+    // built once at startup and never modified, reads need no lock
+    private Map<String, Feature> features;
+
+    @PostConstruct
+    void init() {
+        Config config = ConfigProvider.getConfig();
+        Map<String, Feature> found = new HashMap<>();
+        for (FeatureExecutor executor : executors) {
+            String name = key(executor.name());
+            if (found.containsKey(name)) {
+                throw new IllegalStateException("Two feature executors are named " + name);
+            }
+            String prefix = "FEATURE_" + name.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "_");
+            int maxConcurrency = config.getOptionalValue(prefix + "_MAX_CONCURRENCY", Integer.class)
+                .orElse(defaultMaxConcurrency);
+            Duration timeout = config.getOptionalValue(prefix + "_TIMEOUT_SECONDS", Long.class)
+                .map(Duration::ofSeconds)
+                .orElse(supervisor.defaultTimeout());
+            found.put(name, new Feature(executor, new Semaphore(maxConcurrency, true), maxConcurrency, timeout));
+            logger.info("FeatureExecutorRegistry: feature " + name + " (" + maxConcurrency
+                + " at once, timeout " + timeout.toSeconds() + "s)");
+        }
+        features = Map.copyOf(found);
+    }
+
+    public boolean supports(String feature) {
+        return feature != null && features.containsKey(key(feature));
+    }
+
+    public Duration timeoutOf(String feature) {
+        Feature found = feature != null ? features.get(key(feature)) : null;
+        return found != null ? found.timeout() : supervisor.defaultTimeout();
+    }
+
+    public Set<String> names() {
+        return features.keySet();
+    }
+
+    // the lane and the slot of one run of a feature, held until closed
+    public interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    // runs the feature for the job on the calling thread, with the limits of that feature
+    public void execute(String featureName, File projectRoot, Object request, ExecJob job) {
+        Feature feature = featureOf(featureName);
+        try (Held limits = enter(feature, featureName, projectRoot, request, job)) {
+            if (job != null) {
+                job.setTimeout(feature.timeout());
+            }
+            // the feature runs tools on the files, they must see them as written
+            compressedStorage.inflateTree(projectRoot.toPath());
+            feature.executor().execute(projectRoot, request, job);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not prepare the project files: " + e.getMessage(), e);
+        }
+    }
+
+    // the limits of a feature for a caller running its work without a request (the queued grades are "test" runs)
+    public Held enter(String featureName, File projectRoot, Object request, ExecJob job) {
+        return enter(featureOf(featureName), featureName, projectRoot, request, job);
+    }
+
+    private Held enter(Feature feature, String featureName, File projectRoot, Object request, ExecJob job) {
+        // the lane first, a command waiting behind another one of its project doesn't hold a slot
+        ProjectLanes.Held lane = feature.executor().mutates(request) ? lanes.enter(projectRoot, job) : null;
+        try {
+            acquireSlot(feature, featureName);
+        } catch (RuntimeException e) {
+            if (lane != null) {
+                lane.close();
+            }
+            throw e;
+        }
+        return () -> {
+            feature.slots().release();
+            if (lane != null) {
+                lane.close();
+            }
+        };
+    }
+
+    private Feature featureOf(String featureName) {
+        Feature feature = featureName != null ? features.get(key(featureName)) : null;
+        if (feature == null) {
+            throw new IllegalArgumentException("Unsupported feature: " + featureName);
+        }
+        return feature;
+    }
+
+    private void acquireSlot(Feature feature, String featureName) {
+        boolean acquired;
+        try {
+            acquired = feature.slots().tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessSupervisor.ProcessCancelledException("Interrupted while waiting for a slot");
+        }
+        if (!acquired) {
+            logger.warn("FeatureExecutorRegistry: " + feature.maxConcurrency() + " " + featureName + " jobs already running");
+            throw new ProcessSupervisor.ProcessBusyException("Too many " + featureName + " jobs running");
+        }
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
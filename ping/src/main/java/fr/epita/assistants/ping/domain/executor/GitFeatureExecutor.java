@@ -1,14 +1,40 @@
 package fr.epita.assistants.ping.domain.executor;
 
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitCommit;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitDiffEntry;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitLogPage;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitStatus;
 import fr.epita.assistants.ping.dto.ProjectDTOs.RunCommand;
+import fr.epita.assistants.ping.service.ProjectStatsService;
 import fr.epita.assistants.ping.utils.Logger;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.TreeSet;
 
 @ApplicationScoped
 public class GitFeatureExecutor implements FeatureExecutor {
@@ -16,13 +42,42 @@ public class GitFeatureExecutor implements FeatureExecutor {
     @Inject
     Logger logger;
 
+    @Inject
+    GitReadCache readCache;
+
+    @Inject
+    ProcessSupervisor supervisor;
+
+    @Inject
+    ProjectStatsService projectStats;
+
+    @ConfigProperty(name = "GIT_DIFF_MAX_PATCH_BYTES", defaultValue = "262144")
+    int maxPatchBytes;
+
+    @ConfigProperty(name = "GIT_DIFF_MAX_TOTAL_BYTES", defaultValue = "2097152")
+    long maxTotalPatchBytes;
+
+    @ConfigProperty(name = "GIT_LOG_MAX_LIMIT", defaultValue = "200")
+    int maxLogLimit;
+
     @Override
     public String name() {
         return "git";
     }
 
+    // every command of /exec writes the repository, the reads are the jgit methods below and need no lane
+    @Override
+    public boolean mutates(Object request) {
+        return true;
+    }
+
     @Override
     public void execute(File projectRoot, Object request) {
+        execute(projectRoot, request, null);
+    }
+
+    @Override
+    public void execute(File projectRoot, Object request, ExecJob job) {
         if (!(request instanceof RunCommand)) {
             logger.error("GitFeatureExecutor received invalid request type: " + request.getClass().getName());
             throw new IllegalArgumentException("Invalid request type for git executor");
@@ -35,13 +90,14 @@ public class GitFeatureExecutor implements FeatureExecutor {
         try {
             switch (runCommand.command.toLowerCase()) {
                 case "init":
-                    executeGitInit(projectRoot);
+                    executeGitInit(projectRoot, job);
                     break;
                 case "add":
-                    executeGitAdd(projectRoot, runCommand.params);
+                    executeGitAdd(projectRoot, runCommand.params, job);
                     break;
                 case "commit":
-                    executeGitCommit(projectRoot, runCommand.params);
+                    executeGitCommit(projectRoot, runCommand.params, job);
+                    recordHead(projectRoot);
                     break;
                 default:
                     logger.error("unknown git command: " + runCommand.command);
@@ -50,20 +106,24 @@ public class GitFeatureExecutor implements FeatureExecutor {
             
             logger.info("Git command executed , success!: " + runCommand.command);
             
+        } catch (ProcessSupervisor.ProcessBusyException | ProcessSupervisor.ProcessTimeoutException
+                 | ProcessSupervisor.ProcessCancelledException e) {
+            logger.error("Git command failed: ," + e.getMessage());
+            throw e; // the caller answers these ones differently
         } catch (Exception e) {
             logger.error("Git command failed: ," + e.getMessage());
             throw new RuntimeException("Git command execution failed: " + e.getMessage(), e);
         }
     }
 
-    private void executeGitInit(File projectRoot) throws IOException, InterruptedException {
+    private void executeGitInit(File projectRoot, ExecJob job) throws IOException, InterruptedException {
         logger.debug("Inits git repo in: " + projectRoot.getAbsolutePath());
         
         List<String> command = List.of("git", "init");
-        executeCommand(command, projectRoot);
+        executeCommand(command, projectRoot, job);
     }
 
-    private void executeGitAdd(File projectRoot, List<String> params) throws IOException, InterruptedException {
+    private void executeGitAdd(File projectRoot, List<String> params, ExecJob job) throws IOException, InterruptedException {
         if (params == null || params.isEmpty()) {
             logger.error("Git add command needs file parameters");
             throw new IllegalArgumentException("Git add needs file parameters");
@@ -84,10 +144,10 @@ public class GitFeatureExecutor implements FeatureExecutor {
         command.add("add");
         command.addAll(params);
         
-        executeCommand(command, projectRoot);
+        executeCommand(command, projectRoot, job);
     }
 
-    private void executeGitCommit(File projectRoot, List<String> params) throws IOException, InterruptedException {
+    private void executeGitCommit(File projectRoot, List<String> params, ExecJob job) throws IOException, InterruptedException {
         if (params == null || params.isEmpty()) {
             logger.error("Git commit command requires message parameter");
             throw new IllegalArgumentException("Git commit requires a message");
@@ -97,18 +157,275 @@ public class GitFeatureExecutor implements FeatureExecutor {
         logger.debug("Committing with message: '" + message + "' in: " + projectRoot.getAbsolutePath());
         
         List<String> command = List.of("git", "commit", "-m", message);
-        executeCommand(command, projectRoot);
+        executeCommand(command, projectRoot, job);
+    }
+
+    // read only operations, done in process with jgit (no child process) and cached per repo state
+
+    public GitStatus status(File projectRoot) {
+        try (Repository repo = openRepository(projectRoot)) {
+            return readCache.get(cacheKey(repo, projectRoot, "status"), true, () -> {
+                try (Git git = new Git(repo)) {
+                    Status status = git.status().call();
+                    GitStatus result = new GitStatus();
+                    result.branch = repo.getBranch();
+                    ObjectId head = repo.resolve(Constants.HEAD);
+                    result.head = head != null ? head.name() : null;
+                    result.clean = status.isClean();
+                    result.added = sorted(status.getAdded());
+                    result.changed = sorted(status.getChanged());
+                    result.removed = sorted(status.getRemoved());
+                    result.missing = sorted(status.getMissing());
+                    result.modified = sorted(status.getModified());
+                    result.untracked = sorted(status.getUntracked());
+                    result.conflicting = sorted(status.getConflicting());
+                    return result;
+                } catch (Exception e) {
+                    throw new RuntimeException("git status failed: " + e.getMessage(), e);
+                }
+            }, GitFeatureExecutor::weightOf);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open git repository: " + e.getMessage(), e);
+        }
+    }
+
+    // cursor is "<start commit>:<commits already seen>" (null = first page from HEAD), the page gives the next one
+    // every page walks again from the same start and skips what was seen: the order of a walk only depends on its
+    // start, while restarting from a commit of the previous page repeats or skips the other side of a merge
+    public GitLogPage log(File projectRoot, int limit, String cursor) {
+        int pageSize = Math.max(1, Math.min(limit, maxLogLimit));
+        try (Repository repo = openRepository(projectRoot)) {
+            return readCache.get(cacheKey(repo, projectRoot, "log:" + pageSize + ":" + cursor), false, () -> {
+                GitLogPage page = new GitLogPage();
+                page.commits = new ArrayList<>();
+                try (Git git = new Git(repo)) {
+                    String startRev = Constants.HEAD;
+                    int skip = 0;
+                    if (cursor != null) {
+                        int colon = cursor.lastIndexOf(':');
+                        try {
+                            skip = colon > 0 ? Integer.parseInt(cursor.substring(colon + 1)) : -1;
+                        } catch (NumberFormatException e) {
+                            skip = -1;
+                        }
+                        if (skip < 0 || !ObjectId.isId(cursor.substring(0, colon))) {
+                            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+                        }
+                        startRev = cursor.substring(0, colon);
+                    }
+                    ObjectId start = resolve(repo, startRev, cursor != null);
+                    if (start == null) {
+                        return page; // no commit yet
+                    }
+                    for (RevCommit commit : git.log().add(start).setSkip(skip).setMaxCount(pageSize + 1).call()) {
+                        if (page.commits.size() == pageSize) {
+                            page.nextCursor = start.name() + ":" + (skip + pageSize);
+                            break;
+                        }
+                        page.commits.add(toGitCommit(commit));
+                    }
+                    return page;
+                } catch (IllegalArgumentException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException("git log failed: " + e.getMessage(), e);
+                }
+            }, GitFeatureExecutor::weightOf);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open git repository: " + e.getMessage(), e);
+        }
     }
 
-    private void executeCommand(List<String> command, File workingDir) throws IOException, InterruptedException {
-        ProcessBuilder processBuilder = new ProcessBuilder(command);
-        processBuilder.directory(workingDir);
-        processBuilder.redirectErrorStream(true);
+    // from defaults to HEAD, no "to" means the working tree
+    public List<GitDiffEntry> diff(File projectRoot, String from, String to) {
+        String fromRev = from != null ? from : Constants.HEAD;
+        try (Repository repo = openRepository(projectRoot)) {
+            return readCache.get(cacheKey(repo, projectRoot, "diff:" + fromRev + ".." + to), to == null, () -> {
+                try {
+                    AbstractTreeIterator oldTree = treeOf(repo, fromRev, from != null);
+                    AbstractTreeIterator newTree = to != null ? treeOf(repo, to, true) : new FileTreeIterator(repo);
+                    return diffEntries(repo, oldTree, newTree);
+                } catch (IOException e) {
+                    throw new RuntimeException("git diff failed: " + e.getMessage(), e);
+                }
+            }, GitFeatureExecutor::weightOf);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open git repository: " + e.getMessage(), e);
+        }
+    }
+
+    // each patch is cut at GIT_DIFF_MAX_PATCH_BYTES and all of them together at GIT_DIFF_MAX_TOTAL_BYTES, the files
+    // past the total are still listed, with an empty truncated patch
+    private List<GitDiffEntry> diffEntries(Repository repo, AbstractTreeIterator oldTree, AbstractTreeIterator newTree) throws IOException {
+        List<GitDiffEntry> result = new ArrayList<>();
+        BoundedOutputStream out = new BoundedOutputStream();
+        long remaining = maxTotalPatchBytes;
+        try (DiffFormatter formatter = new DiffFormatter(out)) {
+            formatter.setRepository(repo);
+            for (DiffEntry entry : formatter.scan(oldTree, newTree)) {
+                GitDiffEntry diffEntry = new GitDiffEntry();
+                diffEntry.changeType = entry.getChangeType().name();
+                diffEntry.oldPath = entry.getOldPath();
+                diffEntry.newPath = entry.getNewPath();
+                if (remaining <= 0) {
+                    diffEntry.patch = "";
+                    diffEntry.truncated = true;
+                    result.add(diffEntry);
+                    continue;
+                }
+                // the formatter writes the whole patch, only the part that is kept is buffered
+                out.reset((int) Math.min(maxPatchBytes, remaining));
+                formatter.format(entry);
+                formatter.flush();
+
+                diffEntry.truncated = out.overflowed();
+                diffEntry.patch = out.toString(StandardCharsets.UTF_8);
+                remaining -= out.size();
+                result.add(diffEntry);
+            }
+        }
+        return result;
+    }
+
+    // keeps the first limit bytes written and drops the rest
+    private static final class BoundedOutputStream extends ByteArrayOutputStream {
+        private int limit;
+        private boolean overflowed;
+
+        void reset(int limit) {
+            reset();
+            this.limit = limit;
+            this.overflowed = false;
+        }
+
+        boolean overflowed() {
+            return overflowed;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (count < limit) {
+                super.write(b);
+            } else {
+                overflowed = true;
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int kept = Math.min(len, limit - count);
+            if (kept > 0) {
+                super.write(b, off, kept);
+            }
+            if (kept < len) {
+                overflowed = true;
+            }
+        }
+    }
+
+    private Repository openRepository(File projectRoot) throws IOException {
+        File gitDir = new File(projectRoot, ".git");
+        if (!gitDir.isDirectory()) {
+            throw new IllegalArgumentException("Project is not a git repository");
+        }
+        return new FileRepositoryBuilder()
+            .setGitDir(gitDir)
+            .setWorkTree(projectRoot)
+            .setMustExist(true)
+            .build();
+    }
+
+    // the state that decides if a cached read is still valid
+    private String cacheKey(Repository repo, File projectRoot, String query) throws IOException {
+        ObjectId head = repo.resolve(Constants.HEAD);
+        long indexMtime = repo.getIndexFile().lastModified();
+        return projectRoot.getAbsolutePath() + "|" + (head != null ? head.name() : "none") + "|" + indexMtime + "|" + query;
+    }
+
+    private ObjectId resolve(Repository repo, String revision, boolean mustExist) {
+        try {
+            ObjectId id = repo.resolve(revision);
+            if (id == null && mustExist) {
+                throw new IllegalArgumentException("Unknown revision: " + revision);
+            }
+            return id;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid revision: " + revision);
+        }
+    }
+
+    private AbstractTreeIterator treeOf(Repository repo, String revision, boolean mustExist) throws IOException {
+        ObjectId tree = resolve(repo, revision + "^{tree}", mustExist);
+        if (tree == null) {
+            return new EmptyTreeIterator(); // HEAD of a repo without commits
+        }
+        CanonicalTreeParser parser = new CanonicalTreeParser();
+        try (ObjectReader reader = repo.newObjectReader()) {
+            parser.reset(reader, tree);
+        }
+        return parser;
+    }
+
+    private static GitCommit toGitCommit(RevCommit commit) {
+        GitCommit result = new GitCommit();
+        result.id = commit.getName();
+        result.message = commit.getFullMessage();
+        result.authorName = commit.getAuthorIdent().getName();
+        result.authorEmail = commit.getAuthorIdent().getEmailAddress();
+        result.time = commit.getCommitTime();
+        result.parents = Arrays.stream(commit.getParents()).map(RevCommit::getName).toList();
+        return result;
+    }
+
+    private static long weightOf(GitStatus status) {
+        return 64 + GitReadCache.weightOf(status.branch) + GitReadCache.weightOf(status.head)
+            + GitReadCache.weightOf(status.added) + GitReadCache.weightOf(status.changed)
+            + GitReadCache.weightOf(status.removed) + GitReadCache.weightOf(status.missing)
+            + GitReadCache.weightOf(status.modified) + GitReadCache.weightOf(status.untracked)
+            + GitReadCache.weightOf(status.conflicting);
+    }
+
+    private static long weightOf(GitLogPage page) {
+        long weight = 32 + GitReadCache.weightOf(page.nextCursor);
+        for (GitCommit commit : page.commits) {
+            weight += 48 + GitReadCache.weightOf(commit.id) + GitReadCache.weightOf(commit.message)
+                + GitReadCache.weightOf(commit.authorName) + GitReadCache.weightOf(commit.authorEmail)
+                + GitReadCache.weightOf(commit.parents);
+        }
+        return weight;
+    }
+
+    private static long weightOf(List<GitDiffEntry> entries) {
+        long weight = 16;
+        for (GitDiffEntry entry : entries) {
+            weight += 32 + GitReadCache.weightOf(entry.changeType) + GitReadCache.weightOf(entry.oldPath)
+                + GitReadCache.weightOf(entry.newPath) + GitReadCache.weightOf(entry.patch);
+        }
+        return weight;
+    }
+
+    private static List<String> sorted(java.util.Set<String> paths) {
+        return new ArrayList<>(new TreeSet<>(paths));
+    }
+
+    // the new HEAD for the dashboard (project_stats), the commit is done whatever happens here
+    private void recordHead(File projectRoot) {
+        try (Repository repo = openRepository(projectRoot); RevWalk walk = new RevWalk(repo)) {
+            ObjectId head = repo.resolve(Constants.HEAD);
+            if (head != null) {
+                projectStats.committed(projectRoot.toPath(), toGitCommit(walk.parseCommit(head)));
+            }
+        } catch (Exception e) {
+            logger.warn("Could not read the new HEAD of " + projectRoot.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
 
+    private void executeCommand(List<String> command, File workingDir, ExecJob job) throws IOException, InterruptedException {
         logger.debug("Executing command: " + command  + " in  " + workingDir.getAbsolutePath());
 
-        Process process = processBuilder.start();
-        int exitCode = process.waitFor();
+        // stdout and stderr are read while the process runs (into the job if there is one),
+        // the supervisor limits how many run at once and kills the ones that hang
+        int exitCode = supervisor.run(job, command, workingDir);
 
         if (exitCode != 0) {
             logger.error("Git command failed with " + exitCode + ": " + String.join(" ", command));
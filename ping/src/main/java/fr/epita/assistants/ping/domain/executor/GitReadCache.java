@@ -0,0 +1,97 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+
+// results of the read only git endpoints, keyed by (repo, HEAD id, index mtime, query)
+// as long as HEAD and the index don't move the result can't change, so polling the UI costs nothing
+// results that also depend on the working tree (status, diff against it) only live for a short ttl
+// because writing a file doesn't touch HEAD or the index
+// bounded by the estimated size of the results and not their count: one diff can weigh as much as a thousand statuses
+@ApplicationScoped
+public class GitReadCache {
+
+    @ConfigProperty(name = "GIT_CACHE_MAX_BYTES", defaultValue = "33554432")
+    long maxBytes;
+
+    @ConfigProperty(name = "GIT_WORKTREE_CACHE_TTL_MS", defaultValue = "2000")
+    long worktreeTtlMs;
+
+    private record Entry(Object value, long expiresAt, long weight) {}
+
+    // access ordered, the eldest is the least recently used; guarded by itself like totalBytes
+    private Map<String, Entry> entries;
+    private long totalBytes;
+
+    @PostConstruct
+    void init() {
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // weigher gives the approximate size of a result in bytes, a result bigger than the whole cache isn't kept
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, boolean dependsOnWorktree, Supplier<T> loader, ToLongFunction<T> weigher) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt() > now) {
+                return (T) entry.value();
+            }
+        }
+        // computed outside the lock, two pollers may both compute it once, that's fine
+        T value = loader.get();
+        long expiresAt = dependsOnWorktree ? now + worktreeTtlMs : Long.MAX_VALUE;
+        // the key and the entry itself count too
+        long weight = weigher.applyAsLong(value) + 2L * key.length() + 64;
+        if (weight > maxBytes) {
+            return value;
+        }
+        synchronized (entries) {
+            Entry previous = entries.put(key, new Entry(value, expiresAt, weight));
+            totalBytes += weight - (previous != null ? previous.weight() : 0);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                totalBytes -= eldest.next().weight();
+                eldest.remove();
+            }
+        }
+        return value;
+    }
+
+    public void invalidate(String repoPath) {
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> entry = it.next();
+                if (entry.getKey().startsWith(repoPath + "|")) {
+                    totalBytes -= entry.getValue().weight();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    // a java String takes about 2 bytes per char
+    public static long weightOf(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    public static long weightOf(Collection<String> values) {
+        long weight = 16;
+        if (values != null) {
+            for (String value : values) {
+                weight += 8 + weightOf(value);
+            }
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,55 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+// drains one output stream of a child process line by line into its job
+// it has to run for every process even when nobody listens, otherwise a chatty command fills the pipe
+// and blocks forever on write while we wait for it to exit
+// runs on a virtual thread: the blocking read parks it without holding a platform thread
+final class OutputPump {
+
+    private OutputPump() {
+    }
+
+    static Thread start(InputStream input, String stream, ExecJob job, int maxLineLength) {
+        return Thread.ofVirtual().name("exec-pump-" + stream).start(() -> pump(input, stream, job, maxLineLength));
+    }
+
+    private static void pump(InputStream input, String stream, ExecJob job, int maxLineLength) {
+        try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            StringBuilder line = new StringBuilder();
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    char c = buffer[i];
+                    if (c == '\n') {
+                        emit(job, stream, line);
+                    } else if (c != '\r') {
+                        line.append(c);
+                        // a line with no newline at all (progress bars, binary) is cut instead of growing forever
+                        if (line.length() >= maxLineLength) {
+                            emit(job, stream, line);
+                        }
+                    }
+                }
+            }
+            if (line.length() > 0) {
+                emit(job, stream, line);
+            }
+        } catch (IOException e) {
+            // the process was killed or its pipe closed, nothing more to read
+        }
+    }
+
+    private static void emit(ExecJob job, String stream, StringBuilder line) {
+        if (job != null) {
+            job.append(stream, line.toString());
+        }
+        line.setLength(0);
+    }
+}
@@ -0,0 +1,202 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// every child process started by a FeatureExecutor goes through here:
+// - at most EXEC_MAX_PROCESSES at once, and EXEC_MAX_PROCESSES_PER_PROJECT for one project
+// - a wall clock timeout, after which the process and everything it started is killed
+// - cancellation of a job kills its running process the same way
+@ApplicationScoped
+public class ProcessSupervisor {
+
+    @Inject
+    Logger logger;
+
+    @ConfigProperty(name = "EXEC_MAX_PROCESSES", defaultValue = "16")
+    int maxProcesses;
+
+    @ConfigProperty(name = "EXEC_MAX_PROCESSES_PER_PROJECT", defaultValue = "2")
+    int maxProcessesPerProject;
+
+    // how long a command waits for a free slot before the request is refused
+    @ConfigProperty(name = "EXEC_QUEUE_TIMEOUT_MS", defaultValue = "5000")
+    long queueTimeoutMs;
+
+    @ConfigProperty(name = "EXEC_TIMEOUT_SECONDS", defaultValue = "60")
+    long defaultTimeoutSeconds;
+
+    // after a polite SIGTERM, how long the tree has before SIGKILL
+    @ConfigProperty(name = "EXEC_KILL_GRACE_MS", defaultValue = "2000")
+    long killGraceMs;
+
+    @ConfigProperty(name = "EXEC_OUTPUT_MAX_LINE_LENGTH", defaultValue = "4096")
+    int maxLineLength;
+
+    private Semaphore globalSlots;
+    // one entry per project that ever ran something, a few bytes each so they are never removed
+    private final Map<String, Semaphore> projectSlots = new ConcurrentHashMap<>();
+
+    public static class ProcessBusyException extends RuntimeException {
+        public ProcessBusyException(String message) {
+            super(message);
+        }
+    }
+
+    public static class ProcessTimeoutException extends RuntimeException {
+        public ProcessTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    public static class ProcessCancelledException extends RuntimeException {
+        public ProcessCancelledException(String message) {
+            super(message);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        globalSlots = new Semaphore(maxProcesses, true);
+        logger.info("ProcessSupervisor: " + maxProcesses + " processes max, " + maxProcessesPerProject
+            + " per project, timeout " + defaultTimeoutSeconds + "s");
+    }
+
+    public Duration defaultTimeout() {
+        return Duration.ofSeconds(defaultTimeoutSeconds);
+    }
+
+    public int run(ExecJob job, List<String> command, File workingDir) throws IOException, InterruptedException {
+        Duration timeout = job != null && job.getTimeout() != null ? job.getTimeout() : defaultTimeout();
+        return run(job, command, workingDir, timeout);
+    }
+
+    public int run(ExecJob job, List<String> command, File workingDir, Duration timeout)
+            throws IOException, InterruptedException {
+        return run(job, command, workingDir, timeout, null);
+    }
+
+    // starts the command with both outputs pumped into job (drained anyway if job is null) and returns its exit code
+    // environment replaces the whole environment of the server when not null
+    public int run(ExecJob job, List<String> command, File workingDir, Duration timeout, Map<String, String> environment)
+            throws IOException, InterruptedException {
+        String projectKey = job != null ? job.getProjectId().toString() : workingDir.getAbsolutePath();
+        Semaphore projectSlot = projectSlots.computeIfAbsent(projectKey, key -> new Semaphore(maxProcessesPerProject, true));
+
+        // the project slot first, so a project waiting on itself doesn't hold a global slot meanwhile
+        if (!projectSlot.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+            logger.warn("ProcessSupervisor: project " + projectKey + " already runs " + maxProcessesPerProject + " processes");
+            throw new ProcessBusyException("Too many commands running on this project");
+        }
+        try {
+            if (!globalSlots.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("ProcessSupervisor: all " + maxProcesses + " process slots are used");
+                throw new ProcessBusyException("Too many commands running on the server");
+            }
+            try {
+                return start(job, command, workingDir, timeout, environment);
+            } finally {
+                globalSlots.release();
+            }
+        } finally {
+            projectSlot.release();
+        }
+    }
+
+    // kills the running process of the job, the job itself is finished by whoever runs it
+    public boolean cancel(ExecJob job) {
+        if (job.getState() != ExecJob.State.RUNNING) {
+            return false;
+        }
+        Process process = job.requestCancel();
+        if (process != null) {
+            logger.info("ProcessSupervisor: cancelling job " + job.getId());
+            killTree(process);
+        }
+        return true;
+    }
+
+    private int start(ExecJob job, List<String> command, File workingDir, Duration timeout, Map<String, String> environment)
+            throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.directory(workingDir);
+        if (environment != null) {
+            processBuilder.environment().clear();
+            processBuilder.environment().putAll(environment);
+        }
+        // nobody can answer a prompt (credentials, editor), fail instead of waiting for the timeout
+        processBuilder.environment().put("GIT_TERMINAL_PROMPT", "0");
+        processBuilder.environment().put("GIT_EDITOR", "true");
+        processBuilder.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
+
+        Process process = processBuilder.start();
+        Thread stdout = OutputPump.start(process.getInputStream(), "stdout", job, maxLineLength);
+        Thread stderr = OutputPump.start(process.getErrorStream(), "stderr", job, maxLineLength);
+        try {
+            if (job != null && !job.attach(process)) {
+                killTree(process);
+                throw new ProcessCancelledException("Job was cancelled");
+            }
+
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warn("ProcessSupervisor: " + command + " timed out after " + timeout.toSeconds() + "s, killing it");
+                if (job != null) {
+                    job.markTimedOut();
+                }
+                killTree(process);
+                throw new ProcessTimeoutException("Command timed out after " + timeout.toSeconds() + "s");
+            }
+            if (job != null && job.isCancelled()) {
+                throw new ProcessCancelledException("Job was cancelled");
+            }
+
+            int exitCode = process.exitValue();
+            // the last lines may still be in the pipes when the process exits
+            stdout.join(killGraceMs);
+            stderr.join(killGraceMs);
+            if (job != null) {
+                job.processExited(exitCode);
+            }
+            return exitCode;
+        } finally {
+            if (job != null) {
+                job.detach(process);
+            }
+            if (process.isAlive()) {
+                killTree(process);
+            }
+        }
+    }
+
+    // SIGTERM to the process and all its descendants, SIGKILL to what is left after the grace period
+    // the descendants are listed before killing anything, once the parent is dead they are reparented and lost
+    private void killTree(Process process) {
+        ProcessHandle root = process.toHandle();
+        List<ProcessHandle> tree = root.descendants().toList();
+        tree.forEach(ProcessHandle::destroy);
+        root.destroy();
+
+        try {
+            if (!process.waitFor(killGraceMs, TimeUnit.MILLISECONDS)) {
+                root.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            root.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        tree.stream().filter(ProcessHandle::isAlive).forEach(ProcessHandle::destroyForcibly);
+    }
+}
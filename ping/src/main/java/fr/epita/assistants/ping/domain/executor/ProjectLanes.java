@@ -0,0 +1,145 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.dto.ExecLaneStats;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// one lane per project for the exec commands that change it (FeatureExecutor.mutates): two members running
+// git add and git commit at once would otherwise race on .git/index.lock
+// the commands of a project run one at a time in the order they came (a fair lock), those of different
+// projects in parallel, the reads (git status/log/diff) don't take a lane at all
+// at most EXEC_LANE_MAX_QUEUED commands wait behind the running one, a lane only exists while it is used
+@ApplicationScoped
+public class ProjectLanes {
+
+    @Inject
+    Logger logger;
+
+    @ConfigProperty(name = "EXEC_LANE_MAX_QUEUED", defaultValue = "16")
+    int maxQueued;
+
+    // a command waits this long for the ones before it, a git command is bounded by its timeout anyway
+    @ConfigProperty(name = "EXEC_LANE_TIMEOUT_MS", defaultValue = "30000")
+    long timeoutMs;
+
+    private static class Lane {
+        final ReentrantLock lock = new ReentrantLock(true);
+        // running + waiting, only changed inside lanes.compute
+        int users;
+    }
+
+    private final Map<Path, Lane> lanes = new ConcurrentHashMap<>();
+    private final LongAdder entered = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder waitedNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    // held until closed
+    public interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    // waits for the previous commands of the project, job (may be null) is checked once the lane is ours
+    public Held enter(File projectRoot, ExecJob job) {
+        Path key = projectRoot.toPath().toAbsolutePath().normalize();
+        int[] users = new int[1];
+        Lane lane = lanes.compute(key, (path, existing) -> {
+            Lane found = existing != null ? existing : new Lane();
+            users[0] = ++found.users;
+            return found;
+        });
+
+        if (users[0] > maxQueued + 1) {
+            leave(key, lane);
+            rejected.increment();
+            logger.warn("ProjectLanes: " + maxQueued + " commands already waiting on " + key.getFileName());
+            throw new ProcessSupervisor.ProcessBusyException("Too many commands waiting on this project");
+        }
+
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = lane.lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            leave(key, lane);
+            Thread.currentThread().interrupt();
+            throw new ProcessSupervisor.ProcessCancelledException("Interrupted while waiting for the project");
+        }
+        if (!acquired) {
+            leave(key, lane);
+            timedOut.increment();
+            logger.warn("ProjectLanes: gave up waiting " + timeoutMs + "ms for " + key.getFileName());
+            throw new ProcessSupervisor.ProcessBusyException("The project is busy with other commands");
+        }
+
+        long waited = System.nanoTime() - start;
+        entered.increment();
+        waitedNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (waited > TimeUnit.SECONDS.toNanos(1)) {
+            logger.debug("ProjectLanes: waited " + TimeUnit.NANOSECONDS.toMillis(waited) + "ms for " + key.getFileName());
+        }
+
+        Held held = () -> {
+            lane.lock.unlock();
+            leave(key, lane);
+        };
+        if (job != null && job.isCancelled()) {
+            held.close();
+            throw new ProcessSupervisor.ProcessCancelledException("Cancelled while waiting for the project");
+        }
+        return held;
+    }
+
+    private void leave(Path key, Lane lane) {
+        lanes.computeIfPresent(key, (path, existing) -> {
+            if (existing != lane) {
+                return existing;
+            }
+            existing.users--;
+            return existing.users == 0 ? null : existing;
+        });
+    }
+
+    // busiest lanes first, at most top of them listed
+    public ExecLaneStats stats(int top) {
+        ExecLaneStats stats = new ExecLaneStats();
+        List<ExecLaneStats.Lane> busy = new ArrayList<>();
+        lanes.forEach((path, lane) -> {
+            ExecLaneStats.Lane entry = new ExecLaneStats.Lane();
+            entry.project = path.getFileName().toString();
+            entry.running = lane.lock.isLocked();
+            entry.waiting = lane.lock.getQueueLength();
+            stats.lanes++;
+            stats.running += entry.running ? 1 : 0;
+            stats.waiting += entry.waiting;
+            stats.deepestQueue = Math.max(stats.deepestQueue, entry.waiting);
+            busy.add(entry);
+        });
+        busy.sort(Comparator.comparingInt((ExecLaneStats.Lane lane) -> lane.waiting).reversed());
+        stats.busiest = busy.subList(0, Math.min(top, busy.size()));
+        stats.entered = entered.sum();
+        stats.rejected = rejected.sum();
+        stats.timedOut = timedOut.sum();
+        stats.avgWaitMs = stats.entered == 0 ? 0 : waitedNanos.sum() / 1e6 / stats.entered;
+        stats.maxWaitMs = TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+        return stats;
+    }
+}
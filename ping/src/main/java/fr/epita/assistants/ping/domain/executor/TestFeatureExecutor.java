@@ -0,0 +1,48 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import java.io.File;
+
+import fr.epita.assistants.ping.dto.ProjectDTOs.RunCommand;
+import fr.epita.assistants.ping.service.GradingService;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// feature "test": runs the autograder on the project and stores the grade, see GradingService
+// only one command, "run"
+@ApplicationScoped
+public class TestFeatureExecutor implements FeatureExecutor {
+
+    @Inject
+    GradingService gradingService;
+
+    @Inject
+    Logger logger;
+
+    @Override
+    public String name() {
+        return "test";
+    }
+
+    @Override
+    public void execute(File projectRoot, Object request) {
+        throw new IllegalArgumentException("The test feature needs an exec job to report its results");
+    }
+
+    @Override
+    public void execute(File projectRoot, Object request, ExecJob job) {
+        if (!(request instanceof RunCommand runCommand)) {
+            logger.error("TestFeatureExecutor received invalid request type: " + request.getClass().getName());
+            throw new IllegalArgumentException("Invalid request type for test executor");
+        }
+        if (job == null) {
+            throw new IllegalArgumentException("The test feature needs an exec job to report its results");
+        }
+        if (!"run".equalsIgnoreCase(runCommand.command)) {
+            logger.error("unknown test command: " + runCommand.command);
+            throw new IllegalArgumentException("unknown test command: " + runCommand.command);
+        }
+
+        gradingService.gradeNow(job, projectRoot.toPath());
+    }
+}
@@ -0,0 +1,130 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+// counts of a test run, read from the JUnit XML reports it wrote or from its TAP output
+public record TestResults(int passed, int failed, int skipped) {
+
+    public int total() {
+        return passed + failed + skipped;
+    }
+
+    // percentage of the tests that ran and passed, skipped ones don't count
+    public Double score() {
+        int ran = passed + failed;
+        return ran == 0 ? null : passed * 100.0 / ran;
+    }
+
+    // sums every <testcase> of the reports matching glob under dir, written after sinceMillis
+    // (a report committed in the project is not a result of this run)
+    // null when there is no such report
+    public static TestResults fromJUnit(Path dir, String glob, long sinceMillis) throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        List<Path> reports;
+        try (Stream<Path> files = Files.walk(dir)) {
+            reports = files
+                .filter(Files::isRegularFile)
+                .filter(file -> matcher.matches(dir.relativize(file)))
+                .filter(file -> {
+                    try {
+                        return Files.getLastModifiedTime(file).toMillis() >= sinceMillis;
+                    } catch (IOException e) {
+                        return false;
+                    }
+                })
+                .toList();
+        }
+        if (reports.isEmpty()) {
+            return null;
+        }
+
+        int[] counts = new int[3];
+        for (Path report : reports) {
+            try (InputStream in = Files.newInputStream(report)) {
+                countTestCases(in, counts);
+            } catch (XMLStreamException e) {
+                throw new IOException("Invalid JUnit report " + dir.relativize(report) + ": " + e.getMessage(), e);
+            }
+        }
+        return new TestResults(counts[0], counts[1], counts[2]);
+    }
+
+    private static void countTestCases(InputStream in, int[] counts) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // the reports are written by student code, no DTD and no external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            boolean inTestCase = false;
+            int outcome = 0; // 0 passed, 1 failed, 2 skipped
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("testcase".equals(name)) {
+                        inTestCase = true;
+                        outcome = 0;
+                    } else if (inTestCase && ("failure".equals(name) || "error".equals(name))) {
+                        outcome = 1;
+                    } else if (inTestCase && "skipped".equals(name) && outcome == 0) {
+                        outcome = 2;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "testcase".equals(reader.getLocalName())) {
+                    counts[outcome]++;
+                    inTestCase = false;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    // reads the TAP lines of a job as they are produced, so it doesn't depend on the job's bounded buffer
+    // only top level results count ("ok 3 - ..." / "not ok 4 - ..."), indented subtests are ignored
+    public static class TapCounter implements ExecJob.Listener {
+        private static final Pattern RESULT = Pattern.compile("^(not )?ok\\b.*");
+        private static final Pattern SKIP = Pattern.compile("#\\s*(SKIP|TODO)\\b.*", Pattern.CASE_INSENSITIVE);
+
+        private int passed;
+        private int failed;
+        private int skipped;
+
+        @Override
+        public synchronized void onLine(ExecJob.OutputLine line) {
+            if (!"stdout".equals(line.stream()) || !RESULT.matcher(line.text()).matches()) {
+                return;
+            }
+            int hash = line.text().indexOf('#');
+            if (hash >= 0 && SKIP.matcher(line.text().substring(hash)).matches()) {
+                skipped++;
+            } else if (line.text().startsWith("not ")) {
+                failed++;
+            } else {
+                passed++;
+            }
+        }
+
+        @Override
+        public void onFinished(ExecJob job) {
+        }
+
+        // null when no TAP line was seen
+        public synchronized TestResults results() {
+            return passed + failed + skipped == 0 ? null : new TestResults(passed, failed, skipped);
+        }
+    }
+}
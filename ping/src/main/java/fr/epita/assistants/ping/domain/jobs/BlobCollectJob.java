@@ -0,0 +1,34 @@
+package fr.epita.assistants.ping.domain.jobs;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import fr.epita.assistants.ping.service.BlobStore;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// removes the blobs no project file links to anymore (dedup mode), POST /api/admin/blobs/gc does the same on demand
+@ApplicationScoped
+public class BlobCollectJob implements ClusterJob {
+
+    @Inject
+    BlobStore blobStore;
+
+    @Override
+    public String name() {
+        return "blob-gc";
+    }
+
+    @Override
+    public Duration interval() {
+        return Duration.ofHours(6);
+    }
+
+    @Override
+    public String run() throws IOException {
+        if (!blobStore.isEnabled()) {
+            return null;
+        }
+        return blobStore.collect() + " unreferenced blobs removed";
+    }
+}
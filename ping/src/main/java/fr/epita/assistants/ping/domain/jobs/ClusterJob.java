@@ -0,0 +1,15 @@
+package fr.epita.assistants.ping.domain.jobs;
+
+import java.time.Duration;
+
+// periodic background work that one instance at a time should do (see ClusterScheduler), adding one is adding a bean
+public interface ClusterJob {
+    // also the key of its config: CLUSTER_JOB_<NAME>_INTERVAL / _ENABLED
+    String name();
+
+    // time between the end of a run and the next one, unless configured
+    Duration interval();
+
+    // a line on what the run did for its history (GET /api/admin/jobs), may be null
+    String run() throws Exception;
+}
@@ -0,0 +1,260 @@
+package fr.epita.assistants.ping.domain.jobs;
+
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.data.model.ClusterJobModel;
+import fr.epita.assistants.ping.data.model.ClusterJobRunModel;
+import fr.epita.assistants.ping.dto.ClusterJobStatus;
+import fr.epita.assistants.ping.repository.ClusterJobRepository;
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Any;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+
+// runs every ClusterJob bean on one instance at a time, however many instances there are
+// every CLUSTER_JOBS_TICK each instance looks at the jobs it thinks are due and, after a random delay of up to
+// CLUSTER_JOBS_JITTER_SECONDS (so they don't all hit the database at once), tries pg_try_advisory_lock on a
+// connection of its own: the one that gets it checks in cluster_jobs that the job is still due, runs it, and
+// sets when it is due again, the others just skip it
+// the lock belongs to the connection, if the instance dies postgres releases it and another one takes over;
+// the lease in cluster_jobs (renewed while the job runs) shows who runs it and marks the run LOST afterwards
+// per job config: CLUSTER_JOB_<NAME>_INTERVAL (a duration, 30m, 6h...) and CLUSTER_JOB_<NAME>_ENABLED
+@ApplicationScoped
+public class ClusterScheduler {
+
+    // first half of the advisory lock key, the second is hashtext(job name)
+    private static final int LOCK_CLASS = 0x50494e47;
+
+    @Inject
+    @Any
+    Instance<ClusterJob> beans;
+
+    @Inject
+    ClusterJobRepository repository;
+
+    @Inject
+    DataSource dataSource;
+
+    @Inject
+    Logger logger;
+
+    @ConfigProperty(name = "CLUSTER_JOBS_ENABLED", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "CLUSTER_JOBS_JITTER_SECONDS", defaultValue = "30")
+    long jitterSeconds;
+
+    @ConfigProperty(name = "CLUSTER_JOBS_LEASE_SECONDS", defaultValue = "300")
+    long leaseSeconds;
+
+    // runs kept per job
+    @ConfigProperty(name = "CLUSTER_JOBS_HISTORY", defaultValue = "50")
+    int history;
+
+    private record Job(ClusterJob job, Duration interval, AtomicBoolean running, AtomicReference<Instant> nextAttempt) {}
+
+    // built once at startup and never modified
+    private Map<String, Job> jobs;
+    private String node;
+    private ScheduledExecutorService heartbeats;
+
+    @PostConstruct
+    void init() {
+        String host = hostname();
+        node = host.substring(0, Math.min(host.length(), 50)) + "-" + UUID.randomUUID().toString().substring(0, 8);
+        heartbeats = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("cluster-job-lease").daemon().factory());
+        Config config = ConfigProvider.getConfig();
+        Map<String, Job> found = new HashMap<>();
+        for (ClusterJob job : beans) {
+            if (found.containsKey(job.name())) {
+                throw new IllegalStateException("Two cluster jobs are named " + job.name());
+            }
+            String prefix = "CLUSTER_JOB_" + job.name().toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "_");
+            if (!config.getOptionalValue(prefix + "_ENABLED", Boolean.class).orElse(true)) {
+                logger.info("ClusterScheduler: job " + job.name() + " disabled");
+                continue;
+            }
+            Duration interval = config.getOptionalValue(prefix + "_INTERVAL", Duration.class).orElse(job.interval());
+            found.put(job.name(), new Job(job, interval, new AtomicBoolean(), new AtomicReference<>(Instant.EPOCH)));
+            logger.info("ClusterScheduler: job " + job.name() + " every " + interval);
+        }
+        jobs = Map.copyOf(found);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        heartbeats.shutdownNow();
+    }
+
+    @Scheduled(every = "${CLUSTER_JOBS_TICK:15s}", delayed = "30s", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void tick() {
+        if (!enabled) {
+            return;
+        }
+        Instant now = Instant.now();
+        for (Job job : jobs.values()) {
+            if (job.nextAttempt().get().isAfter(now) || !job.running().compareAndSet(false, true)) {
+                continue;
+            }
+            long delay = jitterSeconds > 0 ? ThreadLocalRandom.current().nextLong(jitterSeconds * 1000) : 0;
+            Thread.ofVirtual().name("cluster-job-" + job.job().name()).start(() -> {
+                try {
+                    Thread.sleep(delay);
+                    attempt(job);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    logger.error("ClusterScheduler: job " + job.job().name() + " could not be scheduled: " + e.getMessage());
+                } finally {
+                    job.running().set(false);
+                }
+            });
+        }
+    }
+
+    // due at once, on whichever instance looks first
+    public boolean trigger(String name) {
+        Job job = jobs.get(name);
+        if (job == null) {
+            return false;
+        }
+        repository.trigger(name);
+        job.nextAttempt().set(Instant.EPOCH);
+        return true;
+    }
+
+    public List<ClusterJobStatus> status(int runs) {
+        List<ClusterJobStatus> result = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            ClusterJobStatus status = new ClusterJobStatus();
+            status.name = job.job().name();
+            status.intervalSeconds = job.interval().toSeconds();
+            ClusterJobModel state = repository.findJob(status.name);
+            if (state != null) {
+                status.owner = state.owner;
+                status.leaseUntil = state.leaseUntil == null ? null : state.leaseUntil.toString();
+                status.nextRunAt = state.nextRunAt == null ? null : state.nextRunAt.toString();
+            }
+            status.runs = new ArrayList<>();
+            for (ClusterJobRunModel run : repository.recentRuns(status.name, runs)) {
+                ClusterJobStatus.Run info = new ClusterJobStatus.Run();
+                info.node = run.node;
+                info.status = run.status.name();
+                info.error = run.error;
+                info.summary = run.summary;
+                info.startedAt = run.startedAt.toString();
+                info.finishedAt = run.finishedAt == null ? null : run.finishedAt.toString();
+                status.runs.add(info);
+            }
+            result.add(status);
+        }
+        return result;
+    }
+
+    private void attempt(Job job) {
+        String name = job.job().name();
+        try (Connection connection = dataSource.getConnection()) {
+            if (!advisoryLock(connection, "select pg_try_advisory_lock(?, hashtext(?))", name)) {
+                return; // running on another instance
+            }
+            try {
+                runLocked(job);
+            } finally {
+                // the connection goes back to the pool, the lock would stay with it
+                advisoryLock(connection, "select pg_advisory_unlock(?, hashtext(?))", name);
+            }
+        } catch (SQLException e) {
+            logger.warn("ClusterScheduler: could not lock job " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void runLocked(Job job) {
+        String name = job.job().name();
+        Duration lease = Duration.ofSeconds(leaseSeconds);
+        ClusterJobRunModel run = repository.claim(name, node, lease);
+        if (run == null) {
+            // done recently by another instance, nothing to do here before it is due again
+            ClusterJobModel state = repository.findJob(name);
+            if (state != null && state.nextRunAt != null) {
+                job.nextAttempt().set(state.nextRunAt);
+            }
+            return;
+        }
+
+        long period = Math.max(1, leaseSeconds / 3);
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+            try {
+                if (!repository.renew(name, node, lease)) {
+                    logger.warn("ClusterScheduler: lost the lease of job " + name);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("ClusterScheduler: could not renew the lease of job " + name + ": " + e.getMessage());
+            }
+        }, period, period, TimeUnit.SECONDS);
+
+        logger.info("ClusterScheduler: running job " + name + " on " + node);
+        long start = System.nanoTime();
+        String error = null;
+        String summary = null;
+        try {
+            summary = job.job().run();
+        } catch (Exception e) {
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            logger.error("ClusterScheduler: job " + name + " failed: " + error);
+        } finally {
+            heartbeat.cancel(false);
+        }
+        Instant next = Instant.now().plus(job.interval());
+        repository.finish(name, run.id, node, error, summary, next, Math.max(1, history));
+        job.nextAttempt().set(next);
+        logger.info("ClusterScheduler: job " + name + " " + (error == null ? "done" : "failed")
+            + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    private static boolean advisoryLock(Connection connection, String sql, String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, LOCK_CLASS);
+            statement.setString(2, name);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() && result.getBoolean(1);
+            }
+        }
+    }
+
+    private static String hostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "node";
+        }
+    }
+}
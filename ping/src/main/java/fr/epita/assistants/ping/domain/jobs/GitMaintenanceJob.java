@@ -0,0 +1,30 @@
+package fr.epita.assistants.ping.domain.jobs;
+
+import java.time.Duration;
+
+import fr.epita.assistants.ping.service.GitMaintenanceService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// gc and commit-graph of the project repositories that need it, the report is the summary of the run
+@ApplicationScoped
+public class GitMaintenanceJob implements ClusterJob {
+
+    @Inject
+    GitMaintenanceService maintenanceService;
+
+    @Override
+    public String name() {
+        return "git-maintenance";
+    }
+
+    @Override
+    public Duration interval() {
+        return Duration.ofHours(6);
+    }
+
+    @Override
+    public String run() throws InterruptedException {
+        return maintenanceService.maintainAll().summary();
+    }
+}
@@ -0,0 +1,36 @@
+package fr.epita.assistants.ping.domain.jobs;
+
+import java.time.Duration;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.service.QuotaService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// walks every project and corrects the saved usage, one walk of the storage for all the instances,
+// the others reload the corrected usage when it is saved (InvalidationBus)
+@ApplicationScoped
+public class QuotaReconcileJob implements ClusterJob {
+
+    @Inject
+    QuotaService quotaService;
+
+    @ConfigProperty(name = "QUOTA_RECONCILE_INTERVAL", defaultValue = "1h")
+    Duration interval;
+
+    @Override
+    public String name() {
+        return "quota-reconcile";
+    }
+
+    @Override
+    public Duration interval() {
+        return interval;
+    }
+
+    @Override
+    public String run() {
+        return quotaService.reconcileAll() + " projects had drifted";
+    }
+}
@@ -0,0 +1,9 @@
+package fr.epita.assistants.ping.dto;
+
+// content of the blob store (GET /api/admin/blobs) or what a dedup pass did (POST /api/admin/blobs/dedup)
+public class BlobStats {
+    public long blobs; // distinct contents stored (new ones for a dedup pass)
+    public long files; // project files (and snapshot files) pointing to a blob
+    public long storedBytes; // what the blobs really use on disk
+    public long savedBytes; // what the same files would use on top of that without the store
+}
@@ -0,0 +1,29 @@
+package fr.epita.assistants.ping.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// per row result of a bulk user import (POST /api/user:bulk)
+public class BulkUserReport {
+    public int created;
+    public int rejected;
+    public List<Row> rows = new ArrayList<>();
+
+    public static class Row {
+        public int line;
+        public String login;
+        public String status; // created, invalid or conflict
+        public String message;
+        public UUID id;
+
+        public Row() {}
+
+        public Row(int line, String login, String status, String message) {
+            this.line = line;
+            this.login = login;
+            this.status = status;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package fr.epita.assistants.ping.dto;
+
+import java.util.List;
+
+public class CacheStatsResponse {
+    public boolean enabled;
+    public long hitCount;
+    public long missCount;
+    public long putCount;
+    public double hitRatio;
+    public long queryHitCount;
+    public long queryMissCount;
+    public double queryHitRatio;
+    public List<RegionStats> regions;
+
+    public static class RegionStats {
+        public String name;
+        public long hitCount;
+        public long missCount;
+        public long putCount;
+        public long elementCount;
+        public double hitRatio;
+    }
+}
@@ -0,0 +1,22 @@
+package fr.epita.assistants.ping.dto;
+
+import java.util.List;
+
+// a cluster job and its last runs (GET /api/admin/jobs)
+public class ClusterJobStatus {
+    public String name;
+    public long intervalSeconds;
+    public String owner; // instance running it right now, null if none
+    public String leaseUntil;
+    public String nextRunAt;
+    public List<Run> runs;
+
+    public static class Run {
+        public String node;
+        public String status;
+        public String error;
+        public String summary;
+        public String startedAt;
+        public String finishedAt;
+    }
+}
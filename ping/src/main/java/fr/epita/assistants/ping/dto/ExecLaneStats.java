@@ -0,0 +1,22 @@
+package fr.epita.assistants.ping.dto;
+
+import java.util.List;
+
+public class ExecLaneStats {
+    public int lanes;
+    public int running;
+    public int waiting;
+    public int deepestQueue;
+    public long entered;
+    public long rejected;
+    public long timedOut;
+    public double avgWaitMs;
+    public long maxWaitMs;
+    public List<Lane> busiest;
+
+    public static class Lane {
+        public String project;
+        public boolean running;
+        public int waiting;
+    }
+}
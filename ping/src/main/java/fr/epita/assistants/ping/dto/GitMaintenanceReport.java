@@ -0,0 +1,19 @@
+package fr.epita.assistants.ping.dto;
+
+// what one pass of GitMaintenanceService did
+public class GitMaintenanceReport {
+    public int scanned;
+    public int maintained;
+    public int busy;
+    public int failed;
+    public long looseObjectsPacked;
+    public long bytesBefore;
+    public long bytesAfter;
+    public long reclaimedBytes;
+    public long durationMs;
+
+    public String summary() {
+        return "maintained " + maintained + " of " + scanned + " repositories (" + busy + " busy, " + failed + " failed), "
+            + looseObjectsPacked + " loose objects packed, " + reclaimedBytes + " bytes reclaimed in " + durationMs + "ms";
+    }
+}
@@ -51,6 +51,198 @@ public class ProjectDTOs {
         public UUID userId;
     }   
 
+    // add and remove many members in one call (members:batch)
+    public static class BatchMembers {
+        public List<UUID> add;
+        public List<UUID> remove;
+    }
+
+    public static class BatchMembersResult {
+        public int added;
+        public int removed;
+        public List<UUID> unknownUsers;
+        public ProjectInfo project;
+    }
+
+
+    // read only git views (GET /git/status, /git/log, /git/diff)
+    public static class GitStatus {
+        public String branch;
+        public String head;
+        public boolean clean;
+        public List<String> added;
+        public List<String> changed;
+        public List<String> removed;
+        public List<String> missing;
+        public List<String> modified;
+        public List<String> untracked;
+        public List<String> conflicting;
+    }
+
+    public static class GitCommit {
+        public String id;
+        public String message;
+        public String authorName;
+        public String authorEmail;
+        public long time; // epoch seconds
+        public List<String> parents;
+    }
+
+    public static class GitLogPage {
+        public List<GitCommit> commits;
+        public String nextCursor; // null when there is nothing after this page
+    }
+
+    public static class GitDiffEntry {
+        public String changeType;
+        public String oldPath;
+        public String newPath;
+        public String patch;
+        public boolean truncated;
+    }
+
+    public static class ExecJobInfo {
+        public UUID jobId;
+        public String feature;
+        public String command;
+        public String state; // RUNNING, SUCCEEDED, FAILED, CANCELLED or TIMED_OUT
+        public Integer exitCode;
+        public String error;
+        public String startedAt;
+        public String finishedAt;
+        public long droppedLines; // output lines that fell out of the buffer
+    }
+
+    public static class GradeInfo {
+        public UUID id;
+        public UUID projectId;
+        public UUID jobId; // exec job of the run, its output is on /exec/{jobId}/stream
+        public String status; // QUEUED, RUNNING, DONE or ERROR
+        public int passed;
+        public int failed;
+        public int skipped;
+        public Double score; // percentage of passed tests
+        public String message;
+        public String createdAt;
+        public String finishedAt;
+    }
+
+    // grade many projects at once, all of them if projectIds is null
+    public static class GradeBatch {
+        public List<UUID> projectIds;
+    }
+
+    public static class CreateSnapshot {
+        public String label;
+    }
+
+    public static class SnapshotInfo {
+        public UUID id;
+        public String label;
+        public String createdAt;
+        public UUID createdBy;
+        public int files;
+        public long logicalBytes; // size of all its files
+        public long exclusiveBytes; // only held by this snapshot, given back when it is deleted
+    }
+
+    public static class SnapshotUsage {
+        public long projectBytes;
+        public long snapshotsBytes; // on top of the project, hard links to unchanged files are free
+        public long totalBytes;
+        public int snapshots;
+    }
+
+    public static class ProjectUsage {
+        public long bytes;
+        public long files;
+        public Long quotaBytes; // null when there is no limit
+        public Long quotaFiles;
+    }
+
+    // one project of the dashboard (GET /api/projects/stats)
+    public static class ProjectSummary {
+        public UUID id;
+        public String name;
+        public UserSummary owner;
+        public int members;
+        public long files;
+        public long bytes;
+        public String lastModified; // null if its files never changed through the api
+        public String lastCommitId; // the lastCommit* are null before the first commit
+        public String lastCommitMessage;
+        public String lastCommitAuthor;
+        public String lastCommitAt;
+    }
+
+    // a change of the files of a project, sent to the members watching it (FileEventsSocket)
+    public static class FileEvent {
+        public String type; // created, written, deleted, moved, or resync when too much changed at once (list again)
+        public String path; // relative to the project
+        public String from; // for moved
+        public boolean folder;
+    }
+
+    public static class FileEventBatch {
+        public UUID projectId;
+        public List<FileEvent> events;
+    }
+
+    // checksums of each blockSize bytes of a file (the last block may be shorter), see FileSystemService.signature
+    public static class FileSignature {
+        public String etag; // to send back as If-Match with the patch
+        public long size;
+        public int blockSize;
+        public List<BlockChecksum> blocks;
+    }
+
+    public static class BlockChecksum {
+        public int weak; // rolling checksum, to find the block at any offset of the new content
+        public String strong; // sha-256 (hex), to confirm a weak match
+    }
+
+    // the new content of a file as a list of ops against the blocks of its signature
+    public static class FilePatch {
+        public int blockSize;
+        public List<PatchOp> ops;
+    }
+
+    public static class PatchOp {
+        public String op; // "copy": count blocks from block, "data": literal bytes
+        public Integer block;
+        public Integer count; // 1 if null
+        public String data; // base64
+    }
+
+    public static GradeInfo makeGradeInfo(fr.epita.assistants.ping.data.model.GradeModel grade) {
+        GradeInfo info = new GradeInfo();
+        info.id = grade.id;
+        info.projectId = grade.projectId;
+        info.jobId = grade.jobId;
+        info.status = grade.status.name();
+        info.passed = grade.passed;
+        info.failed = grade.failed;
+        info.skipped = grade.skipped;
+        info.score = grade.score;
+        info.message = grade.message;
+        info.createdAt = grade.createdAt != null ? grade.createdAt.toString() : null;
+        info.finishedAt = grade.finishedAt != null ? grade.finishedAt.toString() : null;
+        return info;
+    }
+
+    public static ExecJobInfo makeExecJobInfo(fr.epita.assistants.ping.domain.executor.ExecJob job) {
+        ExecJobInfo info = new ExecJobInfo();
+        info.jobId = job.getId();
+        info.feature = job.getFeature();
+        info.command = job.getCommand();
+        info.state = job.getState().name();
+        info.exitCode = job.getExitCode();
+        info.error = job.getError();
+        info.startedAt = job.getStartedAt().toString();
+        info.finishedAt = job.getFinishedAt() != null ? job.getFinishedAt().toString() : null;
+        info.droppedLines = job.getDroppedLines();
+        return info;
+    }
 
     public static UserSummary makeUserSummary(fr.epita.assistants.ping.data.model.UserModel user) {
         if(user == null)
@@ -0,0 +1,20 @@
+package fr.epita.assistants.ping.dto;
+
+import java.util.List;
+
+// storage roots and the state of the rebalancer (GET /api/admin/storage)
+public class StorageStatus {
+    public String policy;
+    public List<Root> roots;
+    public boolean rebalancing;
+    public int planned;
+    public int moved;
+    public int failed;
+
+    public static class Root {
+        public String path;
+        public long projects;
+        public long usableBytes;
+        public long totalBytes;
+    }
+}
@@ -0,0 +1,105 @@
+package fr.epita.assistants.ping.presentation.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+
+// the http layer gzips the json and text responses on the fly (quarkus.http.enable-compression) but has no
+// size threshold, for a few hundred bytes the gzip header and the cpu cost more than they save
+// this keeps the first HTTP_COMPRESSION_MIN_BYTES of the body: if the body ends before, it is sent with
+// Content-Encoding: identity (the compressor leaves those alone), otherwise it streams on and gets compressed
+// the headers are only sent with the first byte, so they can still change while the body is held back
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionThresholdInterceptor implements WriterInterceptor {
+
+    @ConfigProperty(name = "HTTP_COMPRESSION_MIN_BYTES", defaultValue = "1024")
+    int minBytes;
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        MultivaluedMap<String, Object> headers = context.getHeaders();
+        boolean events = MediaType.SERVER_SENT_EVENTS_TYPE.isCompatible(context.getMediaType());
+        if (headers.containsKey(HttpHeaders.CONTENT_ENCODING) || minBytes <= 0 || events) {
+            context.proceed(); // already encoded (stored gzip files), no threshold, or a live stream
+            return;
+        }
+        ThresholdOutputStream out = new ThresholdOutputStream(context.getOutputStream(), headers, minBytes);
+        context.setOutputStream(out);
+        try {
+            context.proceed();
+        } finally {
+            out.release();
+        }
+    }
+
+    private static class ThresholdOutputStream extends OutputStream {
+        private final OutputStream target;
+        private final MultivaluedMap<String, Object> headers;
+        private final int threshold;
+        private ByteArrayOutputStream held = new ByteArrayOutputStream();
+
+        ThresholdOutputStream(OutputStream target, MultivaluedMap<String, Object> headers, int threshold) {
+            this.target = target;
+            this.headers = headers;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (held == null) {
+                target.write(bytes, offset, length);
+                return;
+            }
+            held.write(bytes, offset, length);
+            if (held.size() >= threshold) {
+                // big enough, the compressor takes it from here
+                byte[] start = held.toByteArray();
+                held = null;
+                target.write(start);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // a flush before the threshold (streaming writers) would send the headers, it waits for the end
+            if (held == null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            release();
+            target.close();
+        }
+
+        // end of a small body: sent as is
+        void release() throws IOException {
+            if (held == null) {
+                return;
+            }
+            byte[] body = held.toByteArray();
+            held = null;
+            headers.putSingle(HttpHeaders.CONTENT_ENCODING, "identity");
+            target.write(body);
+            target.flush();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package fr.epita.assistants.ping.presentation.filter;
+
+import java.security.Principal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.jwt.JsonWebToken;
+
+import fr.epita.assistants.ping.service.RateLimiter;
+import fr.epita.assistants.ping.service.RateLimiter.Kind;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+
+// rejects requests with 429 once the user (or the project) is out of tokens for this kind of endpoint
+// runs after authentication so the JWT subject is known
+@Provider
+@RateLimited
+@Priority(Priorities.USER)
+public class RateLimitFilter implements ContainerRequestFilter {
+
+    @Inject
+    RateLimiter rateLimiter;
+
+    @Inject
+    Logger logger;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        Principal principal = requestContext.getSecurityContext() != null
+            ? requestContext.getSecurityContext().getUserPrincipal() : null;
+        if (principal == null) {
+            return; // not authenticated, @RolesAllowed answers this one
+        }
+        String subject = principal instanceof JsonWebToken token && token.getSubject() != null
+            ? token.getSubject() : principal.getName();
+
+        UUID projectId = projectIdOf(requestContext.getUriInfo().getPathParameters());
+
+        Kind kind = kindOf(requestContext);
+        long waitNanos = rateLimiter.tryAcquire(subject, projectId, kind);
+        if (waitNanos > 0) {
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1);
+            logger.warn("Rate limit hit - User: " + principal.getName() + ", project: " + projectId + 
+                       ", kind: " + kind + ", retry after " + retryAfter + "s");
+            requestContext.abortWith(Response.status(429)
+                .header("Retry-After", String.valueOf(retryAfter))
+                .entity(java.util.Map.of("message", "Too many requests")).build());
+        }
+    }
+
+    // keyed on the parsed id so every spelling of a project id (upper case, ...) shares one bucket, and a junk id doesn't
+    // get a bucket at all, the resource rejects it anyway
+    private static UUID projectIdOf(MultivaluedMap<String, String> pathParams) {
+        String raw = pathParams.containsKey("projectId") ? pathParams.getFirst("projectId") : pathParams.getFirst("id");
+        if (raw == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(raw);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Kind kindOf(ContainerRequestContext requestContext) {
+        // following a running job (status, output stream) is a read, only starting or stopping one is an exec
+        String method = requestContext.getMethod();
+        if ("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)) {
+            return Kind.READ;
+        }
+        String path = requestContext.getUriInfo().getPath();
+        // starting a grading is a test run, as heavy as an exec
+        if (path.endsWith("/exec") || path.contains("/exec/") || path.endsWith("/grades")) {
+            return Kind.EXEC;
+        }
+        return Kind.WRITE;
+    }
+}
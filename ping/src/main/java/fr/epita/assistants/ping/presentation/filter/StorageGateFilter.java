@@ -0,0 +1,67 @@
+package fr.epita.assistants.ping.presentation.filter;
+
+import java.util.UUID;
+
+import fr.epita.assistants.ping.service.ProjectStorage;
+import fr.epita.assistants.ping.service.ProjectStorage.StorageBusyException;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+
+// holds the storage gate of the project for the whole request, so the rebalancer never moves
+// a project under a running request, and a request that comes during the last sync of a move waits for it
+// 503 when the move takes longer than STORAGE_GATE_TIMEOUT_MS
+@Provider
+@StorageGuarded
+@Priority(Priorities.USER + 100)
+public class StorageGateFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String ENTERED = StorageGateFilter.class.getName() + ".project";
+
+    @Inject
+    ProjectStorage projectStorage;
+
+    @Inject
+    Logger logger;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        MultivaluedMap<String, String> pathParams = requestContext.getUriInfo().getPathParameters();
+        String value = pathParams.containsKey("projectId") ? pathParams.getFirst("projectId") : pathParams.getFirst("id");
+        UUID projectId;
+        try {
+            projectId = value != null ? UUID.fromString(value) : null;
+        } catch (IllegalArgumentException e) {
+            return; // the resource answers the bad id
+        }
+        if (projectId == null) {
+            return;
+        }
+
+        try {
+            projectStorage.enter(projectId);
+            requestContext.setProperty(ENTERED, projectId);
+        } catch (StorageBusyException e) {
+            logger.warn("Storage gate closed for project " + projectId + " - " + e.getMessage());
+            requestContext.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "5")
+                .entity(java.util.Map.of("message", e.getMessage())).build());
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if (requestContext.getProperty(ENTERED) instanceof UUID projectId) {
+            requestContext.removeProperty(ENTERED);
+            projectStorage.exit(projectId);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package fr.epita.assistants.ping.presentation.filter;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import jakarta.ws.rs.NameBinding;
+
+// put this on the endpoints that touch the files of a project, they run behind StorageGateFilter
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface StorageGuarded {
+}
@@ -0,0 +1,308 @@
+package fr.epita.assistants.ping.presentation.rest;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.eclipse.microprofile.jwt.JsonWebToken;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.domain.executor.ProjectLanes;
+import fr.epita.assistants.ping.domain.jobs.ClusterScheduler;
+import fr.epita.assistants.ping.dto.CacheStatsResponse;
+import fr.epita.assistants.ping.dto.ProjectDTOs;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GradeBatch;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GradeInfo;
+import fr.epita.assistants.ping.service.BlobStore;
+import fr.epita.assistants.ping.service.CacheService;
+import fr.epita.assistants.ping.service.GradingService;
+import fr.epita.assistants.ping.service.PrecompressedCache;
+import fr.epita.assistants.ping.service.ProjectService;
+import fr.epita.assistants.ping.service.StorageRebalancer;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+
+// admin only endpoints for monitoring the backend
+@Path("/api/admin")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+@RolesAllowed("admin")
+public class AdminResource {
+
+    @Inject
+    CacheService cacheService;
+
+    @Inject
+    GradingService gradingService;
+
+    @Inject
+    BlobStore blobStore;
+
+    @Inject
+    ProjectService projectService;
+
+    @Inject
+    StorageRebalancer rebalancer;
+
+    @Inject
+    PrecompressedCache precompressedCache;
+
+    @Inject
+    ClusterScheduler clusterScheduler;
+
+    @Inject
+    ProjectLanes projectLanes;
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    JsonWebToken jwt;
+
+    @Context
+    SecurityContext securityContext;
+
+    @GET
+    @Path("/cache/stats")
+    public Response getCacheStats() {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("GET /api/admin/cache/stats - Request from: " + adminInfo);
+
+        try {
+            CacheStatsResponse stats = cacheService.getStats();
+            return Response.ok(stats).build();
+        } catch (Exception e) {
+            logger.error("Error retrieving cache stats for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @GET
+    @Path("/jobs")
+    public Response getJobs(@QueryParam("runs") @DefaultValue("10") int runs) {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("GET /api/admin/jobs - Request from: " + adminInfo);
+
+        try {
+            return Response.ok(clusterScheduler.status(Math.max(1, Math.min(runs, 100)))).build();
+        } catch (Exception e) {
+            logger.error("Error reading cluster jobs for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    // runs the job as soon as an instance looks at it
+    @POST
+    @Path("/jobs/{name}/run")
+    public Response runJob(@PathParam("name") String name) {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("POST /api/admin/jobs/" + name + "/run - Request from: " + adminInfo);
+
+        try {
+            if (!clusterScheduler.trigger(name)) {
+                return Response.status(Response.Status.NOT_FOUND)
+                    .entity(java.util.Map.of("message", "No such job")).build();
+            }
+            return Response.accepted().build();
+        } catch (Exception e) {
+            logger.error("Error triggering job " + name + " for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    // queue depth of the per project exec lanes
+    @GET
+    @Path("/exec/lanes")
+    public Response getExecLanes(@QueryParam("top") @DefaultValue("20") int top) {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("GET /api/admin/exec/lanes - Request from: " + adminInfo);
+        return Response.ok(projectLanes.stats(Math.max(0, Math.min(top, 100)))).build();
+    }
+
+    @GET
+    @Path("/cache/precompressed")
+    public Response getPrecompressedStats() {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("GET /api/admin/cache/precompressed - Request from: " + adminInfo);
+        return Response.ok(precompressedCache.stats()).build();
+    }
+
+    @GET
+    @Path("/blobs")
+    public Response getBlobStats() {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("GET /api/admin/blobs - Request from: " + adminInfo);
+
+        try {
+            return Response.ok(blobStore.stats()).build();
+        } catch (Exception e) {
+            logger.error("Error reading blob store stats for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    // moves the files of every project into the blob store (files written before dedup was enabled)
+    // on a background thread (202), the result is logged
+    @POST
+    @Path("/blobs/dedup")
+    public Response dedupProjects() {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("POST /api/admin/blobs/dedup - Request from: " + adminInfo);
+
+        if (!blobStore.isEnabled()) {
+            return Response.status(Response.Status.CONFLICT)
+                .entity(java.util.Map.of("message", "Deduplicated storage is disabled")).build();
+        }
+        try {
+            List<ProjectModel> projects = projectService.getAllProjects();
+            if (!blobStore.startDedup(projects)) {
+                return Response.status(Response.Status.CONFLICT)
+                    .entity(java.util.Map.of("message", "A deduplication is already running")).build();
+            }
+            return Response.accepted(java.util.Map.of("projects", projects.size())).build();
+        } catch (Exception e) {
+            logger.error("Error deduplicating projects for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @POST
+    @Path("/blobs/gc")
+    public Response collectBlobs() {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("POST /api/admin/blobs/gc - Request from: " + adminInfo);
+
+        try {
+            return Response.ok(java.util.Map.of("removed", blobStore.collect())).build();
+        } catch (Exception e) {
+            logger.error("Error collecting blobs for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    // storage roots with their free space and project count, and the progress of the last rebalance
+    @GET
+    @Path("/storage")
+    public Response getStorage() {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("GET /api/admin/storage - Request from: " + adminInfo);
+
+        try {
+            return Response.ok(rebalancer.status()).build();
+        } catch (Exception e) {
+            logger.error("Error reading storage status for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    // moves up to max projects to the root the placement policy gives them (after adding or removing a root)
+    // dryRun only returns the planned moves, otherwise they run in the background (202)
+    @POST
+    @Path("/storage/rebalance")
+    public Response rebalanceStorage(@QueryParam("dryRun") @DefaultValue("false") boolean dryRun,
+                                     @QueryParam("max") @DefaultValue("100") int max) {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("POST /api/admin/storage/rebalance - Request from: " + adminInfo + ", dryRun: " + dryRun + ", max: " + max);
+
+        try {
+            List<StorageRebalancer.Move> moves = rebalancer.plan(Math.max(0, max));
+            if (dryRun) {
+                return Response.ok(moves).build();
+            }
+            if (!rebalancer.start(moves)) {
+                return Response.status(Response.Status.CONFLICT)
+                    .entity(java.util.Map.of("message", "A rebalance is already running")).build();
+            }
+            return Response.accepted(moves).build();
+        } catch (StorageRebalancer.OtherInstancesException e) {
+            logger.warn("Rebalance refused for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.CONFLICT)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (Exception e) {
+            logger.error("Error rebalancing storage for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    // queues a grading for each project, they run on the grading pool (see GradingService)
+    @POST
+    @Path("/grades")
+    @Transactional
+    public Response gradeProjects(GradeBatch batch) {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("POST /api/admin/grades - Request from: " + adminInfo);
+
+        try {
+            List<ProjectModel> projects;
+            if (batch == null || batch.projectIds == null) {
+                projects = projectService.getAllProjects();
+            } else {
+                projects = new ArrayList<>();
+                for (UUID projectId : batch.projectIds) {
+                    ProjectModel project = projectId != null ? projectService.getProjectById(projectId) : null;
+                    if (project == null) {
+                        logger.warn("Grading batch refused, unknown project: " + projectId + " by: " + adminInfo);
+                        return Response.status(Response.Status.BAD_REQUEST)
+                            .entity(java.util.Map.of("message", "Project not found: " + projectId)).build();
+                    }
+                    projects.add(project);
+                }
+            }
+
+            gradingService.checkEnabled();
+            UUID adminId = UUID.fromString(jwt.getSubject());
+            List<GradeInfo> grades = new ArrayList<>();
+            for (ProjectModel project : projects) {
+                if (project.path == null) {
+                    continue;
+                }
+                grades.add(ProjectDTOs.makeGradeInfo(gradingService.submit(project.id, Paths.get(project.path), adminId)));
+            }
+            logger.info("Grading batch queued - " + grades.size() + " projects, " + gradingService.getParallelism()
+                + " at once, by: " + adminInfo);
+            return Response.accepted(grades).build();
+        } catch (GradingService.GradingDisabledException e) {
+            logger.warn("Grading batch refused for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.FORBIDDEN)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (Exception e) {
+            logger.error("Error queuing grading batch for admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    private String getCurrentUserInfo() {
+        try {
+            if (securityContext != null && securityContext.getUserPrincipal() != null) {
+                return securityContext.getUserPrincipal().getName();
+            }
+        } catch (Exception e) {
+            logger.error("Could not get user info: " + e.getMessage());
+        }
+        return "anonymous";
+    }
+}
@@ -0,0 +1,262 @@
+package fr.epita.assistants.ping.presentation.rest;
+
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.jwt.JsonWebToken;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.data.model.UserModel;
+import fr.epita.assistants.ping.domain.executor.ExecJob;
+import fr.epita.assistants.ping.domain.executor.ExecJobRegistry;
+import fr.epita.assistants.ping.domain.executor.ProcessSupervisor;
+import fr.epita.assistants.ping.dto.ProjectDTOs;
+import fr.epita.assistants.ping.dto.ProjectDTOs.ExecJobInfo;
+import fr.epita.assistants.ping.presentation.filter.RateLimited;
+import fr.epita.assistants.ping.service.ProjectService;
+import fr.epita.assistants.ping.service.UserService;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+
+// follow the jobs started by POST /api/projects/{id}/exec
+@Path("/api/projects")
+@RolesAllowed({"admin", "user"})
+@RateLimited
+public class ExecResource {
+
+    @Inject
+    ExecJobRegistry jobRegistry;
+
+    @Inject
+    ProcessSupervisor supervisor;
+
+    @Inject
+    ProjectService projectService;
+
+    @Inject
+    UserService userService;
+
+    @Inject
+    Logger logger;
+
+    @Context
+    SecurityContext securityContext;
+
+    @Inject
+    JsonWebToken jwt;
+
+    // live lines waiting to be sent to one client (on top of the replayed backlog),
+    // a client this far behind is dropped and reconnects with Last-Event-ID
+    @ConfigProperty(name = "EXEC_STREAM_QUEUE_SIZE", defaultValue = "1000")
+    int streamQueueSize;
+
+    @ConfigProperty(name = "EXEC_OUTPUT_MAX_LINES", defaultValue = "5000")
+    int maxLines;
+
+    @GET
+    @Path("{id}/exec/{jobId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Transactional
+    public Response getJob(@PathParam("id") UUID projectId, @PathParam("jobId") UUID jobId) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/exec/" + jobId + " - Request from: " + userInfo);
+
+        Response denied = checkAccess(projectId);
+        if (denied != null) {
+            return denied;
+        }
+        ExecJob job = jobRegistry.get(jobId);
+        if (job == null || !job.getProjectId().equals(projectId)) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(java.util.Map.of("message", "Job not found")).build();
+        }
+        return Response.ok(ProjectDTOs.makeExecJobInfo(job)).build();
+    }
+
+    // kills the running command of the job (and everything it started), the job ends as CANCELLED
+    @DELETE
+    @Path("{id}/exec/{jobId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Transactional
+    public Response cancelJob(@PathParam("id") UUID projectId, @PathParam("jobId") UUID jobId) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("DELETE /api/projects/" + projectId + "/exec/" + jobId + " - Request from: " + userInfo);
+
+        Response denied = checkAccess(projectId);
+        if (denied != null) {
+            return denied;
+        }
+        ExecJob job = jobRegistry.get(jobId);
+        if (job == null || !job.getProjectId().equals(projectId)) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(java.util.Map.of("message", "Job not found")).build();
+        }
+        if (!supervisor.cancel(job)) {
+            return Response.status(Response.Status.CONFLICT)
+                .entity(java.util.Map.of("message", "Job already finished")).build();
+        }
+        logger.info("Exec job " + jobId + " cancelled by: " + userInfo);
+        return Response.accepted(ProjectDTOs.makeExecJobInfo(job)).build();
+    }
+
+    // one "stdout" / "stderr" event per line (the event id is the line number), then one "exit" event with the job
+    // a client connecting late gets the lines still in the buffer first, with Last-Event-ID only the ones it missed
+    @GET
+    @Path("{id}/exec/{jobId}/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @Transactional
+    public void stream(@PathParam("id") UUID projectId, @PathParam("jobId") UUID jobId,
+                       @HeaderParam("Last-Event-ID") String lastEventId,
+                       @Context SseEventSink sink, @Context Sse sse) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/exec/" + jobId + "/stream - Request from: " + userInfo);
+
+        Response denied = checkAccess(projectId);
+        if (denied != null) {
+            throw new WebApplicationException(denied);
+        }
+        ExecJob job = jobRegistry.get(jobId);
+        if (job == null || !job.getProjectId().equals(projectId)) {
+            throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND)
+                .entity(java.util.Map.of("message", "Job not found")).build());
+        }
+
+        long afterSeq = 0;
+        if (lastEventId != null && !lastEventId.isBlank()) {
+            try {
+                afterSeq = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid Last-Event-ID: " + lastEventId + " from: " + userInfo);
+            }
+        }
+
+        Subscriber subscriber = new Subscriber(job, sink, sse, maxLines + streamQueueSize);
+        job.subscribe(afterSeq, subscriber);
+        Thread.ofVirtual().name("exec-sse-" + jobId).start(subscriber);
+    }
+
+    // the job calls onLine while holding its lock (on the pump thread), so it must never block on the network:
+    // lines are queued here and written to the client by the subscriber's own thread
+    private class Subscriber implements ExecJob.Listener, Runnable {
+        private final ExecJob job;
+        private final SseEventSink sink;
+        private final Sse sse;
+        private final BlockingQueue<Object> queue;
+        private volatile boolean overflowed;
+
+        Subscriber(ExecJob job, SseEventSink sink, Sse sse, int queueSize) {
+            this.job = job;
+            this.sink = sink;
+            this.sse = sse;
+            this.queue = new LinkedBlockingQueue<>(queueSize + 1);
+        }
+
+        @Override
+        public void onLine(ExecJob.OutputLine line) {
+            if (overflowed) {
+                return;
+            }
+            if (queue.remainingCapacity() <= 1) {
+                // keep the last slot for the end marker
+                overflowed = true;
+                job.unsubscribe(this);
+                queue.offer(Boolean.FALSE);
+                return;
+            }
+            queue.offer(line);
+        }
+
+        @Override
+        public void onFinished(ExecJob finished) {
+            if (!overflowed) {
+                queue.offer(Boolean.TRUE);
+            }
+        }
+
+        @Override
+        public void run() {
+            try (SseEventSink out = sink) {
+                while (!out.isClosed()) {
+                    Object next = queue.take();
+                    if (next instanceof ExecJob.OutputLine line) {
+                        out.send(sse.newEventBuilder()
+                            .id(String.valueOf(line.seq()))
+                            .name(line.stream())
+                            .data(line.text())
+                            .build()).toCompletableFuture().join();
+                    } else {
+                        if (Boolean.TRUE.equals(next)) {
+                            out.send(sse.newEventBuilder()
+                                .name("exit")
+                                .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                                .data(ExecJobInfo.class, ProjectDTOs.makeExecJobInfo(job))
+                                .build()).toCompletableFuture().join();
+                        } else {
+                            logger.warn("Exec stream of job " + job.getId() + " is too slow, closing it");
+                        }
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.debug("Exec stream of job " + job.getId() + " closed: " + e.getMessage());
+            } finally {
+                job.unsubscribe(this);
+            }
+        }
+    }
+
+    // null if the current user can use the project, otherwise the error response to send
+    private Response checkAccess(UUID projectId) {
+        UserModel currentUser = userService.getUserById(UUID.fromString(jwt.getSubject()));
+        if (currentUser == null) {
+            return Response.status(Response.Status.UNAUTHORIZED)
+                .entity(java.util.Map.of("message", "User not found")).build();
+        }
+
+        ProjectModel project = projectService.getProjectById(projectId);
+        if (project == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(java.util.Map.of("message", "Project not found")).build();
+        }
+
+        boolean isAdmin = currentUser.getIsAdmin();
+        boolean isMember = project.members.stream()
+            .anyMatch(member -> member.getId().equals(currentUser.getId()));
+        boolean isOwner = project.owner.getId().equals(currentUser.getId());
+        if (!isAdmin && !isMember && !isOwner) {
+            return Response.status(Response.Status.FORBIDDEN)
+                .entity(java.util.Map.of("message", "Not authorized")).build();
+        }
+        return null;
+    }
+
+    private String getCurrentUserInfo() {
+        try {
+            if (securityContext != null && securityContext.getUserPrincipal() != null) {
+                return securityContext.getUserPrincipal().getName();
+            }
+        } catch (Exception e) {
+            logger.error("Could not get user info: " + e.getMessage());
+        }
+        return "anonymous";
+    }
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.jwt.JsonWebToken;
@@ -13,8 +14,17 @@ import fr.epita.assistants.ping.data.model.UserModel;
 import fr.epita.assistants.ping.dto.FSEntryResponse;
 import fr.epita.assistants.ping.dto.MoveRequest;
 import fr.epita.assistants.ping.dto.PathRequest;
+import fr.epita.assistants.ping.dto.ProjectDTOs.FilePatch;
+import fr.epita.assistants.ping.dto.ProjectDTOs.FileSignature;
+import fr.epita.assistants.ping.presentation.filter.RateLimited;
+import fr.epita.assistants.ping.presentation.filter.StorageGuarded;
+import fr.epita.assistants.ping.service.CompressedStorage;
 import fr.epita.assistants.ping.service.FileSystemService;
+import fr.epita.assistants.ping.service.FileSystemService.BaseChangedException;
+import fr.epita.assistants.ping.service.PrecompressedCache;
 import fr.epita.assistants.ping.service.ProjectService;
+import fr.epita.assistants.ping.service.QuotaService;
+import fr.epita.assistants.ping.service.QuotaService.QuotaExceededException;
 import fr.epita.assistants.ping.service.UserService;
 import fr.epita.assistants.ping.utils.Logger;
 import jakarta.annotation.security.RolesAllowed;
@@ -24,6 +34,8 @@ import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.PATCH;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
@@ -31,14 +43,19 @@ import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.StreamingOutput;
 
 @Path("/api/projects")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 @RolesAllowed({"admin", "user"})
+@RateLimited
+@StorageGuarded
 public class FileSystemResource {
 
     @Inject
@@ -50,6 +67,9 @@ public class FileSystemResource {
     @Inject
     UserService userService;
 
+    @Inject
+    QuotaService quotaService;
+
     @Inject
     Logger logger;
 
@@ -62,12 +82,20 @@ public class FileSystemResource {
     @ConfigProperty(name = "PROJECT_DEFAULT_PATH")
     String basePath;
 
+    @ConfigProperty(name = "HTTP_COMPRESSION_MIN_BYTES", defaultValue = "1024")
+    long compressionMinBytes;
+
+    @Inject
+    PrecompressedCache precompressedCache;
+
     @GET
     @Path("{projectId}/files")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
     @RolesAllowed({"admin", "user"})
     public Response getFile(@PathParam("projectId") UUID projectId,
-                           @QueryParam("path") @DefaultValue("") String path) {
+                           @QueryParam("path") @DefaultValue("") String path,
+                           @HeaderParam("Accept-Encoding") String acceptEncoding,
+                           @Context Request request) {
         String userInfo = getCurrentUserInfo();
         logger.info("GET /api/projects/" + projectId + "/files - Request from: " + userInfo + ", path: " + path);
 
@@ -97,10 +125,37 @@ public class FileSystemResource {
             }
             
             java.nio.file.Path file = fileSystemService.resolveSafePath(projectId, path, project.path);
-            byte[] content = fileSystemService.readFileBytes(file);
-            
-            logger.info("Successfully retrieved file for project " + projectId + " by: " + userInfo);
-            return Response.ok(content).build();
+            if (!java.nio.file.Files.isRegularFile(file)) {
+                throw new java.nio.file.NoSuchFileException("File not found");
+            }
+
+            // the editor reopens the same files all the time, an unchanged one costs a 304
+            EntityTag etag = new EntityTag(fileSystemService.etagOf(file), true);
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.tag(etag).build();
+            }
+
+            boolean gzip = acceptsGzip(acceptEncoding);
+            Response.ResponseBuilder response;
+            if (fileSystemService.isCompressed(file)) {
+                // stored gzipped: sent as is to a client that takes gzip, decompressed while sent otherwise
+                // (opened here, the storage gate is released before the body is written)
+                InputStream in = gzip ? fileSystemService.openStored(file) : fileSystemService.openFile(file);
+                response = Response.ok(stream(in, false));
+            } else if (gzip && CompressedStorage.isCompressible(file.getFileName().toString())
+                    && java.nio.file.Files.size(file) >= compressionMinBytes) {
+                // keyed by path too, the tag alone only identifies a file within its project
+                byte[] variant = precompressedCache.get(file + "|" + etag.getValue(), file);
+                response = Response.ok(variant != null ? variant : stream(fileSystemService.openStored(file), true));
+            } else {
+                gzip = false;
+                response = Response.ok(fileSystemService.readFileBytes(file));
+            }
+
+            logger.info("Successfully retrieved file for project " + projectId + " by: " + userInfo + ", gzip: " + gzip);
+            response.tag(etag).header("Vary", "Accept-Encoding").header("Cache-Control", "private, no-cache");
+            return gzip ? response.header("Content-Encoding", "gzip").build() : response.build();
         } catch (SecurityException e) {
             logger.warn("Path traversal attack detected for project " + projectId + " by: " + userInfo + " - path: " + path);
             return Response.status(403).entity("Path traversal attack detected").build();
@@ -152,6 +207,9 @@ public class FileSystemResource {
             
             logger.info("Successfully created file in project " + projectId + " by: " + userInfo + " - path: " + request.relativePath);
             return Response.status(201).build();
+        } catch (QuotaExceededException e) {
+            logger.warn("Quota exceeded for file creation in project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(413).entity(java.util.Map.of("message", e.getMessage())).build();
         } catch (SecurityException e) {
             logger.warn("Path traversal attack detected for file creation in project " + projectId + " by: " + userInfo + " - path: " + request.relativePath);
             return Response.status(403).entity("Path traversal attack detected").build();
@@ -281,6 +339,7 @@ public class FileSystemResource {
     @Transactional
     public Response uploadFile(@PathParam("projectId") UUID projectId,
                               @QueryParam("path") String path,
+                              @HeaderParam("Content-Length") @DefaultValue("-1") long contentLength,
                               InputStream inputStream) {
         String userInfo = getCurrentUserInfo();
         logger.info("POST /api/projects/" + projectId + "/files/upload - Upload file request from: " + userInfo + ", path: " + path);
@@ -311,10 +370,13 @@ public class FileSystemResource {
             }
             
             java.nio.file.Path file = fileSystemService.resolveSafePath(projectId, path, project.path);
-            fileSystemService.uploadFile(file, inputStream);
+            fileSystemService.uploadFile(file, inputStream, contentLength);
             
             logger.info("Successfully uploaded file in project " + projectId + " by: " + userInfo + " - path: " + path);
             return Response.status(201).build();
+        } catch (QuotaExceededException e) {
+            logger.warn("Quota exceeded for file upload in project " + projectId + " by: " + userInfo + " - path: " + path + " - " + e.getMessage());
+            return Response.status(413).entity(java.util.Map.of("message", e.getMessage())).build();
         } catch (SecurityException e) {
             logger.warn("Path traversal attack detected for file upload in project " + projectId + " by: " + userInfo + " - path: " + path);
             return Response.status(403).entity("Path traversal attack detected").build();
@@ -531,6 +593,157 @@ public class FileSystemResource {
         }
     }
 
+    @GET
+    @Path("{projectId}/usage")
+    @RolesAllowed({"admin", "user"})
+    @Transactional
+    public Response getUsage(@PathParam("projectId") UUID projectId) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/usage - Request from: " + userInfo);
+
+        try {
+            UserModel currentUser = userService.getUserById(UUID.fromString(jwt.getSubject()));
+            if (currentUser == null) {
+                return Response.status(Response.Status.UNAUTHORIZED)
+                    .entity(java.util.Map.of("message", "User not found")).build();
+            }
+
+            if (!hasProjectAccess(projectId, currentUser)) {
+                return Response.status(Response.Status.FORBIDDEN)
+                    .entity(java.util.Map.of("message", "Not authorized")).build();
+            }
+
+            ProjectModel project = projectService.getProjectById(projectId);
+            if (project == null || project.path == null) {
+                return Response.status(404).entity("Project not found").build();
+            }
+            return Response.ok(quotaService.usageOf(project)).build();
+        } catch (Exception e) {
+            logger.error("Unexpected error reading usage of project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(500).build();
+        }
+    }
+
+    @GET
+    @Path("{projectId}/files/signature")
+    @RolesAllowed({"admin", "user"})
+    @Transactional
+    public Response getSignature(@PathParam("projectId") UUID projectId,
+                                 @QueryParam("path") String path,
+                                 @QueryParam("blockSize") @DefaultValue("0") int blockSize) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/files/signature - Request from: " + userInfo + ", path: " + path + ", blockSize: " + blockSize);
+
+        try {
+            UserModel currentUser = userService.getUserById(UUID.fromString(jwt.getSubject()));
+            if (currentUser == null) {
+                return Response.status(Response.Status.UNAUTHORIZED)
+                    .entity(java.util.Map.of("message", "User not found")).build();
+            }
+
+            if (!hasProjectAccess(projectId, currentUser)) {
+                return Response.status(Response.Status.FORBIDDEN)
+                    .entity(java.util.Map.of("message", "Not authorized")).build();
+            }
+
+            if (path == null || path.trim().isEmpty()) {
+                return Response.status(400).entity("The relative path is invalid").build();
+            }
+
+            ProjectModel project = projectService.getProjectById(projectId);
+            if (project == null || project.path == null) {
+                return Response.status(404).entity("Project not found").build();
+            }
+
+            java.nio.file.Path file = fileSystemService.resolveSafePath(projectId, path, project.path);
+            FileSignature signature = fileSystemService.signature(file, blockSize);
+            return Response.ok(signature).tag(new EntityTag(signature.etag, true)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(400).entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (SecurityException e) {
+            logger.warn("Path traversal attack detected for signature in project " + projectId + " by: " + userInfo + " - path: " + path);
+            return Response.status(403).entity("Path traversal attack detected").build();
+        } catch (IOException e) {
+            return Response.status(404).entity("The project or the relative path could not be found").build();
+        } catch (Exception e) {
+            logger.error("Unexpected error computing signature in project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(500).build();
+        }
+    }
+
+    // applies a delta against the signature whose etag is sent as If-Match (412 if the file changed since)
+    @PATCH
+    @Path("{projectId}/files")
+    @RolesAllowed({"admin", "user"})
+    @Transactional
+    public Response patchFile(@PathParam("projectId") UUID projectId,
+                              @QueryParam("path") String path,
+                              @HeaderParam("If-Match") String ifMatch,
+                              FilePatch patch) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("PATCH /api/projects/" + projectId + "/files - Request from: " + userInfo + ", path: " + path);
+
+        try {
+            UserModel currentUser = userService.getUserById(UUID.fromString(jwt.getSubject()));
+            if (currentUser == null) {
+                return Response.status(Response.Status.UNAUTHORIZED)
+                    .entity(java.util.Map.of("message", "User not found")).build();
+            }
+
+            if (!hasProjectAccess(projectId, currentUser)) {
+                return Response.status(Response.Status.FORBIDDEN)
+                    .entity(java.util.Map.of("message", "Not authorized")).build();
+            }
+
+            if (path == null || path.trim().isEmpty() || patch == null || patch.ops == null) {
+                return Response.status(400).entity("The relative path or the patch is invalid").build();
+            }
+
+            if (ifMatch == null || ifMatch.isBlank()) {
+                return Response.status(428)
+                    .entity(java.util.Map.of("message", "If-Match with the etag of the signature is required")).build();
+            }
+
+            ProjectModel project = projectService.getProjectById(projectId);
+            if (project == null || project.path == null) {
+                return Response.status(404).entity("Project not found").build();
+            }
+
+            java.nio.file.Path file = fileSystemService.resolveSafePath(projectId, path, project.path);
+            fileSystemService.applyDelta(file, etagValue(ifMatch), patch.blockSize, patch.ops);
+
+            logger.info("Successfully patched file in project " + projectId + " by: " + userInfo + " - path: " + path + ", ops: " + patch.ops.size());
+            return Response.noContent().tag(new EntityTag(fileSystemService.etagOf(file), true)).build();
+        } catch (BaseChangedException e) {
+            return Response.status(412).entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (QuotaExceededException e) {
+            logger.warn("Quota exceeded for file patch in project " + projectId + " by: " + userInfo + " - path: " + path + " - " + e.getMessage());
+            return Response.status(413).entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(400).entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (SecurityException e) {
+            logger.warn("Path traversal attack detected for file patch in project " + projectId + " by: " + userInfo + " - path: " + path);
+            return Response.status(403).entity("Path traversal attack detected").build();
+        } catch (java.nio.file.NoSuchFileException e) {
+            return Response.status(404).entity("The project or the relative path could not be found").build();
+        } catch (Exception e) {
+            logger.error("Unexpected error patching file in project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(500).build();
+        }
+    }
+
+    // W/"abc" or "abc" -> abc
+    private static String etagValue(String header) {
+        String value = header.trim();
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
     // @GET
     // @Path("{projectId}/debug")
     // @RolesAllowed({"admin", "user"})
@@ -540,6 +753,46 @@ public class FileSystemResource {
     //     return Response.ok("FileSystemResource debug: OK").build();
     // }
 
+    private static StreamingOutput stream(InputStream in, boolean gzip) {
+        return out -> {
+            try (in) {
+                if (gzip) {
+                    GZIPOutputStream compressed = new GZIPOutputStream(out, 65536);
+                    in.transferTo(compressed);
+                    compressed.finish();
+                } else {
+                    in.transferTo(out);
+                }
+            }
+        };
+    }
+
+    // true unless the client doesn't list gzip or refuses it (gzip;q=0)
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
     private boolean hasProjectAccess(UUID projectId, UserModel user) {
         ProjectModel project = projectService.getProjectById(projectId);
         if (project == null) return false;
@@ -0,0 +1,188 @@
+package fr.epita.assistants.ping.presentation.rest;
+
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
+
+import org.eclipse.microprofile.jwt.JsonWebToken;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.data.model.UserModel;
+import fr.epita.assistants.ping.domain.executor.GitFeatureExecutor;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitDiffEntry;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitLogPage;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitStatus;
+import fr.epita.assistants.ping.presentation.filter.RateLimited;
+import fr.epita.assistants.ping.presentation.filter.StorageGuarded;
+import fr.epita.assistants.ping.service.CompressedStorage;
+import fr.epita.assistants.ping.service.ProjectService;
+import fr.epita.assistants.ping.service.UserService;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+
+// read only git views for the frontend (history, changed files), the writes still go through /exec
+@Path("/api/projects")
+@Produces(MediaType.APPLICATION_JSON)
+@RolesAllowed({"admin", "user"})
+@RateLimited
+@StorageGuarded
+public class GitResource {
+
+    @Inject
+    GitFeatureExecutor gitExecutor;
+
+    @Inject
+    ProjectService projectService;
+
+    @Inject
+    UserService userService;
+
+    @Inject
+    CompressedStorage compressedStorage;
+
+    @Inject
+    Logger logger;
+
+    @Context
+    SecurityContext securityContext;
+
+    @Inject
+    JsonWebToken jwt;
+
+    @GET
+    @Path("{projectId}/git/status")
+    @Transactional
+    public Response status(@PathParam("projectId") UUID projectId) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/git/status - Request from: " + userInfo);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            ProjectModel project = projectService.getProjectById(projectId);
+            // status and diff compare the working tree, git must see the files raw
+            compressedStorage.inflateTree(new File(project.path).toPath());
+            GitStatus status = gitExecutor.status(new File(project.path));
+            return Response.ok(status).build();
+        } catch (IllegalArgumentException e) {
+            logger.warn("git status refused for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (Exception e) {
+            logger.error("Error in git status for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @GET
+    @Path("{projectId}/git/log")
+    @Transactional
+    public Response log(@PathParam("projectId") UUID projectId,
+                        @QueryParam("limit") @DefaultValue("50") int limit,
+                        @QueryParam("cursor") String cursor) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/git/log - Request from: " + userInfo + ", limit: " + limit + ", cursor: " + cursor);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            ProjectModel project = projectService.getProjectById(projectId);
+            GitLogPage page = gitExecutor.log(new File(project.path), limit, blankToNull(cursor));
+            return Response.ok(page).build();
+        } catch (IllegalArgumentException e) {
+            logger.warn("git log refused for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (Exception e) {
+            logger.error("Error in git log for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @GET
+    @Path("{projectId}/git/diff")
+    @Transactional
+    public Response diff(@PathParam("projectId") UUID projectId,
+                         @QueryParam("from") String from,
+                         @QueryParam("to") String to) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/git/diff - Request from: " + userInfo + ", from: " + from + ", to: " + to);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            ProjectModel project = projectService.getProjectById(projectId);
+            compressedStorage.inflateTree(new File(project.path).toPath());
+            List<GitDiffEntry> entries = gitExecutor.diff(new File(project.path), blankToNull(from), blankToNull(to));
+            return Response.ok(entries).build();
+        } catch (IllegalArgumentException e) {
+            logger.warn("git diff refused for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (Exception e) {
+            logger.error("Error in git diff for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    // null if the current user can read the project, otherwise the error response to send
+    private Response checkAccess(UUID projectId) {
+        UserModel currentUser = userService.getUserById(UUID.fromString(jwt.getSubject()));
+        if (currentUser == null) {
+            return Response.status(Response.Status.UNAUTHORIZED)
+                .entity(java.util.Map.of("message", "User not found")).build();
+        }
+
+        ProjectModel project = projectService.getProjectById(projectId);
+        if (project == null || project.path == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(java.util.Map.of("message", "Project not found")).build();
+        }
+
+        boolean isAdmin = currentUser.getIsAdmin();
+        boolean isMember = project.members.stream()
+            .anyMatch(member -> member.getId().equals(currentUser.getId()));
+        boolean isOwner = project.owner.getId().equals(currentUser.getId());
+        if (!isAdmin && !isMember && !isOwner) {
+            return Response.status(Response.Status.FORBIDDEN)
+                .entity(java.util.Map.of("message", "Not authorized")).build();
+        }
+        return null;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    private String getCurrentUserInfo() {
+        try {
+            if (securityContext != null && securityContext.getUserPrincipal() != null) {
+                return securityContext.getUserPrincipal().getName();
+            }
+        } catch (Exception e) {
+            logger.error("Could not get user info: " + e.getMessage());
+        }
+        return "anonymous";
+    }
+}
@@ -0,0 +1,148 @@
+package fr.epita.assistants.ping.presentation.rest;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+
+import org.eclipse.microprofile.jwt.JsonWebToken;
+
+import fr.epita.assistants.ping.data.model.GradeModel;
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.data.model.UserModel;
+import fr.epita.assistants.ping.dto.ProjectDTOs;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GradeInfo;
+import fr.epita.assistants.ping.presentation.filter.RateLimited;
+import fr.epita.assistants.ping.repository.GradeRepository;
+import fr.epita.assistants.ping.service.GradingService;
+import fr.epita.assistants.ping.service.ProjectService;
+import fr.epita.assistants.ping.service.UserService;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+
+// autograder results of a project (the exercices page), batches for a whole class are in AdminResource
+@Path("/api/projects")
+@Produces(MediaType.APPLICATION_JSON)
+@RolesAllowed({"admin", "user"})
+@RateLimited
+public class GradingResource {
+
+    @Inject
+    GradingService gradingService;
+
+    @Inject
+    GradeRepository gradeRepository;
+
+    @Inject
+    ProjectService projectService;
+
+    @Inject
+    UserService userService;
+
+    @Inject
+    Logger logger;
+
+    @Context
+    SecurityContext securityContext;
+
+    @Inject
+    JsonWebToken jwt;
+
+    @POST
+    @Path("{id}/grades")
+    @Transactional
+    public Response grade(@PathParam("id") UUID projectId) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("POST /api/projects/" + projectId + "/grades - Request from: " + userInfo);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            ProjectModel project = projectService.getProjectById(projectId);
+            GradeModel grade = gradingService.submit(projectId, Paths.get(project.path), UUID.fromString(jwt.getSubject()));
+            logger.info("Grading queued - Grade: " + grade.id + ", Project: " + project.name + " by: " + userInfo);
+            return Response.accepted(ProjectDTOs.makeGradeInfo(grade)).build();
+        } catch (GradingService.GradingDisabledException e) {
+            logger.warn("Grading refused for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.FORBIDDEN)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (Exception e) {
+            logger.error("Error queuing grading for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @GET
+    @Path("{id}/grades")
+    @Transactional
+    public Response listGrades(@PathParam("id") UUID projectId, @QueryParam("limit") @DefaultValue("20") int limit) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/grades - Request from: " + userInfo);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            List<GradeInfo> grades = gradeRepository.findByProject(projectId, Math.max(1, Math.min(limit, 100))).stream()
+                .map(ProjectDTOs::makeGradeInfo)
+                .toList();
+            return Response.ok(grades).build();
+        } catch (Exception e) {
+            logger.error("Error listing grades of project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    // null if the current user can use the project, otherwise the error response to send
+    private Response checkAccess(UUID projectId) {
+        UserModel currentUser = userService.getUserById(UUID.fromString(jwt.getSubject()));
+        if (currentUser == null) {
+            return Response.status(Response.Status.UNAUTHORIZED)
+                .entity(java.util.Map.of("message", "User not found")).build();
+        }
+
+        ProjectModel project = projectService.getProjectById(projectId);
+        if (project == null || project.path == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(java.util.Map.of("message", "Project not found")).build();
+        }
+
+        boolean isAdmin = currentUser.getIsAdmin();
+        boolean isMember = project.members.stream()
+            .anyMatch(member -> member.getId().equals(currentUser.getId()));
+        boolean isOwner = project.owner.getId().equals(currentUser.getId());
+        if (!isAdmin && !isMember && !isOwner) {
+            return Response.status(Response.Status.FORBIDDEN)
+                .entity(java.util.Map.of("message", "Not authorized")).build();
+        }
+        return null;
+    }
+
+    private String getCurrentUserInfo() {
+        try {
+            if (securityContext != null && securityContext.getUserPrincipal() != null) {
+                return securityContext.getUserPrincipal().getName();
+            }
+        } catch (Exception e) {
+            logger.error("Could not get user info: " + e.getMessage());
+        }
+        return "anonymous";
+    }
+}
@@ -6,16 +6,28 @@ import java.util.UUID;
 
 import fr.epita.assistants.ping.data.model.ProjectModel;
 import fr.epita.assistants.ping.data.model.UserModel;
-import fr.epita.assistants.ping.domain.executor.GitFeatureExecutor;
+import fr.epita.assistants.ping.domain.executor.ExecJob;
+import fr.epita.assistants.ping.domain.executor.ExecJobRegistry;
+import fr.epita.assistants.ping.domain.executor.FeatureExecutorRegistry;
+import fr.epita.assistants.ping.domain.executor.ProcessSupervisor;
 import fr.epita.assistants.ping.dto.ProjectDTOs;
 import fr.epita.assistants.ping.dto.ProjectDTOs.AddUser;
+import fr.epita.assistants.ping.dto.ProjectDTOs.BatchMembers;
+import fr.epita.assistants.ping.dto.ProjectDTOs.BatchMembersResult;
 import fr.epita.assistants.ping.dto.ProjectDTOs.CreateProject;
 import fr.epita.assistants.ping.dto.ProjectDTOs.ProjectInfo;
+import fr.epita.assistants.ping.dto.ProjectDTOs.ProjectSummary;
 import fr.epita.assistants.ping.dto.ProjectDTOs.RemoveUser;
 import fr.epita.assistants.ping.dto.ProjectDTOs.RunCommand;
 import fr.epita.assistants.ping.dto.ProjectDTOs.UpdateProject;
+import fr.epita.assistants.ping.presentation.filter.RateLimited;
+import fr.epita.assistants.ping.presentation.filter.StorageGuarded;
 import fr.epita.assistants.ping.repository.ProjectRepository;
+import fr.epita.assistants.ping.service.GradingService;
 import fr.epita.assistants.ping.service.ProjectService;
+import fr.epita.assistants.ping.service.ProjectStatsService;
+import fr.epita.assistants.ping.service.ProjectStorage;
+import fr.epita.assistants.ping.service.QuotaService;
 import fr.epita.assistants.ping.service.UserService;
 import fr.epita.assistants.ping.utils.Logger;
 import jakarta.annotation.security.RolesAllowed;
@@ -23,6 +35,7 @@ import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
@@ -39,7 +52,7 @@ import org.eclipse.microprofile.jwt.JsonWebToken;
 @Path("/api/projects") 
 @Produces(MediaType.APPLICATION_JSON) // if you want to know what this does 
 @Consumes(MediaType.APPLICATION_JSON) // go to UserRessource.java
-
+@RateLimited // token buckets per user and per project, see RateLimitFilter
 public class ProjectResource {
 
     @Inject
@@ -61,7 +74,19 @@ public class ProjectResource {
     JsonWebToken jwt;
 
     @Inject
-    GitFeatureExecutor gitExecutor; 
+    FeatureExecutorRegistry featureExecutors; 
+
+    @Inject
+    ExecJobRegistry jobRegistry;
+
+    @Inject
+    ProjectStorage projectStorage;
+
+    @Inject
+    ProjectStatsService projectStats;
+
+    @Inject
+    QuotaService quotaService;
 
     @GET 
     @RolesAllowed({"admin", "user"})
@@ -199,6 +224,39 @@ public class ProjectResource {
         }
     }
 
+    // the dashboard: the projects of the user with their members, files and last activity in one query,
+    // most recently modified first (all=true lists every project, admins only)
+    @GET
+    @Path("/stats")
+    @RolesAllowed({"admin", "user"})
+    public Response getProjectStats(@QueryParam("onlyOwned") @DefaultValue("false") boolean onlyOwned,
+                                    @QueryParam("all") @DefaultValue("false") boolean all,
+                                    @QueryParam("limit") @DefaultValue("1000") int limit) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/stats - Request from: " + userInfo + ", onlyOwned: " + onlyOwned + ", all: " + all);
+
+        try {
+            UUID currentUserId = UUID.fromString(jwt.getSubject());
+            UserModel currentUser = userService.getUserById(currentUserId);
+            if (currentUser == null) {
+                logger.error("User not found for /stats request: " + currentUserId);
+                return Response.status(Response.Status.UNAUTHORIZED).entity(java.util.Map.of("message", "User not found")).build();
+            }
+            if (all && !currentUser.getIsAdmin()) {
+                logger.warn("Non-admin user attempted to list the stats of all projects: " + currentUser.getLogin());
+                return Response.status(Response.Status.FORBIDDEN)
+                    .entity(java.util.Map.of("message", "Admin access required")).build();
+            }
+
+            List<ProjectSummary> summaries = projectStats.summaries(all ? null : currentUserId, onlyOwned, limit);
+            logger.info("Successfully retrieved " + summaries.size() + " project summaries for user: " + currentUser.getLogin());
+            return Response.ok(summaries).build();
+        } catch (Exception e) {
+            logger.error("Error retrieving project stats for user: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
     @PUT
     @Path("/{id}")
     // Only admin and owner of the project can update it
@@ -620,10 +678,89 @@ public class ProjectResource {
     }
 
     @POST
-    @Path("/{id}/exec")
+    @Path("/{id}/members:batch")
     @RolesAllowed({"admin", "user"})
     @Transactional
-    public Response executeFeature(@PathParam("id") String projectIdStr, RunCommand execRequest) {
+    public Response batchMembers(@PathParam("id") String projectIdStr, BatchMembers batchRequest) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("POST /api/projects/" + projectIdStr + "/members:batch - Request from: " + userInfo);
+
+        try {
+            UUID projectId = UUID.fromString(projectIdStr);
+
+            if (batchRequest == null || 
+                (batchRequest.add == null || batchRequest.add.isEmpty()) && 
+                (batchRequest.remove == null || batchRequest.remove.isEmpty())) {
+                logger.error("Empty members batch for project " + projectId + " by: " + userInfo);
+                return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(java.util.Map.of("message", "add or remove list is required")).build();
+            }
+
+            if (securityContext == null || securityContext.getUserPrincipal() == null) {
+                logger.error("Unauthorized members batch attempt for project " + projectId + " by: " + userInfo);
+                return Response.status(Response.Status.UNAUTHORIZED)
+                    .entity(java.util.Map.of("message", "Unauthorized")).build();
+            }
+
+            String currentUserIdStr = jwt.getSubject(); // Get UUID from JWT 'sub' claim
+            UUID currentUserId = UUID.fromString(currentUserIdStr);
+            UserModel currentUser = userService.getUserById(currentUserId);
+
+            if (currentUser == null) {
+                logger.error("User not found during members batch: " + currentUserIdStr);
+                return Response.status(Response.Status.UNAUTHORIZED)
+                    .entity(java.util.Map.of("message", "User not found")).build();
+            }
+
+            ProjectModel project = projectService.getProjectById(projectId);
+            if (project == null) {
+                logger.error("Project not found for members batch - ID: " + projectId + " by: " + userInfo);
+                return Response.status(Response.Status.NOT_FOUND)
+                    .entity(java.util.Map.of("message", "Project not found")).build();
+            }
+
+            // same rule as remove-user, only the owner or an admin can manage members in bulk
+            boolean isAdmin = currentUser.getIsAdmin();
+            boolean isOwner = project.owner.getId().equals(currentUser.getId());
+
+            if (!isAdmin && !isOwner) {
+                logger.warn("Unauthorized members batch attempt - User: " + currentUser.getLogin() + 
+                           " is not owner or admin for project: " + project.name + " (ID: " + projectId + ")");
+                return Response.status(Response.Status.FORBIDDEN)
+                    .entity(java.util.Map.of("message", "Only project owner or admin can manage members")).build();
+            }
+
+            List<UUID> unknownUsers = projectRepo.findUnknownUsers(batchRequest.add);
+            int[] counts = projectRepo.applyMembersBatch(project, batchRequest.add, batchRequest.remove);
+
+            BatchMembersResult result = new BatchMembersResult();
+            result.added = counts[0];
+            result.removed = counts[1];
+            result.unknownUsers = unknownUsers;
+            result.project = ProjectDTOs.makeProjectInfo(project);
+
+            logger.info("Members batch applied - Project: " + project.name + " (ID: " + projectId + 
+                       "), added: " + result.added + ", removed: " + result.removed + 
+                       ", unknown: " + unknownUsers.size() + ", by: " + currentUser.getLogin());
+            return Response.ok(result).build();
+
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid project ID format: " + projectIdStr + " from: " + userInfo);
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(java.util.Map.of("message", "Invalid project ID")).build();
+        } catch (Exception e) {
+            logger.error("Error applying members batch on project " + projectIdStr + " by " + userInfo + ": " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @POST
+    @Path("/{id}/exec")
+    @RolesAllowed({"admin", "user"})
+    @StorageGuarded
+    public Response executeFeature(@PathParam("id") String projectIdStr, RunCommand execRequest,
+                                   @QueryParam("async") Boolean async) {
         String userInfo = getCurrentUserInfo();
         logger.info("POST /api/projects/" + projectIdStr + "/exec - Execute feature request from: " + userInfo);
 
@@ -659,20 +796,16 @@ public class ProjectResource {
                     .entity(java.util.Map.of("message", "Project not found")).build();
             }
 
-            boolean isAdmin = currentUser.getIsAdmin();
-            boolean isMember = project.members.stream()
-                .anyMatch(member -> member.getId().equals(currentUser.getId()));
-            boolean isOwner = project.owner.getId().equals(currentUser.getId());
-
-            if (!isAdmin && !isMember && !isOwner) {
+            // no transaction around the request, a "test" run can last minutes: only the check has one of its own
+            if (!projectService.canAccess(projectId, currentUser.getId())) {
                 logger.warn("Unauthorized exec attempt - User: " + currentUser.getLogin() + 
                         " not allowed for project: " + project.name + " (ID: " + projectId + ")");
                 return Response.status(Response.Status.FORBIDDEN)
                     .entity(java.util.Map.of("message", "Not authorized on this project")).build();
             }
 
-            // Validate feature
-            if (!"git".equalsIgnoreCase(execRequest.feature)) {
+            // Validate feature (any FeatureExecutor bean, by its name())
+            if (!featureExecutors.supports(execRequest.feature)) {
                 logger.error("Unsupported feature: " + execRequest.feature + " for project " + project.name + " by: " + userInfo);
                 return Response.status(Response.Status.BAD_REQUEST)
                     .entity(java.util.Map.of("message", "Unsupported feature: " + execRequest.feature)).build();
@@ -689,16 +822,59 @@ public class ProjectResource {
             logger.info("Executing " + execRequest.feature + " " + execRequest.command + 
                     " on project: " + project.name + " by user: " + currentUser.getLogin());
 
+            // the output goes to a job, it can be followed on /{id}/exec/{jobId}/stream
+            ExecJob job = jobRegistry.create(projectId, execRequest.feature, execRequest.command);
+            job.setStartedBy(currentUser.getId());
+
+            if (Boolean.TRUE.equals(async)) {
+                // the job outlives the request, it keeps the project on its disk until it ends
+                projectStorage.enterAgain(projectId);
+                jobRegistry.runAsync(job, () -> {
+                    try {
+                        featureExecutors.execute(execRequest.feature, projectDir, execRequest, job);
+                    } finally {
+                        // whatever the feature wrote is counted by a walk of the project
+                        quotaService.markStale(projectId);
+                        projectStorage.exit(projectId);
+                    }
+                });
+                logger.info("Feature execution started - Job: " + job.getId() + ", Project: " + project.name + 
+                        " (ID: " + projectId + "), User: " + currentUser.getLogin());
+                return Response.accepted(ProjectDTOs.makeExecJobInfo(job))
+                    .header("X-Exec-Job-Id", job.getId().toString()).build();
+            }
+
             // Execute the command
-            gitExecutor.execute(projectDir, execRequest);
+            try {
+                jobRegistry.run(job, () -> featureExecutors.execute(execRequest.feature, projectDir, execRequest, job));
+            } finally {
+                quotaService.markStale(projectId);
+            }
 
             logger.info("Feature execution successful - Feature: " + execRequest.feature + 
                     ", Command: " + execRequest.command + ", Project: " + project.name + 
                     " (ID: " + projectId + "), User: " + currentUser.getLogin());
 
             // Return 204 No Content (success)
-            return Response.noContent().build();
-
+            return Response.noContent().header("X-Exec-Job-Id", job.getId().toString()).build();
+
+        } catch (ProcessSupervisor.ProcessBusyException e) {
+            logger.warn("Exec refused for project " + projectIdStr + " by " + userInfo + ": " + e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "5")
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (ProcessSupervisor.ProcessTimeoutException e) {
+            logger.error("Exec timed out for project " + projectIdStr + " by " + userInfo + ": " + e.getMessage());
+            return Response.status(Response.Status.GATEWAY_TIMEOUT)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (ProcessSupervisor.ProcessCancelledException e) {
+            logger.info("Exec cancelled for project " + projectIdStr + " by " + userInfo);
+            return Response.status(Response.Status.CONFLICT)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (GradingService.GradingDisabledException e) {
+            logger.warn("Exec refused for project " + projectIdStr + " by " + userInfo + ": " + e.getMessage());
+            return Response.status(Response.Status.FORBIDDEN)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
         } catch (IllegalArgumentException e) {
             if (projectIdStr != null && !projectIdStr.matches("[a-fA-F0-9-]{36}")) {
                 logger.error("Invalid project ID format: " + projectIdStr + " from: " + userInfo);
@@ -0,0 +1,226 @@
+package fr.epita.assistants.ping.presentation.rest;
+
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.UUID;
+
+import org.eclipse.microprofile.jwt.JsonWebToken;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.data.model.UserModel;
+import fr.epita.assistants.ping.domain.executor.ProcessSupervisor;
+import fr.epita.assistants.ping.dto.ProjectDTOs.CreateSnapshot;
+import fr.epita.assistants.ping.dto.ProjectDTOs.SnapshotInfo;
+import fr.epita.assistants.ping.dto.ProjectDTOs.SnapshotUsage;
+import fr.epita.assistants.ping.presentation.filter.RateLimited;
+import fr.epita.assistants.ping.presentation.filter.StorageGuarded;
+import fr.epita.assistants.ping.service.ProjectService;
+import fr.epita.assistants.ping.service.SnapshotService;
+import fr.epita.assistants.ping.service.UserService;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+
+// hard link snapshots of a project (before a grading, a risky refactor...), see SnapshotService
+@Path("/api/projects")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+@RolesAllowed({"admin", "user"})
+@RateLimited
+@StorageGuarded
+public class SnapshotResource {
+
+    @Inject
+    SnapshotService snapshotService;
+
+    @Inject
+    ProjectService projectService;
+
+    @Inject
+    UserService userService;
+
+    @Inject
+    Logger logger;
+
+    @Context
+    SecurityContext securityContext;
+
+    @Inject
+    JsonWebToken jwt;
+
+    @POST
+    @Path("{id}/snapshots")
+    @Transactional
+    public Response createSnapshot(@PathParam("id") UUID projectId, CreateSnapshot request) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("POST /api/projects/" + projectId + "/snapshots - Request from: " + userInfo);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            ProjectModel project = projectService.getProjectById(projectId);
+            SnapshotInfo snapshot = snapshotService.create(project, request != null ? request.label : null,
+                UUID.fromString(jwt.getSubject()));
+            return Response.status(Response.Status.CREATED).entity(snapshot).build();
+        } catch (SnapshotService.SnapshotLimitException e) {
+            logger.warn("Snapshot refused for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.CONFLICT)
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (ProcessSupervisor.ProcessBusyException e) {
+            // git commands of the project are running or waiting
+            logger.warn("Snapshot refused for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "5")
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (Exception e) {
+            logger.error("Error creating snapshot of project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @GET
+    @Path("{id}/snapshots")
+    @Transactional
+    public Response listSnapshots(@PathParam("id") UUID projectId) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/snapshots - Request from: " + userInfo);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            List<SnapshotInfo> snapshots = snapshotService.list(projectService.getProjectById(projectId));
+            return Response.ok(snapshots).build();
+        } catch (Exception e) {
+            logger.error("Error listing snapshots of project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @GET
+    @Path("{id}/snapshots/usage")
+    @Transactional
+    public Response snapshotUsage(@PathParam("id") UUID projectId) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("GET /api/projects/" + projectId + "/snapshots/usage - Request from: " + userInfo);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            SnapshotUsage usage = snapshotService.usage(projectService.getProjectById(projectId));
+            return Response.ok(usage).build();
+        } catch (Exception e) {
+            logger.error("Error computing snapshot usage of project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @POST
+    @Path("{id}/snapshots/{snapshotId}/restore")
+    @Transactional
+    public Response restoreSnapshot(@PathParam("id") UUID projectId, @PathParam("snapshotId") UUID snapshotId) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("POST /api/projects/" + projectId + "/snapshots/" + snapshotId + "/restore - Request from: " + userInfo);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            snapshotService.restore(projectService.getProjectById(projectId), snapshotId);
+            return Response.noContent().build();
+        } catch (NoSuchFileException e) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(java.util.Map.of("message", "Snapshot not found")).build();
+        } catch (ProcessSupervisor.ProcessBusyException e) {
+            logger.warn("Restore refused for project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "5")
+                .entity(java.util.Map.of("message", e.getMessage())).build();
+        } catch (Exception e) {
+            logger.error("Error restoring snapshot " + snapshotId + " of project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    @DELETE
+    @Path("{id}/snapshots/{snapshotId}")
+    @Transactional
+    public Response deleteSnapshot(@PathParam("id") UUID projectId, @PathParam("snapshotId") UUID snapshotId) {
+        String userInfo = getCurrentUserInfo();
+        logger.info("DELETE /api/projects/" + projectId + "/snapshots/" + snapshotId + " - Request from: " + userInfo);
+
+        try {
+            Response denied = checkAccess(projectId);
+            if (denied != null) {
+                return denied;
+            }
+            snapshotService.delete(projectService.getProjectById(projectId), snapshotId);
+            return Response.noContent().build();
+        } catch (NoSuchFileException e) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(java.util.Map.of("message", "Snapshot not found")).build();
+        } catch (Exception e) {
+            logger.error("Error deleting snapshot " + snapshotId + " of project " + projectId + " by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    // null if the current user can use the project, otherwise the error response to send
+    private Response checkAccess(UUID projectId) {
+        UserModel currentUser = userService.getUserById(UUID.fromString(jwt.getSubject()));
+        if (currentUser == null) {
+            return Response.status(Response.Status.UNAUTHORIZED)
+                .entity(java.util.Map.of("message", "User not found")).build();
+        }
+
+        ProjectModel project = projectService.getProjectById(projectId);
+        if (project == null || project.path == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(java.util.Map.of("message", "Project not found")).build();
+        }
+
+        boolean isAdmin = currentUser.getIsAdmin();
+        boolean isMember = project.members.stream()
+            .anyMatch(member -> member.getId().equals(currentUser.getId()));
+        boolean isOwner = project.owner.getId().equals(currentUser.getId());
+        if (!isAdmin && !isMember && !isOwner) {
+            return Response.status(Response.Status.FORBIDDEN)
+                .entity(java.util.Map.of("message", "Not authorized")).build();
+        }
+        return null;
+    }
+
+    private String getCurrentUserInfo() {
+        try {
+            if (securityContext != null && securityContext.getUserPrincipal() != null) {
+                return securityContext.getUserPrincipal().getName();
+            }
+        } catch (Exception e) {
+            logger.error("Could not get user info: " + e.getMessage());
+        }
+        return "anonymous";
+    }
+}
@@ -0,0 +1,198 @@
+package fr.epita.assistants.ping.presentation.rest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.dto.BulkUserReport;
+import fr.epita.assistants.ping.dto.newUserRequest;
+import fr.epita.assistants.ping.service.UserService;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+
+// bulk account creation for a whole promotion, separate class because the path is /api/user:bulk and not /api/user/...
+@Path("/api/user:bulk")
+@Produces(MediaType.APPLICATION_JSON)
+@RolesAllowed("admin")
+public class UserBulkResource {
+
+    public static final String TEXT_CSV = "text/csv";
+
+    @Inject
+    UserService userService;
+
+    @Inject
+    Logger logger;
+
+    @Context
+    SecurityContext securityContext;
+
+    @ConfigProperty(name = "USER_BULK_MAX_ROWS", defaultValue = "5000")
+    int maxRows;
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response importJson(List<newUserRequest> rows) {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("POST /api/user:bulk (json) - Request from admin: " + adminInfo +
+                   ", rows: " + (rows != null ? rows.size() : "null"));
+
+        if (rows == null || rows.isEmpty()) {
+            logger.error("Empty bulk import from admin: " + adminInfo);
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(java.util.Map.of("message", "No users to import")).build();
+        }
+        return runImport(rows, adminInfo);
+    }
+
+    // csv with login,password[,isAdmin] per record, a header record starting with "login" is skipped
+    // fields may be quoted (rfc 4180): a quoted field can hold commas, line breaks and "" for a quote
+    @POST
+    @Consumes(TEXT_CSV)
+    public Response importCsv(InputStream body) {
+        String adminInfo = getCurrentUserInfo();
+        logger.info("POST /api/user:bulk (csv) - Request from admin: " + adminInfo);
+
+        List<newUserRequest> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            List<String> columns;
+            boolean first = true;
+            while ((columns = readRecord(reader)) != null) {
+                if (first && columns.get(0).trim().toLowerCase().startsWith("login")) {
+                    first = false;
+                    continue;
+                }
+                first = false;
+                if (columns.size() == 1 && columns.get(0).isBlank()) {
+                    continue;
+                }
+                if (rows.size() > maxRows) {
+                    break; // no need to read the rest, runImport rejects it
+                }
+                newUserRequest row = new newUserRequest();
+                row.login = columns.get(0);
+                row.password = columns.size() > 1 ? columns.get(1) : null;
+                row.isAdmin = columns.size() > 2 && Boolean.parseBoolean(columns.get(2).trim());
+                rows.add(row);
+            }
+        } catch (CsvException e) {
+            logger.error("Malformed csv bulk import from admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(java.util.Map.of("message", "Invalid csv body: " + e.getMessage())).build();
+        } catch (IOException e) {
+            logger.error("Could not read csv bulk import from admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(java.util.Map.of("message", "Invalid csv body")).build();
+        }
+
+        if (rows.isEmpty()) {
+            logger.error("Empty csv bulk import from admin: " + adminInfo);
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(java.util.Map.of("message", "No users to import")).build();
+        }
+        return runImport(rows, adminInfo);
+    }
+
+    static class CsvException extends IOException {
+        CsvException(String message) {
+            super(message);
+        }
+    }
+
+    // the fields of the next record, null at the end of the body; reads more lines while a quoted field is open
+    static List<String> readRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                line = reader.readLine();
+                if (line == null) {
+                    throw new CsvException("unterminated quoted field");
+                }
+                field.append('\n');
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == ',') {
+                fields.add(wasQuoted ? field.toString() : field.toString().trim());
+                field.setLength(0);
+                wasQuoted = false;
+            } else if (c == '"' && field.toString().isBlank() && !wasQuoted) {
+                // unquoted fields are trimmed, a quoted one is kept as is
+                field.setLength(0);
+                quoted = true;
+                wasQuoted = true;
+            } else if (wasQuoted && !Character.isWhitespace(c)) {
+                throw new CsvException("text after a quoted field");
+            } else if (!wasQuoted) {
+                field.append(c);
+            }
+        }
+        fields.add(wasQuoted ? field.toString() : field.toString().trim());
+        return fields;
+    }
+
+    private Response runImport(List<newUserRequest> rows, String adminInfo) {
+        if (rows.size() > maxRows) {
+            logger.error("Bulk import too large (" + rows.size() + " rows) from admin: " + adminInfo);
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                .entity(java.util.Map.of("message", "Too many users, max is " + maxRows)).build();
+        }
+
+        try {
+            BulkUserReport report = userService.importUsers(rows);
+            logger.info("Bulk import by admin: " + adminInfo + " - created: " + report.created + ", rejected: " + report.rejected);
+            return Response.ok(report).build();
+        } catch (Exception e) {
+            logger.error("Unexpected error during bulk import from admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(java.util.Map.of("message", "Internal server error")).build();
+        }
+    }
+
+    private String getCurrentUserInfo() {
+        try {
+            if (securityContext != null && securityContext.getUserPrincipal() != null) {
+                return securityContext.getUserPrincipal().getName();
+            }
+        } catch (Exception e) {
+            logger.error("Could not get user info: " + e.getMessage());
+        }
+        return "anonymous";
+    }
+}
@@ -9,6 +9,7 @@ import lombok.Getter;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.inject.Inject;
 import io.smallrye.jwt.build.Jwt;
+import fr.epita.assistants.ping.service.PasswordService;
 import fr.epita.assistants.ping.service.UserService;
 import fr.epita.assistants.ping.utils.Logger;
 
@@ -132,6 +133,11 @@ public class UserResource {
 
             return Response.ok(user).build();
 
+        } catch (PasswordService.PasswordBusyException e) {
+            logger.warn("User creation rejected, password hashing busy - from admin: " + adminInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "1")
+                .entity(java.util.Map.of("message", "Server busy, retry later")).build();
         } catch (Exception e) {
             logger.error("Unexpected error creating user: " + e.getMessage() + " from admin: " + adminInfo + " (ID: " + adminId + ")");
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
@@ -158,8 +164,8 @@ public class UserResource {
                     .entity(java.util.Map.of("message", "Login and password cannot be empty")).build();
             }
 
-            var user = userService.getUserByLogin(loginRequest.login);
-            if (user == null || !user.getPassword().equals(loginRequest.password)) {
+            var user = userService.authenticate(loginRequest.login, loginRequest.password);
+            if (user == null) {
                 logger.warn("Failed login attempt for: " + loginRequest.login);
                 return Response.status(Response.Status.UNAUTHORIZED)
                     .entity(java.util.Map.of("message", "Invalid credentials")).build();
@@ -177,6 +183,12 @@ public class UserResource {
             logger.info("Successful login for user: " + user.getLogin() + " (ID: " + user.getId() + ")");
             return Response.ok(java.util.Map.of("token", token)).build();
 
+        } catch (PasswordService.PasswordBusyException e) {
+            // hashing pool is saturated (login storm), tell the client to come back instead of queueing forever
+            logger.warn("Login rejected, password hashing busy for: " + loginRequest.login + " - " + e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "1")
+                .entity(java.util.Map.of("message", "Too many login attempts, retry later")).build();
         } catch (Exception e) {
             logger.error("Unexpected error during login: " + e.getMessage());
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
@@ -330,6 +342,11 @@ public class UserResource {
                        ") - isAdmin: " + isAdmin + ", isSameUser: " + isSameUser + ")");
             return Response.ok(updatedUser).build();
             
+        } catch (PasswordService.PasswordBusyException e) {
+            logger.warn("Update of user " + userId + " rejected, password hashing busy - by: " + userInfo + " - " + e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "1")
+                .entity(java.util.Map.of("message", "Server busy, retry later")).build();
         } catch (IllegalArgumentException e) {
             logger.error("Invalid UUID format: " + userId + " from: " + userInfo + " (ID: " + currentUserId + ")");
             return Response.status(Response.Status.BAD_REQUEST)
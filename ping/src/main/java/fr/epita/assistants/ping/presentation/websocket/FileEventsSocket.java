@@ -0,0 +1,158 @@
+package fr.epita.assistants.ping.presentation.websocket;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.UUID;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.jwt.JsonWebToken;
+
+import fr.epita.assistants.ping.service.FileChangeNotifier;
+import fr.epita.assistants.ping.service.ProjectService;
+import fr.epita.assistants.ping.utils.Logger;
+import io.smallrye.jwt.auth.principal.JWTParser;
+import jakarta.inject.Inject;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.OnClose;
+import jakarta.websocket.OnError;
+import jakarta.websocket.OnOpen;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.PathParam;
+import jakarta.websocket.server.ServerEndpoint;
+
+// file events of a project (FileChangeNotifier), one text message per batch:
+// {"projectId": ..., "events": [{"type": "written", "path": "src/Main.java", "from": null, "folder": false}, ...]}
+// a browser can't set the Authorization header of a websocket, the jwt comes as ?token=
+@ServerEndpoint("/api/projects/{projectId}/events")
+public class FileEventsSocket {
+
+    private static final String SUBSCRIPTION = "ping.subscription";
+
+    @Inject
+    FileChangeNotifier notifier;
+
+    @Inject
+    ProjectService projectService;
+
+    @Inject
+    JWTParser jwtParser;
+
+    @Inject
+    Logger logger;
+
+    // batches waiting for a slow client before it is disconnected
+    @ConfigProperty(name = "FILE_EVENTS_MAX_QUEUED", defaultValue = "64")
+    int maxQueued;
+
+    @OnOpen
+    public void onOpen(Session session, @PathParam("projectId") String projectId) {
+        List<String> tokens = session.getRequestParameterMap().get("token");
+        String token = tokens == null || tokens.isEmpty() ? null : tokens.get(0);
+        // the checks hit the database, not on the event loop
+        Thread.ofVirtual().name("file-events-open").start(() -> authorize(session, projectId, token));
+    }
+
+    private void authorize(Session session, String projectIdStr, String token) {
+        try {
+            UUID projectId = UUID.fromString(projectIdStr);
+            if (token == null) {
+                close(session, "Missing token");
+                return;
+            }
+            JsonWebToken jwt = jwtParser.parse(token);
+            UUID userId = UUID.fromString(jwt.getSubject());
+            if (!projectService.canAccess(projectId, userId)) {
+                logger.warn("File events of project " + projectId + " refused to: " + jwt.getName());
+                close(session, "Not authorized");
+                return;
+            }
+            Subscription subscription = new Subscription(session, maxQueued);
+            session.getUserProperties().put(SUBSCRIPTION, subscription);
+            notifier.subscribe(projectId, subscription);
+            if (!session.isOpen()) {
+                notifier.unsubscribe(projectId, subscription); // closed during the checks
+                return;
+            }
+            logger.info("File events of project " + projectId + " opened by: " + jwt.getName());
+        } catch (IllegalArgumentException e) {
+            close(session, "Invalid project id");
+        } catch (Exception e) {
+            logger.warn("File events refused, invalid token: " + e.getMessage());
+            close(session, "Invalid token");
+        }
+    }
+
+    @OnClose
+    public void onClose(Session session, @PathParam("projectId") String projectId) {
+        Object subscription = session.getUserProperties().remove(SUBSCRIPTION);
+        if (subscription instanceof Subscription subscribed) {
+            subscribed.closed = true;
+            notifier.unsubscribe(UUID.fromString(projectId), subscribed);
+        }
+    }
+
+    @OnError
+    public void onError(Session session, @PathParam("projectId") String projectId, Throwable error) {
+        logger.debug("File events of project " + projectId + " failed: " + error.getMessage());
+        onClose(session, projectId);
+    }
+
+    private static void close(Session session, String reason) {
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, reason));
+        } catch (Exception ignored) {
+            // already gone
+        }
+    }
+
+    // one async send at a time per session, the batches that come meanwhile wait in a bounded queue
+    private static class Subscription implements FileChangeNotifier.Subscriber {
+        private final Session session;
+        private final int maxQueued;
+        private final ArrayDeque<String> queue = new ArrayDeque<>();
+        private boolean sending;
+        volatile boolean closed;
+
+        Subscription(Session session, int maxQueued) {
+            this.session = session;
+            this.maxQueued = maxQueued;
+        }
+
+        @Override
+        public synchronized void send(String batch) {
+            if (closed) {
+                return;
+            }
+            if (sending) {
+                if (queue.size() >= maxQueued) {
+                    // the client missed events, it lists the project again when it reconnects
+                    closed = true;
+                    queue.clear();
+                    try {
+                        session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Too slow"));
+                    } catch (Exception ignored) {
+                        // already gone
+                    }
+                    return;
+                }
+                queue.add(batch);
+                return;
+            }
+            sending = true;
+            session.getAsyncRemote().sendText(batch, this::sent);
+        }
+
+        private synchronized void sent(SendResult result) {
+            if (!result.isOK()) {
+                closed = true;
+            }
+            String next = queue.poll();
+            if (!result.isOK() || closed || next == null) {
+                sending = false;
+                return;
+            }
+            session.getAsyncRemote().sendText(next, this::sent);
+        }
+    }
+}
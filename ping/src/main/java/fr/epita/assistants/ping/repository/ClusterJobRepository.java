@@ -0,0 +1,130 @@
+package fr.epita.assistants.ping.repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import org.hibernate.query.NativeQuery;
+
+import fr.epita.assistants.ping.data.model.ClusterJobModel;
+import fr.epita.assistants.ping.data.model.ClusterJobRunModel;
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.hibernate.orm.panache.PanacheRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.LockModeType;
+import jakarta.transaction.Transactional;
+
+// state of the cluster jobs, called from the scheduler threads, each call is its own transaction
+@ApplicationScoped
+public class ClusterJobRepository implements PanacheRepository<ClusterJobModel> {
+
+    @Inject
+    Logger logger;
+
+    // starts a run of the job on node if it is due and nobody holds a live lease, null otherwise
+    // a run left RUNNING by an owner whose lease expired is marked LOST
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public ClusterJobRunModel claim(String name, String node, Duration lease) {
+        Instant now = Instant.now();
+        ClusterJobModel job = lockJob(name);
+        if (job.nextRunAt != null && job.nextRunAt.isAfter(now)) {
+            return null;
+        }
+        if (job.owner != null && job.leaseUntil != null && job.leaseUntil.isAfter(now)) {
+            return null;
+        }
+        if (job.owner != null && job.lastRunId != null) {
+            ClusterJobRunModel lost = getEntityManager().find(ClusterJobRunModel.class, job.lastRunId);
+            if (lost != null && lost.status == ClusterJobRunModel.Status.RUNNING) {
+                lost.status = ClusterJobRunModel.Status.LOST;
+                lost.finishedAt = now;
+                logger.warn("Repository: Run " + lost.id + " of job " + name + " on " + lost.node + " was lost");
+            }
+        }
+
+        ClusterJobRunModel run = new ClusterJobRunModel();
+        run.jobName = name;
+        run.node = node;
+        run.status = ClusterJobRunModel.Status.RUNNING;
+        run.startedAt = now;
+        getEntityManager().persist(run);
+        job.owner = node;
+        job.leaseUntil = now.plus(lease);
+        job.lastRunId = run.id;
+        return run;
+    }
+
+    // false if node doesn't hold the job anymore
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public boolean renew(String name, String node, Duration lease) {
+        return update("leaseUntil = ?1 where name = ?2 and owner = ?3", Instant.now().plus(lease), name, node) > 0;
+    }
+
+    // ends the run, the job is due again at nextRunAt, only the last keep runs of the job are kept
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void finish(String name, UUID runId, String node, String error, String summary, Instant nextRunAt, int keep) {
+        ClusterJobRunModel run = getEntityManager().find(ClusterJobRunModel.class, runId);
+        if (run != null) {
+            run.status = error == null ? ClusterJobRunModel.Status.DONE : ClusterJobRunModel.Status.FAILED;
+            run.error = error == null ? null : error.substring(0, Math.min(error.length(), 4000));
+            run.summary = summary == null ? null : summary.substring(0, Math.min(summary.length(), 1000));
+            run.finishedAt = Instant.now();
+        }
+        ClusterJobModel job = getEntityManager().find(ClusterJobModel.class, name, LockModeType.PESSIMISTIC_WRITE);
+        if (job != null && node.equals(job.owner)) {
+            job.owner = null;
+            job.leaseUntil = null;
+            // an admin may have asked for a run meanwhile
+            if (job.nextRunAt == null || !job.nextRunAt.isAfter(run != null ? run.startedAt : Instant.now())) {
+                job.nextRunAt = nextRunAt;
+            }
+        }
+
+        List<Instant> kept = getEntityManager()
+            .createQuery("select r.startedAt from ClusterJobRunModel r where r.jobName = ?1 order by r.startedAt desc", Instant.class)
+            .setParameter(1, name)
+            .setFirstResult(keep - 1)
+            .setMaxResults(1)
+            .getResultList();
+        if (!kept.isEmpty()) {
+            getEntityManager().createQuery("delete from ClusterJobRunModel r where r.jobName = ?1 and r.startedAt < ?2")
+                .setParameter(1, name)
+                .setParameter(2, kept.get(0))
+                .executeUpdate();
+        }
+    }
+
+    // due at once, for the next instance that looks
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void trigger(String name) {
+        lockJob(name).nextRunAt = Instant.now();
+    }
+
+    // the row of the job, created if needed, locked until the end of the transaction
+    // the insert doesn't fail when another instance creates it at the same time, it waits for it
+    @SuppressWarnings("unchecked")
+    private ClusterJobModel lockJob(String name) {
+        getEntityManager().createNativeQuery("insert into cluster_jobs (name) values (:name) on conflict (name) do nothing")
+            .unwrap(NativeQuery.class)
+            .addSynchronizedQuerySpace("cluster_jobs")
+            .setParameter("name", name)
+            .executeUpdate();
+        return getEntityManager().find(ClusterJobModel.class, name, LockModeType.PESSIMISTIC_WRITE);
+    }
+
+    @Transactional
+    public ClusterJobModel findJob(String name) {
+        return getEntityManager().find(ClusterJobModel.class, name);
+    }
+
+    @Transactional
+    public List<ClusterJobRunModel> recentRuns(String name, int limit) {
+        return getEntityManager()
+            .createQuery("from ClusterJobRunModel r where r.jobName = ?1 order by r.startedAt desc", ClusterJobRunModel.class)
+            .setParameter(1, name)
+            .setMaxResults(limit)
+            .getResultList();
+    }
+}
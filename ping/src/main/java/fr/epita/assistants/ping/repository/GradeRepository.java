@@ -0,0 +1,63 @@
+package fr.epita.assistants.ping.repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import fr.epita.assistants.ping.data.model.GradeModel;
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.hibernate.orm.panache.PanacheRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+
+// every method is its own short transaction, they are called from the grading threads
+@ApplicationScoped
+public class GradeRepository implements PanacheRepository<GradeModel> {
+
+    @Inject
+    Logger logger;
+
+    // REQUIRES_NEW: the grading thread must see the row (and the UI its status) before the caller's request ends
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public GradeModel createGrade(UUID projectId, UUID requestedBy, UUID jobId) {
+        GradeModel grade = new GradeModel();
+        grade.projectId = projectId;
+        grade.requestedBy = requestedBy;
+        grade.jobId = jobId;
+        grade.status = GradeModel.Status.QUEUED;
+        grade.createdAt = Instant.now();
+        persist(grade);
+        logger.debug("Repository: Created grade " + grade.id + " for project " + projectId);
+        return grade;
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void markRunning(UUID gradeId) {
+        update("status = ?1 where id = ?2", GradeModel.Status.RUNNING, gradeId);
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void saveResult(UUID gradeId, int passed, int failed, int skipped, Double score, String message) {
+        GradeModel grade = getEntityManager().find(GradeModel.class, gradeId);
+        if (grade == null) {
+            // project deleted while it was being graded
+            logger.warn("Repository: Grade " + gradeId + " disappeared before its result was saved");
+            return;
+        }
+        grade.status = message == null ? GradeModel.Status.DONE : GradeModel.Status.ERROR;
+        grade.passed = passed;
+        grade.failed = failed;
+        grade.skipped = skipped;
+        grade.score = score;
+        grade.message = message;
+        grade.finishedAt = Instant.now();
+        logger.info("Repository: Grade " + gradeId + " of project " + grade.projectId + " is " + grade.status
+            + " (" + passed + " passed, " + failed + " failed)");
+    }
+
+    @Transactional
+    public List<GradeModel> findByProject(UUID projectId, int limit) {
+        return find("projectId = ?1 order by createdAt desc", projectId).page(0, limit).list();
+    }
+}
@@ -0,0 +1,42 @@
+package fr.epita.assistants.ping.repository;
+
+import java.time.Instant;
+
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.StandardBasicTypes;
+
+import fr.epita.assistants.ping.data.model.InstanceModel;
+import io.quarkus.hibernate.orm.panache.PanacheRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.transaction.Transactional;
+
+// the instances table, called from the heartbeat thread, each call is its own transaction
+@ApplicationScoped
+public class InstanceRepository implements PanacheRepository<InstanceModel> {
+
+    // writes the row of the instance, and drops the ones not seen since forgetBefore
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @SuppressWarnings("unchecked")
+    public void heartbeat(String id, Instant startedAt, Instant forgetBefore) {
+        getEntityManager().createNativeQuery(
+                "insert into instances (id, started_at, seen_at) values (:id, :startedAt, now()) " +
+                "on conflict (id) do update set seen_at = excluded.seen_at")
+            .unwrap(NativeQuery.class)
+            .addSynchronizedQuerySpace("instances")
+            .setParameter("id", id)
+            .setParameter("startedAt", startedAt, StandardBasicTypes.INSTANT)
+            .executeUpdate();
+        delete("seenAt < ?1", forgetBefore);
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void remove(String id) {
+        delete("id", id);
+    }
+
+    // instances other than id seen since
+    @Transactional
+    public long countOthers(String id, Instant since) {
+        return count("id <> ?1 and seenAt >= ?2", id, since);
+    }
+}
@@ -1,11 +1,22 @@
 package fr.epita.assistants.ping.repository;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.hibernate.query.NativeQuery;
 
 import fr.epita.assistants.ping.data.model.ProjectModel;
 import fr.epita.assistants.ping.data.model.UserModel;
+import fr.epita.assistants.ping.service.InvalidationBus;
 import fr.epita.assistants.ping.utils.Logger;
 import io.quarkus.hibernate.orm.panache.PanacheRepository;
 import jakarta.enterprise.context.ApplicationScoped;
@@ -15,11 +26,31 @@ import jakarta.transaction.Transactional;
 @ApplicationScoped
 public class ProjectRepository implements PanacheRepository<ProjectModel> {
 
+    // the projects a user owns or is a member of, written as a union so each side uses its own index
+    // (projects_owner_idx / project_members_user_project_idx), ProjectRepositoryPlanTest checks the plan
+    static final String PROJECTS_OF_USER_SQL =
+        "select p.* from projects p where p.owner_id = :userId " +
+        "union " +
+        "select p.* from projects p join project_members pm on pm.project_id = p.id where pm.user_id = :userId";
+
     @Inject
     Logger logger;
 
+    @Inject
+    InvalidationBus invalidationBus;
+
+    @Inject
+    ProjectStatsRepository statsRepository;
+
     @Transactional
     public ProjectModel saveProject(String name, UserModel owner, String basePath) 
+    {
+        return saveProject(name, owner, id -> basePath);
+    }
+
+    // the root can depend on the project id (hash placement), so it is asked once the id is generated
+    @Transactional
+    public ProjectModel saveProject(String name, UserModel owner, Function<UUID, String> rootForId) 
     {
         if (owner == null) {
             logger.error("saveProject called with null owner");
@@ -31,10 +62,12 @@ public class ProjectRepository implements PanacheRepository<ProjectModel> {
         ProjectModel project = new ProjectModel(name, managedOwner);
         persist(project);
 
+        String basePath = rootForId.apply(project.id);
         if (basePath != null && !basePath.trim().isEmpty()) {
             //basePath ends with /
             String normalizedBasePath = basePath.endsWith("/") ? basePath : basePath + "/";
             project.path = normalizedBasePath + project.id.toString();
+            project.storageRoot = normalizedBasePath.substring(0, normalizedBasePath.length() - 1);
             logger.debug("Repository: Setting project path to: " + project.path);
 
 
@@ -50,6 +83,7 @@ public class ProjectRepository implements PanacheRepository<ProjectModel> {
         } else {
             logger.warn("Repository: basePath is null or empty, path not set");
         }
+        statsRepository.membersChanged(project.id);
 
         logger.info("Repository: Project persisted successfully with ID: " + project.id + 
                    ", name: " + project.name + ", path: " + project.path);
@@ -59,7 +93,8 @@ public class ProjectRepository implements PanacheRepository<ProjectModel> {
     @Transactional
     public Optional<ProjectModel> findProjectById(UUID id) {
         logger.debug("Repository: Searching for project with ID: " + id);
-        Optional<ProjectModel> result = find("id", id).firstResultOptional();
+        // em.find instead of a query so the lookup goes through the second-level cache
+        Optional<ProjectModel> result = Optional.ofNullable(getEntityManager().find(ProjectModel.class, id));
         if (result.isPresent()) {
             logger.debug("Repository: Project found with ID: " + id + 
                         ", name: " + result.get().name);
@@ -81,8 +116,12 @@ public class ProjectRepository implements PanacheRepository<ProjectModel> {
             logger.debug("Repository: Found " + projects.size() + " owned projects for user: " + user.getLogin());
             return projects;
         } else {
-            // trickier case projects where user is owner OR member (using JPQL magic)
-            List<ProjectModel> projects = find("owner = ?1 OR ?1 MEMBER OF members", user).list();
+            // trickier case projects where user is owner OR member
+            // the old "owner = ?1 OR ?1 MEMBER OF members" made postgres scan project_members for every project
+            @SuppressWarnings("unchecked")
+            List<ProjectModel> projects = getEntityManager().createNativeQuery(PROJECTS_OF_USER_SQL, ProjectModel.class)
+                .setParameter("userId", user.getId())
+                .getResultList();
             logger.debug("Repository: Found " + projects.size() + " accessible projects for user: " + user.getLogin());
             return projects;
         }
@@ -118,6 +157,8 @@ public class ProjectRepository implements PanacheRepository<ProjectModel> {
 
 
             project.members.add(user);
+            statsRepository.membersChanged(projectId);
+            invalidationBus.publish(InvalidationBus.MEMBERS, projectId);
             logger.info("Repository: Successfully added " + user.getLogin() + " to project " + project.name);
             return true;
         }
@@ -125,6 +166,85 @@ public class ProjectRepository implements PanacheRepository<ProjectModel> {
         return false;
     }
 
+    // set based version of add/remove member, a whole class can be enrolled with 2 statements
+    // the owner is never removed, users that don't exist are just ignored
+    // returns {added, removed}
+    @Transactional
+    public int[] applyMembersBatch(ProjectModel project, List<UUID> toAdd, List<UUID> toRemove) {
+        logger.info("Repository: Batch members update on project " + project.id + 
+                   " - add: " + (toAdd != null ? toAdd.size() : 0) + ", remove: " + (toRemove != null ? toRemove.size() : 0));
+        int added = 0;
+        int removed = 0;
+
+        if (toAdd != null && !toAdd.isEmpty()) {
+            added = membersQuery(
+                "insert into project_members (project_id, user_id) " +
+                "select :projectId, u.id from users u " +
+                "where u.id = any(cast(:ids as uuid[])) " +
+                "and not exists (select 1 from project_members pm where pm.project_id = :projectId and pm.user_id = u.id) " +
+                "on conflict do nothing")
+                .setParameter("projectId", project.id)
+                .setParameter("ids", toPgArray(toAdd))
+                .executeUpdate();
+        }
+
+        if (toRemove != null && !toRemove.isEmpty()) {
+            removed = membersQuery(
+                "delete from project_members " +
+                "where project_id = :projectId and user_id = any(cast(:ids as uuid[])) and user_id <> :ownerId")
+                .setParameter("projectId", project.id)
+                .setParameter("ids", toPgArray(toRemove))
+                .setParameter("ownerId", project.owner.getId())
+                .executeUpdate();
+        }
+
+        // the loaded members list is stale now
+        getEntityManager().flush();
+        getEntityManager().refresh(project);
+        if (added > 0 || removed > 0) {
+            statsRepository.membersChanged(project.id);
+        }
+        invalidationBus.publish(InvalidationBus.MEMBERS, project.id);
+        logger.info("Repository: Batch members update done on project " + project.id + " - added: " + added + ", removed: " + removed);
+        return new int[] { added, removed };
+    }
+
+    // returns the ids from the list that don't match any user (one query)
+    @Transactional
+    public List<UUID> findUnknownUsers(List<UUID> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return List.of();
+        }
+        Set<UUID> known = new HashSet<>(getEntityManager()
+            .createQuery("select u.id from UserModel u where u.id in :ids", UUID.class)
+            .setParameter("ids", ids)
+            .getResultList());
+        List<UUID> unknown = new ArrayList<>();
+        for (UUID id : new HashSet<>(ids)) {
+            if (!known.contains(id)) {
+                unknown.add(id);
+            }
+        }
+        return unknown;
+    }
+
+    // native query on project_members, declaring the table lets hibernate drop only the members cache region
+    @SuppressWarnings("unchecked")
+    private NativeQuery<?> membersQuery(String sql) {
+        return getEntityManager().createNativeQuery(sql)
+            .unwrap(NativeQuery.class)
+            .addSynchronizedQuerySpace("project_members");
+    }
+
+    // uuids are safe to inline in a postgres array literal, the whole list is bound as 1 parameter
+    private static String toPgArray(List<UUID> ids) {
+        return ids.stream()
+            .filter(Objects::nonNull)
+            .map(UUID::toString)
+            .distinct()
+            .collect(Collectors.joining(",", "{", "}"));
+    }
+
     // removing a user from project members (but owner can't be removed)
     @Transactional
     public boolean removeMemberFromProject(UUID projectId, UserModel user) {
@@ -138,6 +258,8 @@ public class ProjectRepository implements PanacheRepository<ProjectModel> {
             }
             boolean removed = project.members.removeIf(member -> member.getId().equals(user.getId()));
             if (removed) {
+                statsRepository.membersChanged(projectId);
+                invalidationBus.publish(InvalidationBus.MEMBERS, projectId);
                 logger.info("Repository: Successfully removed " + user.getLogin() + " from project " + project.name);
             } else {
                 logger.warn("Repository: User " + user.getLogin() + " was not a member of project " + project.name);
@@ -158,6 +280,7 @@ public class ProjectRepository implements PanacheRepository<ProjectModel> {
             logger.info("Repository: Project found, deleting project: " + project.name + 
                        " (owner: " + project.owner.getLogin() + ")");
             delete(project);
+            invalidationBus.publish(InvalidationBus.PROJECT, id);
             //TODO: double check it's actually gone
             boolean deleted = findProjectById(id).isEmpty();
             if (deleted) {
@@ -185,16 +308,50 @@ public class ProjectRepository implements PanacheRepository<ProjectModel> {
         if (newOwner != null && !newOwner.equals(project.owner)) {
             logger.debug("Repository: Changing project owner from " + project.owner.getLogin() + 
                         " to " + newOwner.getLogin());
-            project.members.add(newOwner); // the owened is automatically a member
+            // the owened is automatically a member (only once, project_members is unique per user now)
+            if (project.members.stream().noneMatch(member -> member.getId().equals(newOwner.getId()))) {
+                project.members.add(newOwner);
+            }
             project.owner = newOwner;
         }
         
         ProjectModel result = getEntityManager().merge(project);
+        if (newOwner != null) {
+            statsRepository.membersChanged(project.id); // the new owner may have joined the members
+        }
+        invalidationBus.publish(InvalidationBus.PROJECT, project.id);
         logger.info("Repository: Project modified successfully: " + project.name);
         return result;
     }
 
     // quick helper to count total projects
+    // after the rebalancer copied the project to another root, commits at once so requests waiting on the
+    // storage gate read the new path
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void moveProject(UUID projectId, String storageRoot, String path) {
+        ProjectModel project = getEntityManager().find(ProjectModel.class, projectId);
+        if (project == null) {
+            logger.warn("Repository: Project " + projectId + " deleted while it was moved");
+            return;
+        }
+        project.storageRoot = storageRoot;
+        project.path = path;
+        invalidationBus.publish(InvalidationBus.PROJECT, projectId);
+        logger.info("Repository: Project " + projectId + " moved to " + path);
+    }
+
+    @Transactional
+    public Map<String, Long> countByStorageRoot() {
+        Map<String, Long> counts = new HashMap<>();
+        List<Object[]> rows = getEntityManager()
+            .createQuery("select p.storageRoot, count(p) from ProjectModel p group by p.storageRoot", Object[].class)
+            .getResultList();
+        for (Object[] row : rows) {
+            counts.put((String) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+
     @Transactional
     public long countAllProject() {
         logger.debug("Repository: counting all the  projects");
@@ -0,0 +1,160 @@
+package fr.epita.assistants.ping.repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.StandardBasicTypes;
+
+import fr.epita.assistants.ping.data.model.ProjectStatsModel;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitCommit;
+import fr.epita.assistants.ping.dto.ProjectDTOs.ProjectSummary;
+import fr.epita.assistants.ping.dto.ProjectDTOs.UserSummary;
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.hibernate.orm.panache.PanacheRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+
+// project_stats, see ProjectStatsService
+@ApplicationScoped
+public class ProjectStatsRepository implements PanacheRepository<ProjectStatsModel> {
+
+    @Inject
+    Logger logger;
+
+    // recounts the members of the project, joins the transaction that changed them
+    @Transactional
+    public void membersChanged(UUID projectId) {
+        // the members collection only reaches project_members once flushed
+        getEntityManager().flush();
+        // two membership changes of the project recount one after the other, the second one sees the rows of the
+        // first once it has the lock (no key update: the member rows already hold a key share lock on the project)
+        getEntityManager().createNativeQuery("select 1 from projects where id = :projectId for no key update")
+            .setParameter("projectId", projectId)
+            .getResultList();
+        statsQuery(
+            "insert into project_stats (project_id, member_count, updated_at) " +
+            "select :projectId, count(*), now() from project_members where project_id = :projectId " +
+            "on conflict (project_id) do update set member_count = excluded.member_count, updated_at = excluded.updated_at")
+            .setParameter("projectId", projectId)
+            .executeUpdate();
+    }
+
+    // the project was modified at modifiedAt, and its HEAD is now commit (null if it didn't change)
+    // false if the project no longer exists
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public boolean saveActivity(UUID projectId, Instant modifiedAt, GitCommit commit) {
+        int updated = statsQuery(
+            "insert into project_stats (project_id, member_count, last_modified_at, last_commit_id, " +
+            "last_commit_message, last_commit_author, last_commit_at, updated_at) " +
+            "select p.id, (select count(*) from project_members pm where pm.project_id = p.id), :modifiedAt, " +
+            ":commitId, :commitMessage, :commitAuthor, :commitAt, now() from projects p where p.id = :projectId " +
+            "on conflict (project_id) do update set " +
+            // another instance may have written a later save
+            "last_modified_at = greatest(project_stats.last_modified_at, excluded.last_modified_at), " +
+            "last_commit_id = coalesce(excluded.last_commit_id, project_stats.last_commit_id), " +
+            "last_commit_message = case when excluded.last_commit_id is null then project_stats.last_commit_message else excluded.last_commit_message end, " +
+            "last_commit_author = case when excluded.last_commit_id is null then project_stats.last_commit_author else excluded.last_commit_author end, " +
+            "last_commit_at = case when excluded.last_commit_id is null then project_stats.last_commit_at else excluded.last_commit_at end, " +
+            "updated_at = excluded.updated_at")
+            .setParameter("projectId", projectId)
+            .setParameter("modifiedAt", modifiedAt, StandardBasicTypes.INSTANT)
+            // typed, postgres can't guess the type of a null
+            .setParameter("commitId", commit != null ? commit.id : null, StandardBasicTypes.STRING)
+            .setParameter("commitMessage", commit != null ? firstLine(commit.message) : null, StandardBasicTypes.STRING)
+            .setParameter("commitAuthor", commit != null ? truncate(commit.authorName, 255) : null, StandardBasicTypes.STRING)
+            .setParameter("commitAt", commit != null ? Instant.ofEpochSecond(commit.time) : null, StandardBasicTypes.INSTANT)
+            .executeUpdate();
+        logger.debug("Repository: Saved activity of project " + projectId + (commit != null ? ", head " + commit.id : ""));
+        return updated > 0;
+    }
+
+    // the projects of userId (owned, or owned and member of), all of them if userId is null, most recently
+    // modified first: one query, every join on a primary key or a membership index
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<ProjectSummary> findSummaries(UUID userId, boolean onlyOwned, int limit) {
+        // same union as findProjectsByUser for the projects a user is in, each side on its own index
+        String scope = userId == null || onlyOwned
+            ? "projects p"
+            : "(select id from projects where owner_id = :userId " +
+              "union select project_id from project_members where user_id = :userId) mine " +
+              "join projects p on p.id = mine.id";
+        NativeQuery<Object[]> query = getEntityManager().createNativeQuery(
+                "select p.id as id, p.name as name, o.id as owner_id, o.displayname as owner_name, o.avatar as owner_avatar, " +
+                "coalesce(s.member_count, 0) as member_count, coalesce(u.files, 0) as files, coalesce(u.bytes, 0) as bytes, " +
+                "s.last_modified_at as last_modified_at, s.last_commit_id as last_commit_id, " +
+                "s.last_commit_message as last_commit_message, s.last_commit_author as last_commit_author, " +
+                "s.last_commit_at as last_commit_at " +
+                "from " + scope + " " +
+                "join users o on o.id = p.owner_id " +
+                "left join project_stats s on s.project_id = p.id " +
+                "left join project_usage u on u.project_id = p.id " +
+                (userId != null && onlyOwned ? "where p.owner_id = :userId " : "") +
+                "order by s.last_modified_at desc nulls last, p.name " +
+                "limit :limit")
+            .unwrap(NativeQuery.class)
+            .addScalar("id", StandardBasicTypes.UUID)
+            .addScalar("name", StandardBasicTypes.STRING)
+            .addScalar("owner_id", StandardBasicTypes.UUID)
+            .addScalar("owner_name", StandardBasicTypes.STRING)
+            .addScalar("owner_avatar", StandardBasicTypes.STRING)
+            .addScalar("member_count", StandardBasicTypes.INTEGER)
+            .addScalar("files", StandardBasicTypes.LONG)
+            .addScalar("bytes", StandardBasicTypes.LONG)
+            .addScalar("last_modified_at", StandardBasicTypes.INSTANT)
+            .addScalar("last_commit_id", StandardBasicTypes.STRING)
+            .addScalar("last_commit_message", StandardBasicTypes.STRING)
+            .addScalar("last_commit_author", StandardBasicTypes.STRING)
+            .addScalar("last_commit_at", StandardBasicTypes.INSTANT)
+            .setParameter("limit", limit);
+        if (userId != null) {
+            query.setParameter("userId", userId);
+        }
+
+        List<ProjectSummary> summaries = new ArrayList<>();
+        for (Object[] row : query.getResultList()) {
+            ProjectSummary summary = new ProjectSummary();
+            summary.id = (UUID) row[0];
+            summary.name = (String) row[1];
+            summary.owner = new UserSummary();
+            summary.owner.id = (UUID) row[2];
+            summary.owner.displayName = (String) row[3];
+            summary.owner.avatar = (String) row[4];
+            summary.members = (Integer) row[5];
+            summary.files = (Long) row[6];
+            summary.bytes = (Long) row[7];
+            summary.lastModified = row[8] != null ? row[8].toString() : null;
+            summary.lastCommitId = (String) row[9];
+            summary.lastCommitMessage = (String) row[10];
+            summary.lastCommitAuthor = (String) row[11];
+            summary.lastCommitAt = row[12] != null ? row[12].toString() : null;
+            summaries.add(summary);
+        }
+        logger.debug("Repository: Found " + summaries.size() + " project summaries" + (userId != null ? " for user " + userId : ""));
+        return summaries;
+    }
+
+    // declaring the table keeps hibernate from dropping the whole second-level cache after the update
+    @SuppressWarnings("unchecked")
+    private NativeQuery<?> statsQuery(String sql) {
+        return getEntityManager().createNativeQuery(sql)
+            .unwrap(NativeQuery.class)
+            .addSynchronizedQuerySpace("project_stats");
+    }
+
+    private static String firstLine(String message) {
+        if (message == null) {
+            return null;
+        }
+        int end = message.indexOf('\n');
+        return truncate(end < 0 ? message : message.substring(0, end), 200);
+    }
+
+    private static String truncate(String value, int max) {
+        return value == null || value.length() <= max ? value : value.substring(0, max);
+    }
+}
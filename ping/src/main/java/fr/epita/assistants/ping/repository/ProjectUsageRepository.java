@@ -0,0 +1,88 @@
+package fr.epita.assistants.ping.repository;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.hibernate.query.NativeQuery;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.data.model.ProjectUsageModel;
+import fr.epita.assistants.ping.service.InvalidationBus;
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.hibernate.orm.panache.PanacheRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+
+// called from the quota flush and reconcile threads, each call is its own transaction
+@ApplicationScoped
+public class ProjectUsageRepository implements PanacheRepository<ProjectUsageModel> {
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    InvalidationBus invalidationBus;
+
+    @Transactional
+    public Optional<ProjectUsageModel> findUsage(UUID projectId) {
+        return Optional.ofNullable(getEntityManager().find(ProjectUsageModel.class, projectId));
+    }
+
+    // adds what this instance changed since its last flush to the saved counters, the other instances add theirs
+    // the same way, returns the {bytes, files} saved now, empty if the project no longer exists
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public Optional<long[]> addUsage(UUID projectId, long bytes, long files) {
+        int updated = usageQuery(
+            "insert into project_usage (project_id, bytes, files, updated_at) " +
+            "select p.id, greatest(0, :bytes), greatest(0, :files), now() from projects p where p.id = :projectId " +
+            "on conflict (project_id) do update set bytes = greatest(0, project_usage.bytes + :bytes), " +
+            "files = greatest(0, project_usage.files + :files), updated_at = excluded.updated_at")
+            .setParameter("projectId", projectId)
+            .setParameter("bytes", bytes)
+            .setParameter("files", files)
+            .executeUpdate();
+        if (updated == 0) {
+            return Optional.empty();
+        }
+        invalidationBus.publish(InvalidationBus.USAGE, projectId);
+        Object[] saved = (Object[]) getEntityManager()
+            .createNativeQuery("select bytes, files from project_usage where project_id = :projectId")
+            .setParameter("projectId", projectId)
+            .getSingleResult();
+        logger.debug("Repository: Added " + bytes + " bytes, " + files + " files to the usage of project " + projectId);
+        return Optional.of(new long[] {((Number) saved[0]).longValue(), ((Number) saved[1]).longValue()});
+    }
+
+    // replaces the counters with a walk of the project, false if the project no longer exists
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public boolean saveUsage(UUID projectId, long bytes, long files, boolean reconciled) {
+        if (getEntityManager().find(ProjectModel.class, projectId) == null) {
+            return false;
+        }
+        ProjectUsageModel usage = getEntityManager().find(ProjectUsageModel.class, projectId);
+        if (usage == null) {
+            usage = new ProjectUsageModel();
+            usage.projectId = projectId;
+            persist(usage);
+        }
+        usage.bytes = bytes;
+        usage.files = files;
+        usage.updatedAt = Instant.now();
+        if (reconciled) {
+            usage.reconciledAt = usage.updatedAt;
+        }
+        invalidationBus.publish(reconciled ? InvalidationBus.USAGE_RECONCILED : InvalidationBus.USAGE, projectId);
+        logger.debug("Repository: Saved usage of project " + projectId + ": " + bytes + " bytes, " + files + " files");
+        return true;
+    }
+
+    // declaring the table keeps hibernate from dropping the whole second-level cache after the update
+    @SuppressWarnings("unchecked")
+    private NativeQuery<?> usageQuery(String sql) {
+        return getEntityManager().createNativeQuery(sql)
+            .unwrap(NativeQuery.class)
+            .addSynchronizedQuerySpace("project_usage");
+    }
+}
@@ -6,17 +6,35 @@ import io.quarkus.hibernate.orm.panache.PanacheRepository;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
+import org.hibernate.jpa.HibernateHints;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.dto.newUserRequest;
+import fr.epita.assistants.ping.service.InvalidationBus;
+
 @ApplicationScoped
 public class UserRepository implements PanacheRepository<UserModel> {
 
+    // query cache region for the login lookup, hibernate invalidates it on any write to the users table
+    public static final String LOGIN_QUERY_REGION = "user-by-login";
+
     @Inject
     Logger logger;
 
+    @Inject
+    InvalidationBus invalidationBus;
+
+    // same value as the jdbc batch size so every flush sends full batches
+    @ConfigProperty(name = "quarkus.hibernate-orm.jdbc.statement-batch-size", defaultValue = "50")
+    int batchSize;
+
     @Transactional
     public UserModel saveUser(String login, String password, Boolean admin) {
         logger.info("Repository: Creating new user with login: " + login + ", admin: " + admin);
@@ -27,15 +45,64 @@ public class UserRepository implements PanacheRepository<UserModel> {
         entity.setAvatar("");
         entity.setDisplayName(formatDisplayName(login));
         persist(entity);
+        // a "no such login" may be cached on the other instances
+        invalidationBus.publish(InvalidationBus.USER, entity.getId());
         logger.info("Repository: User persisted successfully with ID: " + entity.getId() + 
                    ", login: " + login);
         return entity;
     }
 
+    // bulk version of saveUser, inserts are sent to postgres as jdbc batches
+    // callers must have checked the logins before (see findExistingLogins)
+    @Transactional
+    public List<UserModel> saveUsers(List<newUserRequest> requests) {
+        logger.info("Repository: Bulk creating " + requests.size() + " users (batch size: " + batchSize + ")");
+        List<UserModel> saved = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            newUserRequest request = requests.get(i);
+            UserModel entity = new UserModel();
+            entity.setLogin(request.login);
+            entity.setPassword(request.password);
+            entity.setIsAdmin(request.isAdmin != null ? request.isAdmin : false);
+            entity.setAvatar("");
+            entity.setDisplayName(formatDisplayName(request.login));
+            persist(entity);
+            saved.add(entity);
+
+            // flush + clear per batch so the persistence context doesn't grow with the import
+            if ((i + 1) % batchSize == 0) {
+                flush();
+                getEntityManager().clear();
+            }
+        }
+        flush();
+        getEntityManager().clear();
+        // one message for the whole import
+        invalidationBus.publish(InvalidationBus.ALL_USERS, null);
+        logger.info("Repository: Bulk created " + saved.size() + " users");
+        return saved;
+    }
+
+    // one query for the whole import instead of one findUserByLogin per row
+    @Transactional
+    public List<String> findExistingLogins(Collection<String> logins) {
+        if (logins == null || logins.isEmpty()) {
+            return List.of();
+        }
+        logger.debug("Repository: Checking " + logins.size() + " logins for existence");
+        return getEntityManager()
+            .createQuery("select u.login from UserModel u where u.login in :logins", String.class)
+            .setParameter("logins", logins)
+            .getResultList();
+    }
+
     @Transactional
     public Optional<UserModel> findUserByLogin(String login) {
         logger.debug("Repository: Searching for user with login: " + login);
-        Optional<UserModel> result = find("login", login).firstResultOptional();
+        Optional<UserModel> result = find("login", login)
+            .withHint(HibernateHints.HINT_CACHEABLE, true)
+            .withHint(HibernateHints.HINT_CACHE_REGION, LOGIN_QUERY_REGION)
+            .firstResultOptional();
         if (result.isPresent()) {
             logger.debug("Repository: User found with login: " + login + 
                         ", ID: " + result.get().getId());
@@ -48,7 +115,8 @@ public class UserRepository implements PanacheRepository<UserModel> {
     @Transactional
     public Optional<UserModel> findUserById(UUID id) {
         logger.debug("Repository: Searching for user with ID: " + id);
-        Optional<UserModel> result = find("id", id).firstResultOptional();
+        // em.find instead of a query so the lookup goes through the second-level cache
+        Optional<UserModel> result = Optional.ofNullable(getEntityManager().find(UserModel.class, id));
         if (result.isPresent()) {
             logger.debug("Repository: User found with ID: " + id + 
                         ", login: " + result.get().getLogin());
@@ -73,6 +141,7 @@ public class UserRepository implements PanacheRepository<UserModel> {
         if (userOpt.isPresent()) {
             logger.info("Repository: User found, deleting user: " + userOpt.get().getLogin());
             userOpt.ifPresent(this::delete);
+            invalidationBus.publish(InvalidationBus.USER, id);
             boolean deleted = findUserById(id).isEmpty();
             if (deleted) {
                 logger.info("Repository: User successfully deleted with ID: " + id);
@@ -104,10 +173,25 @@ public class UserRepository implements PanacheRepository<UserModel> {
             user.setAvatar(avatar);
         }
         UserModel result = getEntityManager().merge(user);
+        invalidationBus.publish(InvalidationBus.USER, user.getId());
         logger.info("Repository: User modified successfully: " + user.getLogin());
         return result;
     }
 
+    // loads the entity instead of a bulk update so the second-level cache entry is updated too
+    @Transactional
+    public UserModel updatePasswordHash(UUID id, String passwordHash) {
+        logger.debug("Repository: Updating password hash for user ID: " + id);
+        UserModel user = getEntityManager().find(UserModel.class, id);
+        if (user == null) {
+            logger.warn("Repository: Cannot update password hash, no user with ID: " + id);
+            return null;
+        }
+        user.setPassword(passwordHash);
+        invalidationBus.publish(InvalidationBus.USER, id);
+        return user;
+    }
+
     @Transactional
     public long totalUserCount() {
         logger.debug("Repository: Counting total users");
@@ -0,0 +1,357 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.dto.BlobStats;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// optional content addressed storage (STORAGE_DEDUP_ENABLED): each distinct content is stored once as
+// <storage root>/.blobs/<2 first hex>/<sha-256> (one store per root) and the project files are hard links to it
+// the reference count is the link count of the blob (minus its own name), no table to keep in sync:
+// deleting or replacing a project file drops a reference by itself, collect() removes blobs nobody links to
+// a blob is never written in place, FileSystemService always writes a new file and renames it over the old one
+@ApplicationScoped
+public class BlobStore {
+
+    public static final String BLOBS_DIR = ".blobs";
+    private static final String TMP_DIR = "tmp";
+
+    private final AtomicBoolean deduplicating = new AtomicBoolean();
+
+    @Inject
+    Logger logger;
+
+    @ConfigProperty(name = "STORAGE_DEDUP_ENABLED", defaultValue = "false")
+    boolean enabled;
+
+    @Inject
+    ProjectStorage projectStorage;
+
+    @Inject
+    PathLocks pathLocks;
+
+    // same as the plain writes of FileSystemService: a blob is on disk before its name, a name before it is used
+    @ConfigProperty(name = "FILE_WRITE_FSYNC", defaultValue = "true")
+    boolean fsync;
+
+    // uploads up to this size are hashed in memory, known content then never touches the disk
+    @ConfigProperty(name = "BLOB_MEMORY_THRESHOLD_BYTES", defaultValue = "262144")
+    int memoryThreshold;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // the blob store of the filesystem holding file or project directory (hard links can't cross filesystems),
+    // empty if none
+    public Optional<Path> storeFor(Path file) {
+        return projectStorage.rootContaining(file).map(root -> root.resolve(BLOBS_DIR));
+    }
+
+    // writes the content to file as a link to its blob, true if the content was already stored
+    public boolean store(Path file, InputStream in) throws IOException {
+        Path blobs = storeFor(file).orElseThrow(() -> new IOException("No blob store for " + file));
+        Path tmpDir = Files.createDirectories(blobs.resolve(TMP_DIR));
+        MessageDigest sha = sha256();
+
+        byte[] head = in.readNBytes(memoryThreshold + 1);
+        Path spilled = null;
+        try {
+            String hash;
+            if (head.length <= memoryThreshold) {
+                hash = HexFormat.of().formatHex(sha.digest(head));
+            } else {
+                // too big for memory: written once to a temp file of the store while hashed
+                spilled = Files.createTempFile(tmpDir, "upload-", ".tmp");
+                try (OutputStream out = Files.newOutputStream(spilled);
+                     DigestInputStream rest = new DigestInputStream(in, sha)) {
+                    sha.update(head);
+                    out.write(head);
+                    rest.transferTo(out);
+                }
+                hash = HexFormat.of().formatHex(sha.digest());
+            }
+
+            Path blob = blobPath(blobs, hash);
+            boolean known = Files.exists(blob);
+            if (!known) {
+                publish(blob, spilled, head, tmpDir);
+            }
+            try {
+                link(blob, file);
+            } catch (NoSuchFileException e) {
+                // collected between the check and the link, the content is still here so store it again
+                publish(blob, spilled, head, tmpDir);
+                link(blob, file);
+                known = false;
+            }
+            return known;
+        } finally {
+            if (spilled != null) {
+                Files.deleteIfExists(spilled);
+            }
+        }
+    }
+
+    // moves the files already under dir into the store, a file whose content is known becomes a link
+    // to the existing blob, a new content becomes a blob without being copied (the blob is linked to the file)
+    // .git is left alone, git appends to some of its files in place
+    // a file is hashed without its lock, then linked under it only if it is still the file that was hashed
+    public BlobStats dedupTree(Path dir) throws IOException {
+        Path blobs = storeFor(dir).orElseThrow(() -> new IOException("No blob store for " + dir));
+        Files.createDirectories(blobs);
+        BlobStats report = new BlobStats();
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path sub, BasicFileAttributes attrs) {
+                return sub.getFileName().toString().equals(".git") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Path blob = blobPath(blobs, hashOf(file));
+                try (PathLocks.Held held = pathLocks.lock(file)) {
+                    if (!unchanged(file, attrs)) {
+                        return FileVisitResult.CONTINUE; // written or deleted meanwhile, deduplicated by its write
+                    }
+                    report.files++;
+                    if (!Files.exists(blob)) {
+                        Files.createDirectories(blob.getParent());
+                        Files.createLink(blob, file);
+                        if (fsync) {
+                            FileSystemService.forceDirectory(blob.getParent());
+                        }
+                        report.blobs++;
+                    } else if (!Files.isSameFile(blob, file)) {
+                        link(blob, file);
+                        report.savedBytes += attrs.size();
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        logger.info("BlobStore: deduplicated " + dir + " - " + report.files + " files, "
+            + report.blobs + " new blobs, " + report.savedBytes + " bytes saved");
+        return report;
+    }
+
+    // dedupTree of each project on a background thread, inside its storage gate so a move can't run under it
+    // false if a deduplication is already running
+    public boolean startDedup(List<ProjectModel> projects) {
+        if (!deduplicating.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread.ofVirtual().name("blob-dedup").start(() -> {
+            BlobStats total = new BlobStats();
+            int failed = 0;
+            try {
+                for (ProjectModel project : projects) {
+                    try {
+                        dedupProject(project, total);
+                    } catch (IOException | RuntimeException e) {
+                        failed++;
+                        logger.error("BlobStore: deduplicating project " + project.id + " failed: " + e.getMessage());
+                    }
+                }
+                logger.info("BlobStore: deduplication done - " + total.files + " files, " + total.blobs + " new blobs, "
+                    + total.savedBytes + " bytes saved, " + failed + " failed");
+            } finally {
+                deduplicating.set(false);
+            }
+        });
+        return true;
+    }
+
+    private void dedupProject(ProjectModel project, BlobStats total) throws IOException {
+        if (project.path == null) {
+            return;
+        }
+        projectStorage.enter(project.id);
+        try {
+            Path dir = Path.of(project.path);
+            if (!Files.isDirectory(dir)) {
+                return; // moved or deleted since the list was read
+            }
+            BlobStats report = dedupTree(dir);
+            total.files += report.files;
+            total.blobs += report.blobs;
+            total.savedBytes += report.savedBytes;
+        } finally {
+            projectStorage.exit(project.id);
+        }
+    }
+
+    // removes the blobs no project file (or snapshot) links to anymore and the leftovers of interrupted uploads
+    public int collect() throws IOException {
+        int removed = 0;
+        for (Path root : projectStorage.roots()) {
+            removed += collect(root.resolve(BLOBS_DIR));
+        }
+        logger.info("BlobStore: collected " + removed + " unreferenced blobs");
+        return removed;
+    }
+
+    private int collect(Path blobs) throws IOException {
+        if (!Files.isDirectory(blobs)) {
+            return 0;
+        }
+        long staleBefore = System.currentTimeMillis() - 3_600_000;
+        // a blob published by an upload has one link until the upload links it, the inode change time
+        // (updated by every link and unlink) keeps those out of the way
+        long unlinkedBefore = System.currentTimeMillis() - 600_000;
+        int[] removed = new int[1];
+        Files.walkFileTree(blobs, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                boolean tmp = file.getParent().getFileName().toString().equals(TMP_DIR);
+                boolean unused = tmp
+                    ? attrs.lastModifiedTime().toMillis() < staleBefore
+                    : SnapshotService.linkCount(file) == 1 && changeTime(file) < unlinkedBefore;
+                if (unused) {
+                    Files.deleteIfExists(file);
+                    removed[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return removed[0];
+    }
+
+    public BlobStats stats() throws IOException {
+        BlobStats stats = new BlobStats();
+        for (Path root : projectStorage.roots()) {
+            addStats(root.resolve(BLOBS_DIR), stats);
+        }
+        return stats;
+    }
+
+    private void addStats(Path blobs, BlobStats stats) throws IOException {
+        if (!Files.isDirectory(blobs)) {
+            return;
+        }
+        Files.walkFileTree(blobs, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.getFileName().toString().equals(TMP_DIR) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                int references = Math.max(0, SnapshotService.linkCount(file) - 1);
+                stats.blobs++;
+                stats.files += references;
+                stats.storedBytes += attrs.size();
+                // without the store every reference would be its own copy
+                stats.savedBytes += attrs.size() * Math.max(0, references - 1);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void publish(Path blob, Path spilled, byte[] content, Path tmpDir) throws IOException {
+        Files.createDirectories(blob.getParent());
+        Path tmp;
+        if (spilled != null) {
+            // the upload keeps its own name until the end, in case the blob has to be published again
+            tmp = tmpDir.resolve(UUID.randomUUID() + ".blob");
+            Files.createLink(tmp, spilled);
+        } else {
+            tmp = Files.createTempFile(tmpDir, "blob-", ".tmp");
+            Files.write(tmp, content);
+        }
+        try {
+            if (fsync) {
+                FileSystemService.force(tmp);
+            }
+            Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE);
+            if (fsync) {
+                FileSystemService.forceDirectory(blob.getParent());
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // replaces file by a link to blob in one rename, a reader sees the old or the new content, never none
+    private void link(Path blob, Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".link");
+        Files.createLink(tmp, blob);
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (fsync) {
+                FileSystemService.forceDirectory(file.getParent());
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // same inode, size and modification time as when it was hashed
+    private static boolean unchanged(Path file, BasicFileAttributes hashed) throws IOException {
+        try {
+            BasicFileAttributes now = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return now.isRegularFile() && now.size() == hashed.size()
+                && now.lastModifiedTime().equals(hashed.lastModifiedTime())
+                && Objects.equals(now.fileKey(), hashed.fileKey());
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static long changeTime(Path file) {
+        try {
+            return ((FileTime) Files.getAttribute(file, "unix:ctime", LinkOption.NOFOLLOW_LINKS)).toMillis();
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return Long.MAX_VALUE; // can't tell, never collected
+        }
+    }
+
+    private static Path blobPath(Path blobs, String hash) {
+        return blobs.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static String hashOf(Path file) throws IOException {
+        MessageDigest sha = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file, LinkOption.NOFOLLOW_LINKS), sha)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
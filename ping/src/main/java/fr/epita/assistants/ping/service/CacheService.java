@@ -0,0 +1,102 @@
+package fr.epita.assistants.ping.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.data.model.UserModel;
+import fr.epita.assistants.ping.dto.CacheStatsResponse;
+import fr.epita.assistants.ping.dto.CacheStatsResponse.RegionStats;
+import fr.epita.assistants.ping.repository.UserRepository;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManagerFactory;
+
+// small wrapper around the hibernate second-level cache (stats + manual eviction)
+// hibernate already keeps the cache in sync for everything that goes through the entity manager,
+// this is only needed for native sql that bypasses it, and for the writes of the other instances (InvalidationBus)
+@ApplicationScoped
+public class CacheService {
+
+    public static final String MEMBERS_REGION = ProjectModel.class.getName() + ".members";
+
+    @Inject
+    EntityManagerFactory entityManagerFactory;
+
+    @Inject
+    Logger logger;
+
+    public void evictUser(UUID userId) {
+        logger.debug("Cache: evicting user " + userId);
+        sessionFactory().getCache().evictEntityData(UserModel.class, userId);
+        sessionFactory().getCache().evictQueryRegion(UserRepository.LOGIN_QUERY_REGION);
+    }
+
+    public void evictAllUsers() {
+        logger.debug("Cache: evicting all users");
+        sessionFactory().getCache().evictEntityData(UserModel.class);
+        sessionFactory().getCache().evictQueryRegion(UserRepository.LOGIN_QUERY_REGION);
+    }
+
+    public void evictAll() {
+        sessionFactory().getCache().evictAll();
+    }
+
+    public void evictProject(UUID projectId) {
+        logger.debug("Cache: evicting project " + projectId);
+        sessionFactory().getCache().evictEntityData(ProjectModel.class, projectId);
+        sessionFactory().getCache().evictCollectionData(MEMBERS_REGION, projectId);
+    }
+
+    public void evictProjectMembers(UUID projectId) {
+        logger.debug("Cache: evicting members of project " + projectId);
+        sessionFactory().getCache().evictCollectionData(MEMBERS_REGION, projectId);
+    }
+
+    public CacheStatsResponse getStats() {
+        Statistics stats = sessionFactory().getStatistics();
+
+        CacheStatsResponse response = new CacheStatsResponse();
+        response.enabled = stats.isStatisticsEnabled();
+        response.hitCount = stats.getSecondLevelCacheHitCount();
+        response.missCount = stats.getSecondLevelCacheMissCount();
+        response.putCount = stats.getSecondLevelCachePutCount();
+        response.hitRatio = ratio(response.hitCount, response.missCount);
+        response.queryHitCount = stats.getQueryCacheHitCount();
+        response.queryMissCount = stats.getQueryCacheMissCount();
+        response.queryHitRatio = ratio(response.queryHitCount, response.queryMissCount);
+
+        List<RegionStats> regions = new ArrayList<>();
+        for (String regionName : stats.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics regionStats = stats.getCacheRegionStatistics(regionName);
+            if (regionStats == null) {
+                continue;
+            }
+            RegionStats region = new RegionStats();
+            region.name = regionName;
+            region.hitCount = regionStats.getHitCount();
+            region.missCount = regionStats.getMissCount();
+            region.putCount = regionStats.getPutCount();
+            region.elementCount = regionStats.getElementCountInMemory();
+            region.hitRatio = ratio(region.hitCount, region.missCount);
+            regions.add(region);
+        }
+        response.regions = regions;
+        return response;
+    }
+
+    private SessionFactory sessionFactory() {
+        return entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    private static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,250 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// optional compression at rest (STORAGE_COMPRESSION_ENABLED): a file written through FileSystemService is
+// stored gzipped when it is big enough, not already compressed (by its extension) and shrinks enough
+// a compressed file carries the xattr user.ping.codec=gzip (hard links and renames keep it, a rewrite drops it)
+// and its project directory user.ping.compressed, so the readers that don't go through FileSystemService
+// (git, exec features, the autograder) call inflateTree first, which costs one xattr read when nothing is compressed
+// git status and diff inflate the whole tree, so the files of a project with a .git directory are never compressed:
+// the first status would undo it, in practice only the projects nobody runs git or features on stay compressed
+// a file is inflated under its PathLocks write lock, a save through FileSystemService can't be replaced by the
+// inflated old content
+@ApplicationScoped
+public class CompressedStorage {
+
+    public static final String GZIP = "gzip";
+    private static final String CODEC_ATTR = "ping.codec";
+    private static final String TREE_ATTR = "ping.compressed";
+
+    private static final Set<String> INCOMPRESSIBLE = Set.of(
+        "png", "jpg", "jpeg", "gif", "webp", "ico", "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar",
+        "jar", "war", "pdf", "mp3", "mp4", "mkv", "mov", "ogg", "woff", "woff2");
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    ProjectStorage projectStorage;
+
+    @Inject
+    QuotaService quotaService;
+
+    @Inject
+    PathLocks pathLocks;
+
+    @ConfigProperty(name = "STORAGE_COMPRESSION_ENABLED", defaultValue = "false")
+    boolean enabled;
+
+    // smaller files aren't worth it, a block on disk is 4KB anyway
+    @ConfigProperty(name = "STORAGE_COMPRESSION_MIN_BYTES", defaultValue = "4096")
+    long minBytes;
+
+    // compressed only kept when it is at most this fraction of the raw size
+    @ConfigProperty(name = "STORAGE_COMPRESSION_MAX_RATIO", defaultValue = "0.8")
+    double maxRatio;
+
+    @ConfigProperty(name = "STORAGE_COMPRESSION_LEVEL", defaultValue = "6")
+    int level;
+
+    private final Map<Path, Object> inflateLocks = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isCompressed(Path file) {
+        return codecOf(file).isPresent();
+    }
+
+    public Optional<String> codecOf(Path file) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view == null) {
+            return Optional.empty();
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(view.size(CODEC_ATTR));
+            view.read(CODEC_ATTR, buffer);
+            return Optional.of(new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            return Optional.empty(); // no such attribute
+        }
+    }
+
+    // the content of the file as it was written, decompressed on the fly
+    public InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        return isCompressed(file) ? new GZIPInputStream(in, 65536) : in;
+    }
+
+    public byte[] readAllBytes(Path file) throws IOException {
+        try (InputStream in = open(file)) {
+            return in.readAllBytes();
+        }
+    }
+
+    // tmp holds the raw content that is about to be renamed to name, compresses it in place when worth it
+    // true if tmp is now compressed (the caller marks the project with markTree)
+    public boolean maybeCompress(Path tmp, String name) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        long size = Files.size(tmp);
+        if (size < minBytes || !isCompressible(name)) {
+            return false;
+        }
+        if (projectDirOf(tmp).map(dir -> Files.isDirectory(dir.resolve(".git"))).orElse(false)) {
+            return false;
+        }
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(tmp, UserDefinedFileAttributeView.class);
+        if (view == null || !Files.getFileStore(tmp).supportsFileAttributeView(UserDefinedFileAttributeView.class)) {
+            return false;
+        }
+
+        Path packed = tmp.resolveSibling(tmp.getFileName() + ".gz");
+        try {
+            try (InputStream in = Files.newInputStream(tmp);
+                 OutputStream out = new LevelGzipOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(packed, StandardOpenOption.CREATE_NEW)), level)) {
+                in.transferTo(out);
+            }
+            if (Files.size(packed) > size * maxRatio) {
+                return false;
+            }
+            view = Files.getFileAttributeView(packed, UserDefinedFileAttributeView.class);
+            view.write(CODEC_ATTR, StandardCharsets.US_ASCII.encode(GZIP));
+            Files.move(packed, tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (FileSystemException e) {
+            // xattrs not supported here after all, stored raw
+            logger.debug("CompressedStorage: can't tag " + packed + ": " + e.getMessage());
+            return false;
+        } finally {
+            Files.deleteIfExists(packed);
+        }
+    }
+
+    // notes that the project of file may hold compressed files
+    public void markTree(Path file) {
+        projectDirOf(file).ifPresent(this::markProject);
+    }
+
+    // notes that the project directory may hold compressed files
+    public void markProject(Path projectDir) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(projectDir, UserDefinedFileAttributeView.class);
+        try {
+            if (view != null) {
+                view.write(TREE_ATTR, ByteBuffer.wrap(new byte[] {1}));
+            }
+        } catch (IOException e) {
+            logger.warn("CompressedStorage: can't mark " + projectDir + ": " + e.getMessage());
+        }
+    }
+
+    // stores every compressed file of the project raw again, for the tools that read the files themselves
+    // the caller must not hold PathLocks
+    public void inflateTree(Path projectDir) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(projectDir, UserDefinedFileAttributeView.class);
+        if (view == null || !view.list().contains(TREE_ATTR)) {
+            return;
+        }
+        synchronized (inflateLocks.computeIfAbsent(projectDir.toAbsolutePath().normalize(), dir -> new Object())) {
+            if (!view.list().contains(TREE_ATTR)) {
+                return; // done by the other caller
+            }
+            // removed first: a file compressed during the walk marks the project again
+            view.delete(TREE_ATTR);
+            int[] inflated = new int[1];
+            Files.walkFileTree(projectDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile() && isCompressed(file)) {
+                        try (PathLocks.Held held = pathLocks.lock(file)) {
+                            // saved raw or deleted since the walk saw it
+                            if (Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS) && isCompressed(file)) {
+                                inflate(file);
+                                inflated[0]++;
+                            }
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            if (inflated[0] > 0) {
+                quotaService.projectOf(projectDir).ifPresent(quotaService::markStale);
+            }
+            logger.info("CompressedStorage: inflated " + inflated[0] + " files of " + projectDir);
+        }
+    }
+
+    // a new raw file renamed over the compressed one, a snapshot linked to the old one keeps it
+    // under the write lock of file
+    private void inflate(Path file) throws IOException {
+        Path tmp = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".inflate");
+        try {
+            try (InputStream in = open(file); OutputStream out = Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW)) {
+                in.transferTo(out);
+            }
+            Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(file));
+            Files.setLastModifiedTime(tmp, Files.getLastModifiedTime(file));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Optional<Path> projectDirOf(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        return projectStorage.rootContaining(normalized)
+            .map(root -> root.resolve(root.relativize(normalized).getName(0)));
+    }
+
+    // false for the formats that are already compressed, by their extension
+    public static boolean isCompressible(String name) {
+        return !INCOMPRESSIBLE.contains(extensionOf(name));
+    }
+
+    private static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // GZIPOutputStream with a chosen level, the header has no timestamp so the same content gives the same bytes
+    private static class LevelGzipOutputStream extends GZIPOutputStream {
+        LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 65536);
+            def.setLevel(Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level)));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package fr.epita.assistants.ping.service;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.epita.assistants.ping.dto.ProjectDTOs.FileEvent;
+import fr.epita.assistants.ping.dto.ProjectDTOs.FileEventBatch;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// live file events of the projects for the members that have them open (FileEventsSocket)
+// FileSystemService publishes every mutation, the events of a project are coalesced for FILE_EVENTS_WINDOW_MS
+// (ten saves of a file are one "written", a file created then deleted is nothing) then sent as one batch,
+// serialized once and the same text handed to every subscriber of the project
+// nothing is kept for a project nobody watches
+@ApplicationScoped
+public class FileChangeNotifier {
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    ProjectStorage projectStorage;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "FILE_EVENTS_WINDOW_MS", defaultValue = "150")
+    long windowMs;
+
+    // more events than this in one window and the batch is a single resync
+    @ConfigProperty(name = "FILE_EVENTS_MAX_BATCH", defaultValue = "500")
+    int maxBatch;
+
+    // called on the notifier's thread, must not block
+    public interface Subscriber {
+        void send(String batch);
+    }
+
+    private final Map<UUID, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    // guarded by itself, a project is in it while a flush is scheduled
+    private final Map<UUID, List<FileEvent>> pending = new HashMap<>();
+    private ScheduledExecutorService timer;
+
+    @PostConstruct
+    void init() {
+        timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("file-events").daemon().factory());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    public void subscribe(UUID projectId, Subscriber subscriber) {
+        subscribers.computeIfAbsent(projectId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    }
+
+    public void unsubscribe(UUID projectId, Subscriber subscriber) {
+        subscribers.computeIfPresent(projectId, (id, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    public void created(Path path, boolean folder) {
+        publish("created", path, null, folder);
+    }
+
+    public void written(Path file) {
+        publish("written", file, null, false);
+    }
+
+    public void deleted(Path path, boolean folder) {
+        publish("deleted", path, null, folder);
+    }
+
+    public void moved(Path from, Path to, boolean folder) {
+        publish("moved", to, from, folder);
+    }
+
+    // the whole tree of the project was replaced (snapshot restore), the clients list it again
+    public void resync(Path projectDir) {
+        publish("resync", projectDir, null, true);
+    }
+
+    private void publish(String type, Path path, Path from, boolean folder) {
+        Optional<Located> located = locate(path);
+        if (located.isEmpty() || !subscribers.containsKey(located.get().projectId())) {
+            return;
+        }
+        UUID projectId = located.get().projectId();
+        FileEvent event = new FileEvent();
+        event.type = type;
+        event.path = located.get().relative();
+        event.from = from == null ? null : locate(from).map(Located::relative).orElse(null);
+        event.folder = folder;
+
+        synchronized (pending) {
+            List<FileEvent> events = pending.get(projectId);
+            if (events == null) {
+                events = new ArrayList<>();
+                pending.put(projectId, events);
+                timer.schedule(() -> flush(projectId), windowMs, TimeUnit.MILLISECONDS);
+            }
+            coalesce(events, event);
+        }
+    }
+
+    // merges the event with the last one on the same path
+    private void coalesce(List<FileEvent> events, FileEvent event) {
+        if (events.size() == 1 && events.get(0).type.equals("resync")) {
+            return;
+        }
+        if (event.type.equals("resync")) {
+            events.clear();
+            events.add(event);
+            return;
+        }
+        for (int i = events.size() - 1; i >= 0; i--) {
+            FileEvent last = events.get(i);
+            if (!last.path.equals(event.path)) {
+                continue;
+            }
+            boolean fresh = last.type.equals("created") || last.type.equals("written");
+            if (event.type.equals("written") && fresh) {
+                return; // still created, or written once
+            }
+            if (event.type.equals("deleted") && last.type.equals("created")) {
+                events.remove(i); // never seen by the clients
+                return;
+            }
+            if (event.type.equals("deleted") && last.type.equals("written")) {
+                events.remove(i);
+            }
+            break;
+        }
+        events.add(event);
+        if (events.size() > maxBatch) {
+            FileEvent resync = new FileEvent();
+            resync.type = "resync";
+            resync.path = "";
+            resync.folder = true;
+            events.clear();
+            events.add(resync);
+        }
+    }
+
+    private void flush(UUID projectId) {
+        List<FileEvent> events;
+        synchronized (pending) {
+            events = pending.remove(projectId);
+        }
+        Set<Subscriber> targets = subscribers.get(projectId);
+        if (events == null || events.isEmpty() || targets == null) {
+            return;
+        }
+        FileEventBatch batch = new FileEventBatch();
+        batch.projectId = projectId;
+        batch.events = events;
+        String text;
+        try {
+            text = objectMapper.writeValueAsString(batch);
+        } catch (JsonProcessingException e) {
+            logger.error("FileChangeNotifier: could not serialize the events of project " + projectId + ": " + e.getMessage());
+            return;
+        }
+        for (Subscriber subscriber : targets) {
+            try {
+                subscriber.send(text);
+            } catch (RuntimeException e) {
+                logger.debug("FileChangeNotifier: dropping a subscriber of project " + projectId + ": " + e.getMessage());
+                unsubscribe(projectId, subscriber);
+            }
+        }
+    }
+
+    private record Located(UUID projectId, String relative) {}
+
+    // storage root / project id / relative path
+    private Optional<Located> locate(Path path) {
+        Path normalized = path.toAbsolutePath().normalize();
+        return projectStorage.rootContaining(normalized).flatMap(root -> {
+            Path inRoot = root.relativize(normalized);
+            try {
+                UUID projectId = UUID.fromString(inRoot.getName(0).toString());
+                String relative = inRoot.getNameCount() > 1 ? inRoot.subpath(1, inRoot.getNameCount()).toString() : "";
+                return Optional.of(new Located(projectId, relative));
+            } catch (IllegalArgumentException e) {
+                return Optional.empty();
+            }
+        });
+    }
+}
@@ -1,25 +1,83 @@
 package fr.epita.assistants.ping.service;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
 import fr.epita.assistants.ping.dto.FSEntryResponse;
+import fr.epita.assistants.ping.dto.ProjectDTOs.BlockChecksum;
+import fr.epita.assistants.ping.dto.ProjectDTOs.FileSignature;
+import fr.epita.assistants.ping.dto.ProjectDTOs.PatchOp;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 
 @ApplicationScoped
 public class FileSystemService {
 
+    @Inject
+    BlobStore blobStore;
+
+    @Inject
+    QuotaService quotaService;
+
+    @Inject
+    CompressedStorage compressedStorage;
+
+    @Inject
+    PathLocks pathLocks;
+
+    @Inject
+    FileChangeNotifier fileChangeNotifier;
+
+    @Inject
+    ProjectStatsService projectStats;
+
+    // fsync of each written file before it is renamed in place, and of its folder after
+    @ConfigProperty(name = "FILE_WRITE_FSYNC", defaultValue = "true")
+    boolean fsync;
+
+    public static final int MIN_BLOCK_SIZE = 256;
+    public static final int MAX_BLOCK_SIZE = 1 << 20;
+
+    // the file changed since the client took its signature, the patch doesn't apply anymore
+    public static class BaseChangedException extends RuntimeException {
+        public BaseChangedException(String message) {
+            super(message);
+        }
+    }
+
+    private interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
     public Path resolveSafePath(UUID projectId, String relativePath, String projectPath) throws IOException {
         Path base = Paths.get(projectPath).normalize();
         
@@ -72,7 +130,208 @@ public class FileSystemService {
             throw new IOException("Path is a directory, not a file");
         }
         
-        return Files.readAllBytes(file);
+        return compressedStorage.readAllBytes(file);
+    }
+
+    // the file as stored, gzipped or not (see isCompressed), opened now so the caller can stream it later
+    public InputStream openStored(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            throw new NoSuchFileException("File not found");
+        }
+        if (Files.isDirectory(file)) {
+            throw new IOException("Path is a directory, not a file");
+        }
+        return Files.newInputStream(file);
+    }
+
+    // the file content, decompressed on the fly when it is stored compressed
+    public InputStream openFile(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            throw new NoSuchFileException("File not found");
+        }
+        if (Files.isDirectory(file)) {
+            throw new IOException("Path is a directory, not a file");
+        }
+        return compressedStorage.open(file);
+    }
+
+    public boolean isCompressed(Path file) {
+        return compressedStorage.isCompressed(file);
+    }
+
+    // weak validator of the file: inode, size and mtime, every write through this service renames a new file
+    // in so it always changes, the encoding doesn't (the gzip and raw variants share it, hence weak)
+    public String etagOf(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        String inode = String.valueOf(attrs.fileKey());
+        return Integer.toHexString(inode.hashCode()) + "-" + Long.toHexString(attrs.size())
+            + "-" + Long.toHexString(attrs.lastModifiedTime().toMillis());
+    }
+
+    // delta sync (rsync style): the client takes the signature of the file, finds the blocks it still has in its
+    // new content with the weak checksum (rolling, see weakChecksum) confirmed by the strong one, and sends
+    // back only copy ops for those and data ops for the rest (applyDelta)
+    // blockSize 0 picks one from the size, about its square root so the signature and the literals stay small
+    public FileSignature signature(Path file, int blockSize) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            throw new NoSuchFileException("File not found");
+        }
+        FileSignature signature = new FileSignature();
+        signature.etag = etagOf(file);
+        signature.blocks = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(compressedStorage.open(file), 65536)) {
+            long size = compressedStorage.isCompressed(file) ? -1 : Files.size(file);
+            signature.blockSize = blockSize > 0 ? checkBlockSize(blockSize) : defaultBlockSize(size);
+            MessageDigest sha256 = sha256();
+            byte[] block = new byte[signature.blockSize];
+            int n;
+            while ((n = in.readNBytes(block, 0, block.length)) > 0) {
+                BlockChecksum checksum = new BlockChecksum();
+                checksum.weak = weakChecksum(block, 0, n);
+                sha256.update(block, 0, n);
+                checksum.strong = HexFormat.of().formatHex(sha256.digest());
+                signature.blocks.add(checksum);
+                signature.size += n;
+            }
+        }
+        return signature;
+    }
+
+    // rebuilds the file from ops against the blocks of the content that had baseEtag, in a temp file renamed
+    // over it, BaseChangedException if the file was written since
+    public void applyDelta(Path file, String baseEtag, int blockSize, List<PatchOp> ops) throws IOException {
+        try (PathLocks.Held held = pathLocks.lock(file)) {
+            if (!Files.isRegularFile(file)) {
+                throw new NoSuchFileException("File not found");
+            }
+            checkBlockSize(blockSize);
+            long oldSize = quotaService.sizeOf(file);
+            try (FileChannel base = openBase(file, baseEtag)) {
+                long baseSize = base.size();
+                long blocks = (baseSize + blockSize - 1) / blockSize;
+                List<byte[]> literals = new ArrayList<>();
+                long newSize = 0;
+                for (PatchOp op : ops) {
+                    if (op == null || op.op == null) {
+                        throw new IllegalArgumentException("Patch op without a type");
+                    }
+                    switch (op.op) {
+                        case "copy" -> {
+                            int count = op.count == null ? 1 : op.count;
+                            if (op.block == null || op.block < 0 || count < 1 || op.block + (long) count > blocks) {
+                                throw new IllegalArgumentException("Copy op out of the " + blocks + " blocks of the file");
+                            }
+                            newSize += Math.min(baseSize, (op.block + (long) count) * blockSize) - (long) op.block * blockSize;
+                        }
+                        case "data" -> {
+                            byte[] data = Base64.getDecoder().decode(op.data == null ? "" : op.data);
+                            literals.add(data);
+                            newSize += data.length;
+                        }
+                        default -> throw new IllegalArgumentException("Unknown patch op: " + op.op);
+                    }
+                }
+                try (QuotaService.Reservation room = quotaService.reserve(file, newSize - Math.max(0, oldSize), 0)) {
+                    ContentWriter content = out -> {
+                        WritableByteChannel target = Channels.newChannel(out);
+                        Iterator<byte[]> literal = literals.iterator();
+                        for (PatchOp op : ops) {
+                            if (op.op.equals("data")) {
+                                out.write(literal.next());
+                                continue;
+                            }
+                            long position = (long) op.block * blockSize;
+                            long end = Math.min(baseSize, (op.block + (long) (op.count == null ? 1 : op.count)) * blockSize);
+                            while (position < end) {
+                                long n = base.transferTo(position, end - position, target);
+                                if (n <= 0) {
+                                    throw new IOException("Base file truncated while patching");
+                                }
+                                position += n;
+                            }
+                        }
+                    };
+                    if (blobStore.isEnabled() && blobStore.storeFor(file).isPresent()) {
+                        Path tmp = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".delta");
+                        try {
+                            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW), 65536)) {
+                                content.writeTo(out);
+                            }
+                            try (InputStream in = Files.newInputStream(tmp)) {
+                                blobStore.store(file, in);
+                            }
+                        } finally {
+                            Files.deleteIfExists(tmp);
+                        }
+                    } else {
+                        replace(file, content, oldSize);
+                    }
+                    room.written(file, oldSize);
+                }
+            }
+            changed(file, oldSize);
+        }
+    }
+
+    // the content the patch refers to, checked against baseEtag once opened so a write in between is seen
+    // a compressed file is inflated to a temp file first, the copy ops need to seek
+    private FileChannel openBase(Path file, String baseEtag) throws IOException {
+        if (!compressedStorage.isCompressed(file)) {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            if (!etagOf(file).equals(baseEtag)) {
+                channel.close();
+                throw new BaseChangedException("File changed since its signature was taken");
+            }
+            return channel;
+        }
+        Path tmp = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".base");
+        try (InputStream in = compressedStorage.open(file)) {
+            if (!etagOf(file).equals(baseEtag)) {
+                throw new BaseChangedException("File changed since its signature was taken");
+            }
+            Files.copy(in, tmp);
+            return FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    // rsync's weak checksum on unsigned bytes: a = sum of the bytes, b = sum of (length - i) * byte[i],
+    // both mod 2^16, as a | b << 16
+    // rolling it one byte on: a += in - out, b += a - length * out
+    public static int weakChecksum(byte[] bytes, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int value = bytes[offset + i] & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+        return (a & 0xffff) | (b & 0xffff) << 16;
+    }
+
+    private static int defaultBlockSize(long size) {
+        if (size < 0) {
+            return 4096; // compressed, the size isn't known before reading it
+        }
+        long root = (long) Math.sqrt(size);
+        return (int) Math.max(1024, Math.min(128 * 1024, (root + 1023) / 1024 * 1024));
+    }
+
+    private static int checkBlockSize(int blockSize) {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE);
+        }
+        return blockSize;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     public String readFile(Path file) throws IOException {
@@ -84,100 +343,223 @@ public class FileSystemService {
             throw new IOException("Path is a directory, not a file");
         }
         
-        return Files.readString(file);
+        return new String(compressedStorage.readAllBytes(file), StandardCharsets.UTF_8);
     }
 
     public void createFile(Path file) throws IOException {
-        if (Files.exists(file)) {
-            throw new FileAlreadyExistsException("File already exists");
-        }
+        try (PathLocks.Held held = pathLocks.lock(file)) {
+            if (Files.exists(file)) {
+                throw new FileAlreadyExistsException("File already exists");
+            }
         
-        Files.createDirectories(file.getParent());
-        Files.createFile(file);
+            try (QuotaService.Reservation room = quotaService.reserve(file, 0, 1)) {
+                Files.createDirectories(file.getParent());
+                Files.createFile(file);
+                room.written(file, -1);
+            }
+            fileChangeNotifier.created(file, false);
+            projectStats.touched(file);
+        }
     }
 
     public void uploadFile(Path file, InputStream inputStream) throws IOException {
-        Files.createDirectories(file.getParent());
-        
-        try (var outputStream = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            inputStream.transferTo(outputStream);
+        uploadFile(file, inputStream, -1);
+    }
+
+    // length is the announced size of the content (Content-Length), -1 if unknown
+    // a known length over the quota is refused before reading anything, otherwise the upload stops
+    // as soon as it goes over and the file is left as it was
+    public void uploadFile(Path file, InputStream inputStream, long length) throws IOException {
+        try (PathLocks.Held held = pathLocks.lock(file)) {
+            long oldSize = quotaService.sizeOf(file);
+            try (QuotaService.Reservation room = quotaService.reserve(file,
+                     length >= 0 ? length - Math.max(0, oldSize) : 0, oldSize < 0 ? 1 : 0)) {
+                InputStream limited = quotaService.limit(room, inputStream, oldSize);
+                Files.createDirectories(file.getParent());
+
+                // dedup mode: the content goes to the blob store and the file becomes a link to it
+                if (blobStore.isEnabled() && blobStore.storeFor(file).isPresent()) {
+                    blobStore.store(file, limited);
+                } else {
+                    replace(file, limited, oldSize);
+                }
+                room.written(file, oldSize);
+            }
+            changed(file, oldSize);
         }
     }
 
     public void writeFile(Path file, String content) throws IOException {
-        Files.createDirectories(file.getParent());
-        Files.writeString(file, content, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (PathLocks.Held held = pathLocks.lock(file)) {
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            long oldSize = quotaService.sizeOf(file);
+            try (QuotaService.Reservation room = quotaService.reserve(file, bytes.length - Math.max(0, oldSize), oldSize < 0 ? 1 : 0)) {
+                Files.createDirectories(file.getParent());
+                if (blobStore.isEnabled() && blobStore.storeFor(file).isPresent()) {
+                    blobStore.store(file, new ByteArrayInputStream(bytes));
+                } else {
+                    replace(file, new ByteArrayInputStream(bytes), oldSize);
+                }
+                room.written(file, oldSize);
+            }
+            changed(file, oldSize);
+        }
     }
 
-    public void deleteFile(Path file) throws IOException {
-        if (!Files.exists(file)) {
-            throw new NoSuchFileException("File not found");
+    // written next to the file then renamed over it: an upload stopped by the quota never truncates it,
+    // a reader sees the old content or the new one, never half of it, and a file hard linked into a snapshot
+    // is replaced, not changed
+    // concurrent writes to the same file are serialized by the PathLocks of the callers, the last one wins
+    // the content may be compressed on the way (CompressedStorage), not in dedup mode where the blob store has it
+    private void replace(Path file, InputStream content, long oldSize) throws IOException {
+        replace(file, content::transferTo, oldSize);
+    }
+
+    private void replace(Path file, ContentWriter content, long oldSize) throws IOException {
+        Path tmp = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".upload");
+        try {
+            try (var outputStream = new BufferedOutputStream(Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW), 65536)) {
+                content.writeTo(outputStream);
+            }
+            if (oldSize >= 0) {
+                // keeps the mode of the replaced file (executable scripts)
+                Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(file));
+            }
+            if (compressedStorage.maybeCompress(tmp, file.getFileName().toString())) {
+                // before the rename, so inflateTree can't miss the file
+                compressedStorage.markTree(file);
+            }
+            if (fsync) {
+                // the content is on disk before the rename makes it visible, a crash leaves the old or the new file
+                force(tmp);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (fsync) {
+                forceDirectory(file.getParent());
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
         }
-        
-        if (Files.isDirectory(file)) {
-            throw new IOException("Path is a directory, use deleteFolder instead");
+    }
+
+    private void changed(Path file, long oldSize) {
+        if (oldSize < 0) {
+            fileChangeNotifier.created(file, false);
+        } else {
+            fileChangeNotifier.written(file);
         }
-        
-        Files.delete(file);
+        projectStats.touched(file);
     }
 
-    public void moveFile(Path src, Path dst) throws IOException {
-        if (!Files.exists(src)) {
-            throw new NoSuchFileException("Source file not found");
+    static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.force(true);
         }
-        
-        if (Files.isDirectory(src)) {
-            throw new IOException("Source is a directory, use moveFolder instead");
+    }
+
+    // persists the rename itself, not possible on every platform (the rename is still atomic without it)
+    static void forceDirectory(Path dir) {
+        try {
+            force(dir);
+        } catch (IOException e) {
+            // directories can't be opened on this platform
         }
+    }
+
+    public void deleteFile(Path file) throws IOException {
+        try (PathLocks.Held held = pathLocks.lock(file)) {
+            if (!Files.exists(file)) {
+                throw new NoSuchFileException("File not found");
+            }
+        
+            if (Files.isDirectory(file)) {
+                throw new IOException("Path is a directory, use deleteFolder instead");
+            }
         
-        if (Files.exists(dst)) {
-            throw new FileAlreadyExistsException("Destination file already exists");
+            long size = quotaService.sizeOf(file);
+            Files.delete(file);
+            quotaService.add(file, -Math.max(0, size), size >= 0 ? -1 : 0);
+            fileChangeNotifier.deleted(file, false);
+            projectStats.touched(file);
         }
+    }
+
+    public void moveFile(Path src, Path dst) throws IOException {
+        try (PathLocks.Held held = pathLocks.lock(src, dst)) {
+            if (!Files.exists(src)) {
+                throw new NoSuchFileException("Source file not found");
+            }
         
-        Files.createDirectories(dst.getParent());
-        Files.move(src, dst);
+            if (Files.isDirectory(src)) {
+                throw new IOException("Source is a directory, use moveFolder instead");
+            }
+        
+            if (Files.exists(dst)) {
+                throw new FileAlreadyExistsException("Destination file already exists");
+            }
+        
+            Files.createDirectories(dst.getParent());
+            Files.move(src, dst);
+            fileChangeNotifier.moved(src, dst, false);
+            projectStats.touched(dst);
+        }
     }
 
     public void createFolder(Path dir) throws IOException {
-        if (Files.exists(dir)) {
-            throw new FileAlreadyExistsException("Folder already exists");
+        try (PathLocks.Held held = pathLocks.lock(dir)) {
+            if (Files.exists(dir)) {
+                throw new FileAlreadyExistsException("Folder already exists");
+            }
+            Files.createDirectories(dir);
+            fileChangeNotifier.created(dir, true);
+            projectStats.touched(dir);
         }
-        Files.createDirectories(dir);
     }
 
     public void deleteFolder(Path dir) throws IOException {
-        if (!Files.exists(dir)) {
-            throw new NoSuchFileException("Folder not found");
-        }
+        try (PathLocks.Held held = pathLocks.lock(dir)) {
+            if (!Files.exists(dir)) {
+                throw new NoSuchFileException("Folder not found");
+            }
         
-        if (!Files.isDirectory(dir)) {
-            throw new IOException("Path is not a directory");
-        }
+            if (!Files.isDirectory(dir)) {
+                throw new IOException("Path is not a directory");
+            }
         
-        try (var walk = Files.walk(dir)) {
-            walk.sorted(Comparator.reverseOrder()).forEach(path -> {
-                try {
-                    Files.delete(path);
-                } catch (IOException ignored) {}
-            });
+            long[] usage = quotaService.measure(dir);
+            try (var walk = Files.walk(dir)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(path -> {
+                    try {
+                        Files.delete(path);
+                    } catch (IOException ignored) {}
+                });
+            }
+            // what couldn't be deleted is counted again by the next reconcile
+            quotaService.add(dir, -usage[0], -usage[1]);
+            fileChangeNotifier.deleted(dir, true);
+            projectStats.touched(dir);
         }
     }
 
     public void moveFolder(Path src, Path dst) throws IOException {
-        if (!Files.exists(src)) {
-            throw new NoSuchFileException("Source folder not found");
-        }
+        try (PathLocks.Held held = pathLocks.lock(src, dst)) {
+            if (!Files.exists(src)) {
+                throw new NoSuchFileException("Source folder not found");
+            }
         
-        if (!Files.isDirectory(src)) {
-            throw new IOException("Source is not a directory");
-        }
+            if (!Files.isDirectory(src)) {
+                throw new IOException("Source is not a directory");
+            }
         
-        if (Files.exists(dst)) {
-            throw new FileAlreadyExistsException("Destination folder already exists");
-        }
+            if (Files.exists(dst)) {
+                throw new FileAlreadyExistsException("Destination folder already exists");
+            }
         
-        Files.createDirectories(dst.getParent());
-        Files.move(src, dst);
+            Files.createDirectories(dst.getParent());
+            Files.move(src, dst);
+            fileChangeNotifier.moved(src, dst, true);
+            projectStats.touched(dst);
+        }
     }
 
     public void deletePath(Path path) throws IOException {
@@ -0,0 +1,265 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.domain.executor.ExecJob;
+import fr.epita.assistants.ping.domain.executor.ProcessSupervisor;
+import fr.epita.assistants.ping.domain.executor.ProjectLanes;
+import fr.epita.assistants.ping.dto.GitMaintenanceReport;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// keeps the git repositories of the projects packed, nothing else ever repacks them: a student repo piles up
+// thousands of loose objects and every git add/status on it gets slower
+// a repo is maintained (git gc, then git commit-graph write) when it has GIT_MAINTENANCE_MIN_LOOSE_OBJECTS loose
+// objects, or GIT_MAINTENANCE_MIN_LOOSE_BYTES of them, or more than GIT_MAINTENANCE_MAX_PACKS packs; a packed repo
+// without a commit-graph only gets the commit-graph
+// one repo at a time with a pause in between, git under nice and the idle io class when the host has them, and in
+// the lane of the project (ProjectLanes) so it never races a git commit of its members
+@ApplicationScoped
+public class GitMaintenanceService {
+
+    private static final long BLOCK = 4096;
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    ProjectStorage projectStorage;
+
+    @Inject
+    ProjectLanes lanes;
+
+    @Inject
+    ProcessSupervisor supervisor;
+
+    @Inject
+    QuotaService quotaService;
+
+    @ConfigProperty(name = "GIT_MAINTENANCE_MIN_LOOSE_OBJECTS", defaultValue = "1000")
+    long minLooseObjects;
+
+    @ConfigProperty(name = "GIT_MAINTENANCE_MIN_LOOSE_BYTES", defaultValue = "33554432")
+    long minLooseBytes;
+
+    @ConfigProperty(name = "GIT_MAINTENANCE_MAX_PACKS", defaultValue = "20")
+    int maxPacks;
+
+    // per run, the worst ones first, the others wait for the next run
+    @ConfigProperty(name = "GIT_MAINTENANCE_MAX_REPOS", defaultValue = "200")
+    int maxRepos;
+
+    @ConfigProperty(name = "GIT_MAINTENANCE_PAUSE_MS", defaultValue = "1000")
+    long pauseMs;
+
+    @ConfigProperty(name = "GIT_MAINTENANCE_TIMEOUT_SECONDS", defaultValue = "600")
+    long timeoutSeconds;
+
+    @ConfigProperty(name = "GIT_MAINTENANCE_LOW_PRIORITY", defaultValue = "true")
+    boolean lowPriority;
+
+    private record Candidate(UUID projectId, Path dir, long looseObjects, long looseBytes, int packs, boolean commitGraph) {}
+
+    // the nice/ionice prefix, found on the first run
+    private volatile List<String> prefix;
+
+    public GitMaintenanceReport maintainAll() throws InterruptedException {
+        long start = System.nanoTime();
+        GitMaintenanceReport report = new GitMaintenanceReport();
+        List<Candidate> candidates = new ArrayList<>();
+        for (Path root : projectStorage.roots()) {
+            scan(root, candidates, report);
+        }
+        candidates.sort(Comparator.comparingLong(Candidate::looseObjects).reversed());
+
+        for (Candidate candidate : candidates.subList(0, Math.min(candidates.size(), Math.max(0, maxRepos)))) {
+            maintain(candidate, report);
+            Thread.sleep(pauseMs);
+        }
+        report.durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("GitMaintenanceService: " + report.summary());
+        return report;
+    }
+
+    private void scan(Path root, List<Candidate> candidates, GitMaintenanceReport report) {
+        try (DirectoryStream<Path> projects = Files.newDirectoryStream(root)) {
+            for (Path dir : projects) {
+                UUID projectId;
+                try {
+                    projectId = UUID.fromString(dir.getFileName().toString());
+                } catch (IllegalArgumentException e) {
+                    continue; // .blobs and the like
+                }
+                if (!Files.isDirectory(dir.resolve(".git").resolve("objects"))) {
+                    continue;
+                }
+                report.scanned++;
+                Candidate candidate = inspect(projectId, dir);
+                if (candidate.looseObjects() >= minLooseObjects || candidate.looseBytes() >= minLooseBytes
+                    || candidate.packs() > maxPacks
+                    || (!candidate.commitGraph() && candidate.looseObjects() + candidate.packs() > 0)) {
+                    candidates.add(candidate);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("GitMaintenanceService: could not list " + root + ": " + e.getMessage());
+        }
+    }
+
+    // loose objects are in objects/<2 hex digits>/
+    private Candidate inspect(UUID projectId, Path dir) {
+        Path objects = dir.resolve(".git").resolve("objects");
+        long looseObjects = 0;
+        long looseBytes = 0;
+        int packs = 0;
+        try (DirectoryStream<Path> fanout = Files.newDirectoryStream(objects, "[0-9a-f][0-9a-f]")) {
+            for (Path bucket : fanout) {
+                try (DirectoryStream<Path> loose = Files.newDirectoryStream(bucket)) {
+                    for (Path object : loose) {
+                        looseObjects++;
+                        looseBytes += Files.size(object);
+                    }
+                }
+            }
+            Path pack = objects.resolve("pack");
+            if (Files.isDirectory(pack)) {
+                try (DirectoryStream<Path> packFiles = Files.newDirectoryStream(pack, "*.pack")) {
+                    for (Path ignored : packFiles) {
+                        packs++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // gone or being written, seen again next run
+            logger.debug("GitMaintenanceService: could not inspect " + dir + ": " + e.getMessage());
+        }
+        boolean commitGraph = Files.exists(objects.resolve("info").resolve("commit-graph"))
+            || Files.isDirectory(objects.resolve("info").resolve("commit-graphs"));
+        return new Candidate(projectId, dir, looseObjects, looseBytes, packs, commitGraph);
+    }
+
+    private void maintain(Candidate candidate, GitMaintenanceReport report) throws InterruptedException {
+        boolean gc = candidate.looseObjects() >= minLooseObjects || candidate.looseBytes() >= minLooseBytes
+            || candidate.packs() > maxPacks;
+        try {
+            projectStorage.enter(candidate.projectId());
+        } catch (ProjectStorage.StorageBusyException e) {
+            report.busy++; // being moved to another root
+            return;
+        }
+        if (!Files.isDirectory(candidate.dir())) {
+            projectStorage.exit(candidate.projectId()); // moved or deleted since the scan
+            return;
+        }
+        try (ProjectLanes.Held lane = lanes.enter(candidate.dir().toFile(), null)) {
+            Path gitDir = candidate.dir().resolve(".git");
+            long before = sizeOf(gitDir);
+            ExecJob job = new ExecJob(candidate.projectId(), "git", "maintenance", 200);
+            job.setTimeout(Duration.ofSeconds(timeoutSeconds));
+            if (gc) {
+                // no auto detach, the lane must cover the whole gc
+                git(job, candidate.dir(), "-c", "gc.autoDetach=false", "-c", "pack.threads=1", "gc", "--quiet");
+            }
+            git(job, candidate.dir(), "commit-graph", "write", "--reachable");
+            long after = sizeOf(gitDir);
+
+            report.maintained++;
+            report.looseObjectsPacked += gc ? candidate.looseObjects() : 0;
+            report.bytesBefore += before;
+            report.bytesAfter += after;
+            report.reclaimedBytes += Math.max(0, before - after);
+            logger.debug("GitMaintenanceService: " + candidate.projectId() + " " + candidate.looseObjects()
+                + " loose objects, " + candidate.packs() + " packs, " + before + " -> " + after + " bytes");
+        } catch (ProcessSupervisor.ProcessBusyException e) {
+            report.busy++; // its members are using it, next run
+        } catch (IOException | RuntimeException e) {
+            report.failed++;
+            logger.warn("GitMaintenanceService: maintenance of project " + candidate.projectId() + " failed: " + e.getMessage());
+        } finally {
+            projectStorage.exit(candidate.projectId());
+            // the .git directory counts in the usage of the project
+            quotaService.markStale(candidate.projectId());
+        }
+    }
+
+    private void git(ExecJob job, Path dir, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(lowPriorityPrefix());
+        command.add("git");
+        command.addAll(List.of(args));
+        int exitCode = supervisor.run(job, command, dir.toFile());
+        if (exitCode != 0) {
+            throw new IOException(String.join(" ", args) + " exited with " + exitCode);
+        }
+    }
+
+    private List<String> lowPriorityPrefix() throws InterruptedException {
+        List<String> found = prefix;
+        if (found != null) {
+            return found;
+        }
+        found = new ArrayList<>();
+        if (lowPriority) {
+            if (works(List.of("nice", "-n", "19", "true"))) {
+                found.addAll(List.of("nice", "-n", "19"));
+            }
+            // the idle class: only gets the disk when nobody else wants it
+            if (works(List.of("ionice", "-c", "3", "true"))) {
+                found.addAll(List.of("ionice", "-c", "3"));
+            }
+            logger.info("GitMaintenanceService: git runs with " + (found.isEmpty() ? "normal priority" : found));
+        }
+        prefix = List.copyOf(found);
+        return prefix;
+    }
+
+    private static boolean works(List<String> command) throws InterruptedException {
+        try {
+            Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            return process.waitFor(5, TimeUnit.SECONDS) && process.exitValue() == 0;
+        } catch (IOException e) {
+            return false; // not installed
+        }
+    }
+
+    // space on disk, in 4KB blocks: a loose object of 100 bytes and its fanout directory take one each
+    private static long sizeOf(Path dir) throws IOException {
+        long[] total = new long[1];
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path sub, BasicFileAttributes attrs) {
+                total[0] += BLOCK;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                total[0] += (attrs.size() + BLOCK - 1) / BLOCK * BLOCK;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE; // removed by git meanwhile
+            }
+        });
+        return total[0];
+    }
+}
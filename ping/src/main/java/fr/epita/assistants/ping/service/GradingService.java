@@ -0,0 +1,355 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.data.model.GradeModel;
+import fr.epita.assistants.ping.domain.executor.ExecJob;
+import fr.epita.assistants.ping.domain.executor.ExecJobRegistry;
+import fr.epita.assistants.ping.domain.executor.FeatureExecutorRegistry;
+import fr.epita.assistants.ping.domain.executor.ProcessSupervisor;
+import fr.epita.assistants.ping.domain.executor.ProjectLanes;
+import fr.epita.assistants.ping.domain.executor.TestResults;
+import fr.epita.assistants.ping.repository.GradeRepository;
+import fr.epita.assistants.ping.repository.ProjectRepository;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// the autograder: copies the project to a throwaway working copy, runs AUTOGRADER_TEST_COMMAND in it,
+// reads the JUnit reports (or the TAP output) and stores a GradeModel
+// batches go to a work stealing pool sized by the cores and the memory a test run needs,
+// each run is also an exec job so its output can be streamed like any other
+// the test command runs student code: it is off unless an admin sets AUTOGRADER_ENABLED, runs with an environment
+// reduced to AUTOGRADER_ENV_KEEP (no credentials, no config of the server), and inside AUTOGRADER_SANDBOX, a command
+// prefix that must give it its own user and filesystem view (bwrap, nsjail, a container...), {dir} in it is the
+// working copy; running without a sandbox takes AUTOGRADER_ALLOW_UNSANDBOXED, for a dev machine only
+@ApplicationScoped
+public class GradingService {
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    GradeRepository gradeRepository;
+
+    @Inject
+    ExecJobRegistry jobRegistry;
+
+    @Inject
+    ProcessSupervisor supervisor;
+
+    @Inject
+    FeatureExecutorRegistry featureExecutors;
+
+    @Inject
+    ProjectStorage projectStorage;
+
+    @Inject
+    ProjectRepository projectRepository;
+
+    @Inject
+    CompressedStorage compressedStorage;
+
+    @Inject
+    ProjectLanes lanes;
+
+    @ConfigProperty(name = "AUTOGRADER_ENABLED", defaultValue = "false")
+    boolean enabled;
+
+    // e.g. bwrap --unshare-all --uid 65534 --die-with-parent --ro-bind /usr /usr ... --bind {dir} {dir} --chdir {dir}
+    @ConfigProperty(name = "AUTOGRADER_SANDBOX")
+    Optional<List<String>> sandbox;
+
+    @ConfigProperty(name = "AUTOGRADER_ALLOW_UNSANDBOXED", defaultValue = "false")
+    boolean allowUnsandboxed;
+
+    // the only variables of the server the tests see, HOME and TMPDIR are the working copy
+    @ConfigProperty(name = "AUTOGRADER_ENV_KEEP", defaultValue = "PATH,LANG,JAVA_HOME")
+    List<String> envKeep;
+
+    // run with sh -c in the working copy
+    @ConfigProperty(name = "AUTOGRADER_TEST_COMMAND", defaultValue = "mvn -B -q test")
+    String testCommand;
+
+    @ConfigProperty(name = "AUTOGRADER_JUNIT_GLOB", defaultValue = "**/TEST-*.xml")
+    String junitGlob;
+
+    @ConfigProperty(name = "AUTOGRADER_WORK_DIR", defaultValue = "/tmp/ping-grading")
+    String workDir;
+
+    // 0 = min(cores, free memory / AUTOGRADER_MEMORY_PER_JOB_MB)
+    @ConfigProperty(name = "AUTOGRADER_PARALLELISM", defaultValue = "0")
+    int configuredParallelism;
+
+    @ConfigProperty(name = "AUTOGRADER_MEMORY_PER_JOB_MB", defaultValue = "1024")
+    long memoryPerJobMb;
+
+    // a queued grade waits this many times for a process slot (interactive exec has priority) before failing
+    @ConfigProperty(name = "AUTOGRADER_BUSY_RETRIES", defaultValue = "5")
+    int busyRetries;
+
+    private ExecutorService pool;
+    private int parallelism;
+
+    public static class GradingDisabledException extends RuntimeException {
+        public GradingDisabledException(String message) {
+            super(message);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long totalMb = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+            .getTotalMemorySize() / (1024 * 1024);
+        long heapMb = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+        int byMemory = (int) Math.max(1, (totalMb - heapMb) / Math.max(1, memoryPerJobMb));
+        parallelism = configuredParallelism > 0 ? configuredParallelism : Math.max(1, Math.min(cores, byMemory));
+        // a test run blocks its worker on the child process, so parallelism is exactly the number of runs at once
+        pool = Executors.newWorkStealingPool(parallelism);
+        logger.info("GradingService: " + parallelism + " test runs at once (" + cores + " cores, "
+            + totalMb + "MB memory, " + memoryPerJobMb + "MB per run)");
+        if (enabled && sandbox.isEmpty()) {
+            if (allowUnsandboxed) {
+                logger.warn("GradingService: tests run WITHOUT a sandbox, as the server user, they can read its files");
+            } else {
+                logger.error("GradingService: AUTOGRADER_ENABLED without AUTOGRADER_SANDBOX, grading is refused");
+            }
+        }
+    }
+
+    // throws GradingDisabledException when grading can't run on this server
+    public void checkEnabled() {
+        if (!enabled) {
+            throw new GradingDisabledException("The autograder is disabled on this server");
+        }
+        if (sandbox.isEmpty() && !allowUnsandboxed) {
+            throw new GradingDisabledException("The autograder has no sandbox configured");
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // queues a grading of the project, the grade and its exec job are returned right away
+    public GradeModel submit(UUID projectId, Path projectRoot, UUID requestedBy) {
+        checkEnabled();
+        ExecJob job = jobRegistry.create(projectId, "test", "run");
+        job.setStartedBy(requestedBy);
+        job.setTimeout(featureExecutors.timeoutOf("test"));
+        GradeModel grade = gradeRepository.createGrade(projectId, requestedBy, job.getId());
+
+        pool.execute(() -> {
+            try {
+                jobRegistry.run(job, () -> grade(grade.id, job, projectRoot, true, busyRetries));
+            } catch (RuntimeException e) {
+                logger.warn("GradingService: grade " + grade.id + " of project " + projectId + " failed: " + e.getMessage());
+            }
+        });
+        return grade;
+    }
+
+    // grades on the calling thread, for the "test" exec feature
+    public GradeModel gradeNow(ExecJob job, Path projectRoot) {
+        checkEnabled();
+        GradeModel grade = gradeRepository.createGrade(job.getProjectId(), job.getStartedBy(), job.getId());
+        grade(grade.id, job, projectRoot, false, 0);
+        return grade;
+    }
+
+    public int queuedRuns() {
+        return pool instanceof ForkJoinPool forkJoinPool ? (int) forkJoinPool.getQueuedSubmissionCount() : 0;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // the grade always ends DONE or ERROR, errors are rethrown so the exec job fails too
+    // queued grades take a slot of the "test" feature and the storage gate themselves (the request that queued
+    // them is long gone), gradeNow runs inside an exec request that already holds both
+    private void grade(UUID gradeId, ExecJob job, Path projectRoot, boolean queued, int retries) {
+        gradeRepository.markRunning(gradeId);
+        TestResults results;
+        try {
+            results = queued ? runQueued(job, projectRoot, retries) : runTests(job, projectRoot, false, retries);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            gradeRepository.saveResult(gradeId, 0, 0, 0, null, "Interrupted");
+            throw new ProcessSupervisor.ProcessCancelledException("Interrupted");
+        } catch (IOException e) {
+            gradeRepository.saveResult(gradeId, 0, 0, 0, null, e.getMessage());
+            throw new RuntimeException("Grading failed: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            gradeRepository.saveResult(gradeId, 0, 0, 0, null, e.getMessage());
+            throw e;
+        }
+
+        // failing tests are a normal result, only a run without any report is an error
+        if (results == null) {
+            String message = "No test results found (exit code " + job.getExitCode() + ")";
+            gradeRepository.saveResult(gradeId, 0, 0, 0, null, message);
+            throw new IllegalStateException(message);
+        }
+        gradeRepository.saveResult(gradeId, results.passed(), results.failed(), results.skipped(), results.score(), null);
+    }
+
+    // a queued grade is a "test" run like the exec feature and waits for one of its FEATURE_TEST_MAX_CONCURRENCY
+    // slots (gradeNow already holds one, taken by the exec request), a full feature is retried like a busy process
+    private TestResults runQueued(ExecJob job, Path projectRoot, int retries) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            FeatureExecutorRegistry.Held limits;
+            try {
+                limits = featureExecutors.enter("test", projectRoot.toFile(), null, job);
+            } catch (ProcessSupervisor.ProcessBusyException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                Thread.sleep(1000L << attempt);
+                continue;
+            }
+            try (limits) {
+                return runTests(job, projectRoot, true, retries);
+            }
+        }
+    }
+
+    private TestResults runTests(ExecJob job, Path projectRoot, boolean takeGate, int retries) throws IOException, InterruptedException {
+        Path root = Paths.get(workDir);
+        Files.createDirectories(root);
+        Path copy = Files.createTempDirectory(root, "grade-");
+        // only the lines printed from now on, not what an earlier command of the job printed
+        TestResults.TapCounter tap = new TestResults.TapCounter();
+        job.subscribe(Long.MAX_VALUE, tap);
+        try {
+            if (takeGate) {
+                // only for the copy, the tests themselves run on the copy and can outlast a move
+                projectStorage.enter(job.getProjectId());
+                try {
+                    // the project may have moved to another disk while the grade was queued
+                    Path current = projectRepository.findProjectById(job.getProjectId())
+                        .map(project -> Paths.get(project.path))
+                        .orElse(projectRoot);
+                    // the tests read the copy, it must hold the files raw
+                    compressedStorage.inflateTree(current);
+                    copyInLane(job, current, copy);
+                } finally {
+                    projectStorage.exit(job.getProjectId());
+                }
+            } else {
+                copyInLane(job, projectRoot, copy);
+            }
+            long since = System.currentTimeMillis();
+
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    supervisor.run(job, sandboxed(copy, List.of("sh", "-c", testCommand)), copy.toFile(),
+                        job.getTimeout() != null ? job.getTimeout() : supervisor.defaultTimeout(), environmentFor(copy));
+                    break;
+                } catch (ProcessSupervisor.ProcessBusyException e) {
+                    if (attempt >= retries) {
+                        throw e;
+                    }
+                    Thread.sleep(1000L << attempt);
+                }
+            }
+
+            TestResults results = TestResults.fromJUnit(copy, junitGlob, since);
+            return results != null ? results : tap.results();
+        } finally {
+            job.unsubscribe(tap);
+            deleteTree(copy);
+        }
+    }
+
+    // in the lane of the project, a git checkout or reset of a member can't change the tree halfway through the copy
+    private void copyInLane(ExecJob job, Path projectRoot, Path copy) throws IOException {
+        try (ProjectLanes.Held lane = lanes.enter(projectRoot.toFile(), job)) {
+            copyTree(projectRoot, copy);
+        }
+    }
+
+    List<String> sandboxed(Path copy, List<String> command) {
+        List<String> full = new ArrayList<>();
+        for (String arg : sandbox.orElse(List.of())) {
+            full.add(arg.replace("{dir}", copy.toString()));
+        }
+        full.addAll(command);
+        return full;
+    }
+
+    Map<String, String> environmentFor(Path copy) {
+        Map<String, String> environment = new HashMap<>();
+        for (String name : envKeep) {
+            String value = System.getenv(name.trim());
+            if (value != null) {
+                environment.put(name.trim(), value);
+            }
+        }
+        environment.put("HOME", copy.toString());
+        environment.put("TMPDIR", copy.toString());
+        return environment;
+    }
+
+    // the tests only ever see this copy, whatever they write or delete the project stays as it was
+    // .git is left out, symlinks are copied as links
+    private static void copyTree(Path from, Path to) throws IOException {
+        Files.walkFileTree(from, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(from) && dir.getFileName().toString().equals(".git")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Files.createDirectories(to.resolve(from.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, to.resolve(from.relativize(file)),
+                    StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void deleteTree(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("GradingService: could not delete " + path + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("GradingService: could not clean " + dir + ": " + e.getMessage());
+        }
+    }
+}
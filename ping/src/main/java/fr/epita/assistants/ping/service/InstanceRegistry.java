@@ -0,0 +1,66 @@
+package fr.epita.assistants.ping.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.repository.InstanceRepository;
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+// the ping instances sharing the database: each one writes its row of the instances table at startup and every
+// INSTANCE_HEARTBEAT_INTERVAL, and removes it when it stops; one not seen for 3 intervals is taken as gone
+// (killed, or cut from the database), its row is dropped after 10
+@ApplicationScoped
+public class InstanceRegistry {
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    InstanceRepository instanceRepository;
+
+    @ConfigProperty(name = "INSTANCE_HEARTBEAT_INTERVAL", defaultValue = "10s")
+    Duration interval;
+
+    private final String id = UUID.randomUUID().toString().substring(0, 8);
+    private final Instant startedAt = Instant.now();
+
+    public String id() {
+        return id;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        heartbeat();
+        logger.info("InstanceRegistry: instance " + id + " registered");
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        try {
+            instanceRepository.remove(id);
+        } catch (RuntimeException e) {
+            logger.warn("InstanceRegistry: could not unregister instance " + id + ": " + e.getMessage());
+        }
+    }
+
+    @Scheduled(every = "${INSTANCE_HEARTBEAT_INTERVAL:10s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void heartbeat() {
+        try {
+            instanceRepository.heartbeat(id, startedAt, Instant.now().minus(interval.multipliedBy(10)));
+        } catch (RuntimeException e) {
+            logger.warn("InstanceRegistry: heartbeat failed: " + e.getMessage());
+        }
+    }
+
+    // the other instances alive right now
+    public long otherInstances() {
+        return instanceRepository.countOthers(id, Instant.now().minus(interval.multipliedBy(3)));
+    }
+}
@@ -0,0 +1,180 @@
+package fr.epita.assistants.ping.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.postgresql.Driver;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+
+// keeps the second-level caches of several ping instances in sync, each one only sees its own writes:
+// the repositories call publish inside their transaction (pg_notify, so it is only sent if it commits) and
+// every instance LISTENs on CACHE_INVALIDATION_CHANNEL on a connection of its own and evicts the entries
+// messages are "<node>:<kind>:<id>", kinds u (user), U (all users), p (project), m (members of a project),
+// q and Q (the usage of a project was saved, or replaced by a walk: QuotaService reloads it),
+// an instance skips its own, hibernate already updated its cache
+// after the listen connection was lost some messages may be missed, everything is evicted once reconnected
+// the listen connection is opened outside of the pool: it is held forever, and a broken one with its LISTEN must
+// not be handed to a request
+@ApplicationScoped
+public class InvalidationBus {
+
+    public static final String USER = "u";
+    public static final String ALL_USERS = "U";
+    public static final String PROJECT = "p";
+    public static final String MEMBERS = "m";
+    public static final String USAGE = "q";
+    public static final String USAGE_RECONCILED = "Q";
+
+    @Inject
+    CacheService cacheService;
+
+    @Inject
+    QuotaService quotaService;
+
+    @Inject
+    EntityManager entityManager;
+
+    @ConfigProperty(name = "quarkus.datasource.jdbc.url")
+    String jdbcUrl;
+
+    @ConfigProperty(name = "quarkus.datasource.username")
+    Optional<String> username;
+
+    @ConfigProperty(name = "quarkus.datasource.password")
+    Optional<String> password;
+
+    @Inject
+    Logger logger;
+
+    @ConfigProperty(name = "CACHE_INVALIDATION_ENABLED", defaultValue = "true")
+    boolean enabled;
+
+    // a postgres identifier, inlined in LISTEN
+    @ConfigProperty(name = "CACHE_INVALIDATION_CHANNEL", defaultValue = "ping_cache")
+    String channel;
+
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private volatile boolean running;
+    private Thread listener;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (!channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalStateException("CACHE_INVALIDATION_CHANNEL must be a lowercase identifier: " + channel);
+        }
+        running = true;
+        listener = Thread.ofPlatform().name("cache-invalidation").daemon().start(this::listen);
+        logger.info("InvalidationBus: node " + nodeId + " listening on " + channel);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    // must run in the transaction of the write
+    public void publish(String kind, UUID id) {
+        if (!enabled) {
+            return;
+        }
+        // pg_notify returns void, which hibernate has no type for
+        entityManager.createNativeQuery("select 1 from (select pg_notify(:channel, :payload)) notified")
+            .setParameter("channel", channel)
+            .setParameter("payload", nodeId + ":" + kind + ":" + (id == null ? "" : id))
+            .getSingleResult();
+    }
+
+    private void listen() {
+        long backoff = 500;
+        boolean reconnected = false;
+        while (running) {
+            try (Connection connection = openListenConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                PGConnection pg = connection.unwrap(PGConnection.class);
+                if (reconnected) {
+                    logger.info("InvalidationBus: evicting all cached entities after a reconnect");
+                    cacheService.evictAll();
+                }
+                backoff = 500;
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(10_000);
+                    if (notifications == null || notifications.length == 0) {
+                        // the driver only notices a dead connection when it uses it
+                        try (Statement statement = connection.createStatement()) {
+                            statement.execute("select 1");
+                        }
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        apply(notification.getParameter());
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("InvalidationBus: listen connection lost (" + e.getMessage() + "), retrying in " + backoff + "ms");
+                reconnected = true;
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, 30_000);
+            }
+        }
+    }
+
+    private Connection openListenConnection() throws SQLException {
+        Properties properties = new Properties();
+        username.ifPresent(user -> properties.setProperty("user", user));
+        password.ifPresent(secret -> properties.setProperty("password", secret));
+        properties.setProperty("ApplicationName", "ping-cache-invalidation");
+        Connection connection = new Driver().connect(jdbcUrl, properties);
+        if (connection == null) {
+            throw new SQLException("Not a postgres url: " + jdbcUrl);
+        }
+        return connection;
+    }
+
+    private void apply(String payload) {
+        String[] parts = payload.split(":", 3);
+        if (parts.length < 3 || parts[0].equals(nodeId)) {
+            return;
+        }
+        try {
+            switch (parts[1]) {
+                case USER -> cacheService.evictUser(UUID.fromString(parts[2]));
+                case ALL_USERS -> cacheService.evictAllUsers();
+                case PROJECT -> cacheService.evictProject(UUID.fromString(parts[2]));
+                case MEMBERS -> cacheService.evictProjectMembers(UUID.fromString(parts[2]));
+                case USAGE -> quotaService.savedElsewhere(UUID.fromString(parts[2]), false);
+                case USAGE_RECONCILED -> quotaService.savedElsewhere(UUID.fromString(parts[2]), true);
+                default -> logger.warn("InvalidationBus: unknown message " + payload);
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warn("InvalidationBus: bad message " + payload);
+        }
+    }
+}
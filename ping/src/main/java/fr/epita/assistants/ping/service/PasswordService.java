@@ -0,0 +1,256 @@
+package fr.epita.assistants.ping.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.elytron.security.common.BcryptUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// bcrypt hashing of the user passwords
+// all the bcrypt work runs on a small bounded pool so a login storm at exam start can only use these threads,
+// when the pool and its queue are full callers get a PasswordBusyException (-> 503) instead of piling up
+// the queue is kept smaller than the pool: a caller waits at most about two hashes, a burst beyond that is
+// turned away at once instead of parking http workers in the queue
+@ApplicationScoped
+public class PasswordService {
+
+    // modular crypt format: $2a$<2 digit cost>$<22 chars of salt + 31 chars of hash>
+    private static final Pattern BCRYPT = Pattern.compile("\\$2[aby]\\$(\\d{2})\\$[./A-Za-z0-9]{53}");
+
+    @Inject
+    Logger logger;
+
+    @ConfigProperty(name = "PASSWORD_HASH_COST", defaultValue = "10")
+    int cost;
+
+    @ConfigProperty(name = "PASSWORD_HASH_POOL_SIZE", defaultValue = "4")
+    int poolSize;
+
+    // capped to PASSWORD_HASH_POOL_SIZE - 1
+    @ConfigProperty(name = "PASSWORD_HASH_QUEUE_SIZE", defaultValue = "2")
+    int queueSize;
+
+    @ConfigProperty(name = "PASSWORD_HASH_TIMEOUT_MS", defaultValue = "1000")
+    long timeoutMs;
+
+    @ConfigProperty(name = "PASSWORD_VERIFY_CACHE_SIZE", defaultValue = "10000")
+    int verifyCacheSize;
+
+    @ConfigProperty(name = "PASSWORD_VERIFY_CACHE_TTL_SECONDS", defaultValue = "300")
+    long verifyCacheTtlSeconds;
+
+    private ThreadPoolExecutor pool;
+
+    // login -> proof of the last successful check, lets a user that logs in again skip bcrypt
+    // the proof is an hmac with a key that never leaves this process, the plain password is never kept
+    private Map<String, VerifiedEntry> verifyCache;
+    private byte[] verifyKey;
+
+    private record VerifiedEntry(String storedHash, byte[] proof, long expiresAt) {}
+
+    public static class PasswordBusyException extends RuntimeException {
+        public PasswordBusyException(String message) {
+            super(message);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        queueSize = Math.max(0, Math.min(queueSize, poolSize - 1));
+        BlockingQueue<Runnable> queue = queueSize == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueSize);
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+            queue,
+            runnable -> {
+                Thread thread = new Thread(runnable, "password-hash-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+
+        verifyCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VerifiedEntry> eldest) {
+                return size() > verifyCacheSize;
+            }
+        };
+        verifyKey = new byte[32];
+        new SecureRandom().nextBytes(verifyKey);
+        logger.info("PasswordService: bcrypt cost " + cost + ", pool size " + poolSize + ", queue size " + queueSize);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public String hash(String plain) {
+        return runOnPool(() -> BcryptUtil.bcryptHash(plain, cost));
+    }
+
+    // hashes a whole import: when the pool is full it waits for its own oldest hash instead of failing, so an
+    // import only ever takes the room the logins leave
+    public List<String> hashAll(List<String> plains) {
+        List<String> hashes = new ArrayList<>(plains.size());
+        Deque<Future<String>> inFlight = new ArrayDeque<>();
+        for (String plain : plains) {
+            while (true) {
+                try {
+                    inFlight.add(pool.submit(() -> BcryptUtil.bcryptHash(plain, cost)));
+                    break;
+                } catch (RejectedExecutionException e) {
+                    if (inFlight.isEmpty()) {
+                        pause(); // all taken by logins
+                    } else {
+                        hashes.add(await(inFlight.poll()));
+                    }
+                }
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            hashes.add(await(inFlight.poll()));
+        }
+        return hashes;
+    }
+
+    // true if the password matches, works with bcrypt hashes and with legacy plaintext rows
+    public boolean verify(String login, String plain, String stored) {
+        if (plain == null || stored == null) {
+            return false;
+        }
+
+        if (!isHashed(stored)) {
+            // legacy row from before hashing, the caller rehashes it on success
+            return MessageDigest.isEqual(plain.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] proof = proof(login, plain, stored);
+        if (isCachedMatch(login, stored, proof)) {
+            return true;
+        }
+
+        boolean matches = runOnPool(() -> BcryptUtil.matches(plain, stored));
+        if (matches) {
+            synchronized (verifyCache) {
+                verifyCache.put(login, new VerifiedEntry(stored, proof,
+                    System.currentTimeMillis() + verifyCacheTtlSeconds * 1000));
+            }
+        }
+        return matches;
+    }
+
+    // plaintext rows and hashes made with another cost are rehashed after a successful login
+    public boolean needsRehash(String stored) {
+        if (!isHashed(stored)) {
+            return true;
+        }
+        Matcher matcher = BCRYPT.matcher(stored);
+        return !matcher.matches() || Integer.parseInt(matcher.group(1)) != cost;
+    }
+
+    // a full bcrypt hash, a plaintext password that merely starts with $2 is not one
+    public boolean isHashed(String stored) {
+        return stored != null && BCRYPT.matcher(stored).matches();
+    }
+
+    public void forget(String login) {
+        synchronized (verifyCache) {
+            verifyCache.remove(login);
+        }
+    }
+
+    private boolean isCachedMatch(String login, String stored, byte[] proof) {
+        VerifiedEntry entry;
+        synchronized (verifyCache) {
+            entry = verifyCache.get(login);
+        }
+        if (entry == null || !entry.storedHash().equals(stored)) {
+            return false;
+        }
+        if (entry.expiresAt() < System.currentTimeMillis()) {
+            forget(login);
+            return false;
+        }
+        return MessageDigest.isEqual(entry.proof(), proof);
+    }
+
+    private byte[] proof(String login, String plain, String stored) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(verifyKey, "HmacSHA256"));
+            mac.update(login.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(stored.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(plain.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    private <T> T runOnPool(Callable<T> task) {
+        return await(submit(task));
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        try {
+            return pool.submit(task);
+        } catch (RejectedExecutionException e) {
+            logger.warn("PasswordService: hashing pool is full (" + pool.getQueue().size() + " queued)");
+            throw new PasswordBusyException("Password hashing pool is full");
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PasswordBusyException("Interrupted while hashing");
+        }
+    }
+
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            logger.warn("PasswordService: hashing took more than " + timeoutMs + "ms");
+            throw new PasswordBusyException("Password hashing timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PasswordBusyException("Interrupted while hashing");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package fr.epita.assistants.ping.service;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// serializes the FileSystemService mutations that touch the same path or subtree, a fixed table of
+// FILE_LOCK_STRIPES read/write locks indexed by the hash of the normalized path
+// a mutation takes the write lock of each path it changes and the read lock of their ancestors up to the storage
+// root: two writes in the same folder only share read locks and run in parallel, a delete or move of the folder
+// waits for them (and the other way around)
+// the stripes are always taken in index order so two mutations can't deadlock, two unrelated paths falling on
+// the same stripe just wait for each other
+@ApplicationScoped
+public class PathLocks {
+
+    @Inject
+    ProjectStorage projectStorage;
+
+    @ConfigProperty(name = "FILE_LOCK_STRIPES", defaultValue = "256")
+    int stripeCount;
+
+    private ReentrantReadWriteLock[] stripes;
+
+    @PostConstruct
+    void init() {
+        stripes = new ReentrantReadWriteLock[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    // held until closed, the calls must not nest (a read lock can't be upgraded)
+    public interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    public Held lock(Path... targets) {
+        // stripe -> write wanted, a write on a stripe covers a read on it
+        TreeMap<Integer, Boolean> wanted = new TreeMap<>();
+        for (Path target : targets) {
+            Path normalized = target.toAbsolutePath().normalize();
+            wanted.put(stripeOf(normalized), true);
+            Optional<Path> root = projectStorage.rootContaining(normalized);
+            for (Path parent = normalized.getParent(); parent != null && root.isPresent() && parent.startsWith(root.get());
+                 parent = parent.getParent()) {
+                wanted.putIfAbsent(stripeOf(parent), false);
+            }
+        }
+
+        List<Lock> taken = new ArrayList<>(wanted.size());
+        try {
+            wanted.forEach((stripe, write) -> {
+                Lock lock = write ? stripes[stripe].writeLock() : stripes[stripe].readLock();
+                lock.lock();
+                taken.add(lock);
+            });
+        } catch (RuntimeException | Error e) {
+            release(taken);
+            throw e;
+        }
+        return () -> release(taken);
+    }
+
+    private static void release(List<Lock> taken) {
+        for (int i = taken.size() - 1; i >= 0; i--) {
+            taken.get(i).unlock();
+        }
+        taken.clear();
+    }
+
+    private int stripeOf(Path path) {
+        return Math.floorMod(path.hashCode(), stripes.length);
+    }
+}
@@ -0,0 +1,97 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+
+// gzipped copies of the project files that are downloaded again and again (the subject, a shared header...)
+// keyed by path and ETag of the file, so a write (new ETag) makes the old copy unreachable and the LRU drops it
+// a file is only compressed for the cache from its HTTP_PRECOMPRESSED_MIN_HITS-th download on, before that
+// the download is gzipped while sent like any other
+@ApplicationScoped
+public class PrecompressedCache {
+
+    @ConfigProperty(name = "HTTP_PRECOMPRESSED_CACHE_BYTES", defaultValue = "67108864")
+    long maxBytes;
+
+    @ConfigProperty(name = "HTTP_PRECOMPRESSED_MAX_FILE_BYTES", defaultValue = "4194304")
+    long maxFileBytes;
+
+    @ConfigProperty(name = "HTTP_PRECOMPRESSED_MIN_HITS", defaultValue = "2")
+    int minHits;
+
+    private Map<String, byte[]> variants;
+    private Map<String, Integer> hits;
+    private long bytes;
+    private long served;
+    private long compressed;
+
+    @PostConstruct
+    void init() {
+        variants = new LinkedHashMap<>(16, 0.75f, true);
+        // only counts, bounded by entries
+        hits = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > 10_000;
+            }
+        };
+    }
+
+    // the gzipped content of file for this key, null when it isn't (yet) worth caching
+    public byte[] get(String key, Path file) throws IOException {
+        synchronized (this) {
+            byte[] variant = variants.get(key);
+            if (variant != null) {
+                served++;
+                return variant;
+            }
+            int count = hits.merge(key, 1, Integer::sum);
+            if (count < minHits || Files.size(file) > maxFileBytes) {
+                return null;
+            }
+        }
+
+        // compressed outside the lock, two downloads may both do it once
+        byte[] variant = gzip(file);
+        synchronized (this) {
+            if (variants.put(key, variant) == null) {
+                bytes += variant.length;
+            }
+            hits.remove(key);
+            compressed++;
+            evict();
+        }
+        return variant;
+    }
+
+    public synchronized Map<String, Long> stats() {
+        return Map.of("entries", (long) variants.size(), "bytes", bytes, "served", served, "compressed", compressed);
+    }
+
+    private void evict() {
+        var it = variants.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    private static byte[] gzip(Path file) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(Files.size(file) / 3 + 64, Integer.MAX_VALUE));
+        try (InputStream in = Files.newInputStream(file); GZIPOutputStream out = new GZIPOutputStream(buffer, 65536)) {
+            in.transferTo(out);
+        }
+        return buffer.toByteArray();
+    }
+}
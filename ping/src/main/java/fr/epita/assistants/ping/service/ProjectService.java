@@ -10,7 +10,6 @@ import fr.epita.assistants.ping.utils.Logger;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
-import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 @ApplicationScoped
 public class ProjectService {
@@ -21,9 +20,8 @@ public class ProjectService {
     UserService userService;
     @Inject
     Logger logger;
-
-    @ConfigProperty(name = "PROJECT_DEFAULT_PATH", defaultValue = "/tmp/ping")
-    String defaultProjectPath;
+    @Inject
+    ProjectStorage projectStorage;
 
     public ProjectModel getProjectById(UUID id) {
         if (id == null) {
@@ -47,13 +45,11 @@ public class ProjectService {
         }
         
         try {
-            // Use configurable base path - defaulting to /tmp/ping for tests
-            String basePath = defaultProjectPath;
-            logger.info("Service: Using base path: " + basePath + " for project creation");
-
+            // one of the PROJECT_STORAGE_ROOTS (PROJECT_DEFAULT_PATH if there is only that), see ProjectStorage
             logger.info("Service: Creating project '" + name + "' for owner: " + owner.getLogin());
             
-            ProjectModel newproj = projectRepo.saveProject(name.trim(), owner, basePath);
+            ProjectModel newproj = projectRepo.saveProject(name.trim(), owner,
+                id -> projectStorage.rootFor(id).toString());
             
             if (newproj == null) {
                 logger.error("Repository returned null project");
@@ -125,6 +121,18 @@ public class ProjectService {
         return projectRepo.findProjectsByUser(user, false); // false = all accessible projects (owned + member)
     }
 
+    // admin, owner or member of the project, in a transaction of its own for the callers that run outside of one
+    @Transactional
+    public boolean canAccess(UUID projectId, UUID userId) {
+        UserModel user = userService.getUserById(userId);
+        ProjectModel project = getProjectById(projectId);
+        if (user == null || project == null) {
+            return false;
+        }
+        return user.getIsAdmin() || project.owner.getId().equals(user.getId())
+            || project.members.stream().anyMatch(member -> member.getId().equals(user.getId()));
+    }
+
     public List<ProjectModel> getAllProjects() {
         return projectRepo.listAllProjects();
     }
@@ -0,0 +1,93 @@
+package fr.epita.assistants.ping.service;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitCommit;
+import fr.epita.assistants.ping.dto.ProjectDTOs.ProjectSummary;
+import fr.epita.assistants.ping.repository.ProjectStatsRepository;
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+// the summary of each project the dashboard lists (GET /api/projects/stats) in one query, instead of a walk and a
+// git log per project, kept in project_stats as things change:
+// - the member count by ProjectRepository, in the transaction that changes the members
+// - the file count and size are the quota counters, already saved in project_usage
+// - the last modification and the last commit change on every save, FileSystemService and the git executor only
+//   note them here and they are written every PROJECT_STATS_FLUSH_INTERVAL, many saves of a project make one update
+@ApplicationScoped
+public class ProjectStatsService {
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    QuotaService quotaService;
+
+    @Inject
+    ProjectStatsRepository statsRepository;
+
+    @ConfigProperty(name = "PROJECT_STATS_MAX_LIMIT", defaultValue = "5000")
+    int maxLimit;
+
+    // not saved yet, commit is null if HEAD didn't change
+    private record Activity(Instant modifiedAt, GitCommit commit) {
+        Activity then(Activity later) {
+            Instant last = later.modifiedAt().isAfter(modifiedAt) ? later.modifiedAt() : modifiedAt;
+            return new Activity(last, later.commit() != null ? later.commit() : commit);
+        }
+    }
+
+    private final Map<UUID, Activity> pending = new ConcurrentHashMap<>();
+
+    // path (file or folder) of a project was created, written, moved or deleted
+    public void touched(Path path) {
+        quotaService.projectOf(path).ifPresent(projectId -> note(projectId, new Activity(Instant.now(), null)));
+    }
+
+    // head is the new HEAD of the repository at projectRoot
+    public void committed(Path projectRoot, GitCommit head) {
+        quotaService.projectOf(projectRoot).ifPresent(projectId -> note(projectId, new Activity(Instant.now(), head)));
+    }
+
+    private void note(UUID projectId, Activity activity) {
+        pending.merge(projectId, activity, Activity::then);
+    }
+
+    public List<ProjectSummary> summaries(UUID userId, boolean onlyOwned, int limit) {
+        return statsRepository.findSummaries(userId, onlyOwned, Math.max(1, Math.min(limit, maxLimit)));
+    }
+
+    @Scheduled(every = "${PROJECT_STATS_FLUSH_INTERVAL:30s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void flush() {
+        for (UUID projectId : pending.keySet()) {
+            Activity activity = pending.remove(projectId);
+            if (activity == null) {
+                continue;
+            }
+            try {
+                if (!statsRepository.saveActivity(projectId, activity.modifiedAt(), activity.commit())) {
+                    logger.debug("ProjectStatsService: project " + projectId + " is gone, activity dropped");
+                }
+            } catch (RuntimeException e) {
+                // kept for the next flush, merged with what came meanwhile
+                pending.merge(projectId, activity, (newer, saved) -> saved.then(newer));
+                logger.warn("ProjectStatsService: could not save the activity of project " + projectId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        flush();
+    }
+}
@@ -0,0 +1,239 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// the directories projects are stored in (PROJECT_STORAGE_ROOTS, one per disk) and where a new project goes:
+//   hash        consistent hashing of the project id, adding a root only moves ~1/n of the projects to it
+//   least-used  the root with the most free space
+// also the per project gate that lets the rebalancer move a project while it is used:
+// everything touching the files of a project holds the gate, a move closes it only for its last sync
+@ApplicationScoped
+public class ProjectStorage {
+
+    @Inject
+    Logger logger;
+
+    @ConfigProperty(name = "PROJECT_DEFAULT_PATH", defaultValue = "/tmp/ping")
+    String defaultProjectPath;
+
+    // comma separated, PROJECT_DEFAULT_PATH when not set
+    @ConfigProperty(name = "PROJECT_STORAGE_ROOTS")
+    Optional<List<String>> configuredRoots;
+
+    @ConfigProperty(name = "PROJECT_PLACEMENT_POLICY", defaultValue = "hash")
+    String policy;
+
+    // points of each root on the hash ring, more points = more even spread
+    @ConfigProperty(name = "STORAGE_HASH_VNODES", defaultValue = "128")
+    int virtualNodes;
+
+    // how long a request waits for a move to finish, and a move for the running requests to end
+    @ConfigProperty(name = "STORAGE_GATE_TIMEOUT_MS", defaultValue = "30000")
+    long gateTimeoutMs;
+
+    private List<Path> roots;
+    private final TreeMap<Long, Path> ring = new TreeMap<>();
+    private final Map<UUID, Gate> gates = new ConcurrentHashMap<>();
+
+    public static class StorageBusyException extends RuntimeException {
+        public StorageBusyException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Gate {
+        int active;
+        boolean moving;
+    }
+
+    @PostConstruct
+    void init() {
+        List<Path> found = new ArrayList<>();
+        for (String root : configuredRoots.orElse(List.of(defaultProjectPath))) {
+            if (!root.isBlank()) {
+                found.add(Paths.get(root.trim()).toAbsolutePath().normalize());
+            }
+        }
+        roots = List.copyOf(found);
+        for (Path root : roots) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(root + "#" + i), root);
+            }
+        }
+        logger.info("ProjectStorage: " + roots.size() + " storage roots " + roots + ", placement " + policy);
+    }
+
+    public List<Path> roots() {
+        return roots;
+    }
+
+    // root for a new project
+    public Path rootFor(UUID projectId) {
+        return "least-used".equalsIgnoreCase(policy) ? leastUsedRoot() : hashedRoot(projectId);
+    }
+
+    // root the hash ring gives to this project, whatever the policy (used by the rebalancer)
+    public Path hashedRoot(UUID projectId) {
+        Map.Entry<Long, Path> entry = ring.ceilingEntry(hash(projectId.toString()));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public boolean isHashPolicy() {
+        return !"least-used".equalsIgnoreCase(policy);
+    }
+
+    public Path leastUsedRoot() {
+        Path best = roots.get(0);
+        long bestFree = -1;
+        for (Path root : roots) {
+            long free = usableSpace(root);
+            if (free > bestFree) {
+                best = root;
+                bestFree = free;
+            }
+        }
+        return best;
+    }
+
+    // the root file is stored under, empty if it isn't under any
+    public Optional<Path> rootContaining(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        return roots.stream()
+            .filter(root -> normalized.startsWith(root) && !normalized.equals(root))
+            .findFirst();
+    }
+
+    public long usableSpace(Path root) {
+        try {
+            Files.createDirectories(root);
+            return Files.getFileStore(root).getUsableSpace();
+        } catch (IOException e) {
+            logger.warn("ProjectStorage: can't read free space of " + root + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    public long totalSpace(Path root) {
+        try {
+            Files.createDirectories(root);
+            return Files.getFileStore(root).getTotalSpace();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // -- gate
+
+    // before touching the files of the project, waits while it is being moved
+    public void enter(UUID projectId) {
+        Gate gate = gates.computeIfAbsent(projectId, id -> new Gate());
+        synchronized (gate) {
+            long deadline = System.currentTimeMillis() + gateTimeoutMs;
+            while (gate.moving) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    throw new StorageBusyException("Project is being moved to another disk");
+                }
+                try {
+                    gate.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StorageBusyException("Interrupted while waiting for the project");
+                }
+            }
+            gate.active++;
+        }
+    }
+
+    // one more holder for a caller that already is inside (a job that outlives its request), never waits
+    public void enterAgain(UUID projectId) {
+        Gate gate = gates.computeIfAbsent(projectId, id -> new Gate());
+        synchronized (gate) {
+            gate.active++;
+        }
+    }
+
+    public void exit(UUID projectId) {
+        Gate gate = gates.get(projectId);
+        if (gate == null) {
+            return;
+        }
+        synchronized (gate) {
+            gate.active = Math.max(0, gate.active - 1);
+            gate.notifyAll();
+        }
+    }
+
+    // for the rebalancer: stops new users and waits for the current ones, false if they didn't leave in time
+    boolean close(UUID projectId) {
+        Gate gate = gates.computeIfAbsent(projectId, id -> new Gate());
+        synchronized (gate) {
+            if (gate.moving) {
+                return false;
+            }
+            gate.moving = true;
+            long deadline = System.currentTimeMillis() + gateTimeoutMs;
+            while (gate.active > 0) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    gate.moving = false;
+                    gate.notifyAll();
+                    return false;
+                }
+                try {
+                    gate.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    gate.moving = false;
+                    gate.notifyAll();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    void open(UUID projectId) {
+        Gate gate = gates.get(projectId);
+        if (gate == null) {
+            return;
+        }
+        synchronized (gate) {
+            gate.moving = false;
+            gate.notifyAll();
+        }
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (digest[i] & 0xff);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.data.model.ProjectUsageModel;
+import fr.epita.assistants.ping.dto.ProjectDTOs.ProjectUsage;
+import fr.epita.assistants.ping.repository.ProjectRepository;
+import fr.epita.assistants.ping.repository.ProjectUsageRepository;
+import fr.epita.assistants.ping.utils.Logger;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// disk usage (bytes and regular files) of each project, kept as in memory counters that FileSystemService
+// moves on every create/upload/write/delete, so checking a quota never walks the tree
+// every QUOTA_FLUSH_INTERVAL the changes made here since the last flush are added to project_usage, and the counters
+// become the saved totals plus what changed since: several instances writing to the same project each add their
+// own changes instead of overwriting the others', and the others reload the totals on their next flush (InvalidationBus)
+// a walk now and then (QUOTA_RECONCILE_INTERVAL, or soon after an exec that may have changed anything) replaces the
+// saved totals, it corrects the drift of what doesn't go through FileSystemService: git, snapshot restores, the
+// autograder...
+@ApplicationScoped
+public class QuotaService {
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    ProjectStorage projectStorage;
+
+    @Inject
+    ProjectRepository projectRepository;
+
+    @Inject
+    ProjectUsageRepository usageRepository;
+
+    // 0 = no limit
+    @ConfigProperty(name = "PROJECT_QUOTA_BYTES", defaultValue = "0")
+    long quotaBytes;
+
+    @ConfigProperty(name = "PROJECT_QUOTA_FILES", defaultValue = "0")
+    long quotaFiles;
+
+    private final Map<UUID, Usage> usages = new ConcurrentHashMap<>();
+
+    private static class Usage {
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong files = new AtomicLong();
+        // changed here and not added to project_usage yet, guarded by the usage
+        long unsavedBytes;
+        long unsavedFiles;
+        // taken by the writes in progress (Reservation), guarded by the usage
+        long reservedBytes;
+        long reservedFiles;
+        // bumped on every change, a walk only replaces the counters if nothing moved while it ran
+        final AtomicLong version = new AtomicLong();
+        volatile boolean dirty;
+        volatile boolean stale;
+        // saved by another instance, the totals are read again on the next flush
+        volatile boolean reload;
+    }
+
+    public static class QuotaExceededException extends RuntimeException {
+        public QuotaExceededException(String message) {
+            super(message);
+        }
+    }
+
+    // the project a file (or the project directory itself) belongs to: storage root / project id / ...
+    public Optional<UUID> projectOf(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        return projectStorage.rootContaining(normalized).flatMap(root -> {
+            try {
+                return Optional.of(UUID.fromString(root.relativize(normalized).getName(0).toString()));
+            } catch (IllegalArgumentException e) {
+                return Optional.empty(); // .blobs, .snapshots...
+            }
+        });
+    }
+
+    // size of the regular file, -1 if there is none
+    public long sizeOf(Path file) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return attrs.isRegularFile() ? attrs.size() : -1;
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    // room taken for a write of file before it starts, so two writes to the same project can't both fit in what
+    // is left and go over together: counted with the usage by the quota checks until the write is counted
+    // (written) or given up (close)
+    public class Reservation implements AutoCloseable {
+        private final Usage usage; // null without a quota or outside of a project
+        private long bytes;
+        private long files;
+
+        private Reservation(Usage usage) {
+            this.usage = usage;
+        }
+
+        // takes more room, QuotaExceededException if the project doesn't have it
+        public void grow(long addedBytes, long addedFiles) {
+            if (usage == null) {
+                return;
+            }
+            addedBytes = Math.max(0, addedBytes);
+            addedFiles = Math.max(0, addedFiles);
+            synchronized (usage) {
+                if (quotaBytes > 0 && addedBytes > 0 && usage.bytes.get() + usage.reservedBytes + addedBytes > quotaBytes) {
+                    throw new QuotaExceededException("Project disk quota exceeded (" + quotaBytes + " bytes)");
+                }
+                if (quotaFiles > 0 && addedFiles > 0 && usage.files.get() + usage.reservedFiles + addedFiles > quotaFiles) {
+                    throw new QuotaExceededException("Project file quota exceeded (" + quotaFiles + " files)");
+                }
+                usage.reservedBytes += addedBytes;
+                usage.reservedFiles += addedFiles;
+                bytes += addedBytes;
+                files += addedFiles;
+            }
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        // file was written, oldSize is its size before (-1 if it didn't exist): counts it and gives the room back
+        public void written(Path file, long oldSize) throws IOException {
+            QuotaService.this.written(file, oldSize);
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (usage == null) {
+                return;
+            }
+            synchronized (usage) {
+                usage.reservedBytes -= bytes;
+                usage.reservedFiles -= files;
+                bytes = 0;
+                files = 0;
+            }
+        }
+    }
+
+    // takes the room for adding these bytes and files to the project of file, QuotaExceededException if it
+    // goes over a quota
+    public Reservation reserve(Path file, long addedBytes, long addedFiles) {
+        Optional<UUID> projectId = quotaBytes <= 0 && quotaFiles <= 0 ? Optional.empty() : projectOf(file);
+        Reservation reservation = new Reservation(projectId.map(this::usage).orElse(null));
+        reservation.grow(addedBytes, addedFiles);
+        return reservation;
+    }
+
+    // the content that replaces file (oldSize bytes, -1 if new) takes more room in reservation as it goes over
+    // what it holds, and fails with QuotaExceededException when the project doesn't have it, for uploads without
+    // a Content-Length
+    public InputStream limit(Reservation reservation, InputStream in, long oldSize) {
+        if (reservation.usage == null || quotaBytes <= 0) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            private long count;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    counted(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) {
+                    counted(n);
+                }
+                return n;
+            }
+
+            private void counted(long n) {
+                count += n;
+                long growth = count - Math.max(0, oldSize);
+                if (growth > reservation.bytes()) {
+                    reservation.grow(growth - reservation.bytes(), 0);
+                }
+            }
+        };
+    }
+
+    // after file was written, oldSize is its size before (-1 if it didn't exist)
+    public void written(Path file, long oldSize) throws IOException {
+        long newSize = sizeOf(file);
+        add(file, Math.max(0, newSize) - Math.max(0, oldSize), (newSize >= 0 ? 1 : 0) - (oldSize >= 0 ? 1 : 0));
+    }
+
+    public void add(Path file, long bytes, long files) {
+        if (bytes == 0 && files == 0) {
+            return;
+        }
+        projectOf(file).ifPresent(projectId -> {
+            Usage usage = usage(projectId);
+            synchronized (usage) {
+                usage.bytes.addAndGet(bytes);
+                usage.files.addAndGet(files);
+                usage.unsavedBytes += bytes;
+                usage.unsavedFiles += files;
+                usage.version.incrementAndGet();
+                usage.dirty = true;
+            }
+        });
+    }
+
+    // the files of the project changed behind FileSystemService's back (exec, restore), walk it again soon
+    public void markStale(UUID projectId) {
+        Usage usage = usages.get(projectId);
+        if (usage != null) {
+            usage.stale = true;
+        }
+    }
+
+    // another instance saved the usage of the project, reconciled if a walk replaced it
+    public void savedElsewhere(UUID projectId, boolean reconciled) {
+        Usage usage = usages.get(projectId);
+        if (usage == null) {
+            return;
+        }
+        synchronized (usage) {
+            if (reconciled) {
+                // the walk saw them on the disk, adding them again would count them twice
+                usage.unsavedBytes = 0;
+                usage.unsavedFiles = 0;
+            }
+            usage.reload = true;
+        }
+    }
+
+    public void forget(UUID projectId) {
+        usages.remove(projectId);
+    }
+
+    // {bytes, regular files} under path, for a folder that is about to be deleted
+    public long[] measure(Path path) throws IOException {
+        long[] total = new long[2];
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    total[0] += attrs.size();
+                    total[1]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total;
+    }
+
+    public ProjectUsage usageOf(ProjectModel project) {
+        Usage usage = usage(project.id);
+        ProjectUsage info = new ProjectUsage();
+        info.bytes = usage.bytes.get();
+        info.files = usage.files.get();
+        info.quotaBytes = quotaBytes > 0 ? quotaBytes : null;
+        info.quotaFiles = quotaFiles > 0 ? quotaFiles : null;
+        return info;
+    }
+
+    @Scheduled(every = "${QUOTA_FLUSH_INTERVAL:30s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void flush() {
+        for (Map.Entry<UUID, Usage> entry : usages.entrySet()) {
+            Usage usage = entry.getValue();
+            if (usage.stale) {
+                reconcile(entry.getKey());
+            } else if (usage.dirty || usage.reload) {
+                save(entry.getKey(), usage);
+            }
+        }
+    }
+
+    // every QUOTA_RECONCILE_INTERVAL on one of the instances, see QuotaReconcileJob
+    public int reconcileAll() {
+        int fixed = 0;
+        for (ProjectModel project : projectRepository.listAllProjects()) {
+            if (project.path != null && reconcile(project.id)) {
+                fixed++;
+            }
+        }
+        logger.info("QuotaService: reconciled usage, " + fixed + " projects had drifted");
+        return fixed;
+    }
+
+    // walks the project and replaces its counters, true if they were off
+    private boolean reconcile(UUID projectId) {
+        Optional<ProjectModel> project = projectRepository.findProjectById(projectId);
+        if (project.isEmpty() || project.get().path == null) {
+            forget(projectId);
+            return false;
+        }
+        Usage usage = usage(projectId);
+        long version = usage.version.get();
+        long[] scanned;
+        try {
+            scanned = Files.isDirectory(Paths.get(project.get().path)) ? measure(Paths.get(project.get().path)) : new long[2];
+        } catch (IOException e) {
+            logger.warn("QuotaService: could not walk project " + projectId + ": " + e.getMessage());
+            return false;
+        }
+        boolean drifted;
+        synchronized (usage) {
+            if (usage.version.get() != version) {
+                return false; // written during the walk, left stale for the next round
+            }
+            drifted = usage.bytes.get() != scanned[0] || usage.files.get() != scanned[1];
+            usage.bytes.set(scanned[0]);
+            usage.files.set(scanned[1]);
+            // the walk saw them
+            usage.unsavedBytes = 0;
+            usage.unsavedFiles = 0;
+            usage.stale = false;
+            usage.dirty = false;
+        }
+        if (drifted) {
+            logger.debug("QuotaService: project " + projectId + " usage corrected to " + scanned[0] + " bytes, " + scanned[1] + " files");
+        }
+        try {
+            if (!usageRepository.saveUsage(projectId, scanned[0], scanned[1], true)) {
+                forget(projectId);
+            }
+        } catch (RuntimeException e) {
+            usage.stale = true;
+            logger.warn("QuotaService: could not save usage of project " + projectId + ": " + e.getMessage());
+        }
+        return drifted;
+    }
+
+    // adds the unsaved changes to project_usage and takes the totals the other instances contributed to
+    private void save(UUID projectId, Usage usage) {
+        long bytes;
+        long files;
+        synchronized (usage) {
+            bytes = usage.unsavedBytes;
+            files = usage.unsavedFiles;
+            usage.unsavedBytes = 0;
+            usage.unsavedFiles = 0;
+            usage.dirty = false;
+            usage.reload = false;
+        }
+        Optional<long[]> saved;
+        try {
+            // nothing to add when only reloading, and no message for the others to reload in turn
+            saved = bytes == 0 && files == 0
+                ? usageRepository.findUsage(projectId).map(row -> new long[] {row.bytes, row.files})
+                : usageRepository.addUsage(projectId, bytes, files);
+        } catch (RuntimeException e) {
+            synchronized (usage) {
+                usage.unsavedBytes += bytes;
+                usage.unsavedFiles += files;
+                usage.dirty = bytes != 0 || files != 0 || usage.dirty;
+                usage.reload = true;
+            }
+            logger.warn("QuotaService: could not save usage of project " + projectId + ": " + e.getMessage());
+            return;
+        }
+        if (saved.isEmpty()) {
+            forget(projectId);
+            return;
+        }
+        synchronized (usage) {
+            usage.bytes.set(saved.get()[0] + usage.unsavedBytes);
+            usage.files.set(saved.get()[1] + usage.unsavedFiles);
+        }
+    }
+
+    // the counters of the project, from project_usage the first time, or from a walk if it was never saved
+    private Usage usage(UUID projectId) {
+        Usage usage = usages.get(projectId);
+        if (usage != null) {
+            return usage;
+        }
+        Usage loaded = new Usage();
+        Optional<ProjectUsageModel> saved = usageRepository.findUsage(projectId);
+        if (saved.isPresent()) {
+            loaded.bytes.set(saved.get().bytes);
+            loaded.files.set(saved.get().files);
+        } else {
+            loaded.stale = true;
+            projectRepository.findProjectById(projectId)
+                .filter(project -> project.path != null && Files.isDirectory(Paths.get(project.path)))
+                .ifPresent(project -> {
+                    // checked against this walk until the next flush walks it again and saves the totals,
+                    // adding changes to a row that doesn't exist would lose what was there before
+                    try {
+                        long[] scanned = measure(Paths.get(project.path));
+                        loaded.bytes.set(scanned[0]);
+                        loaded.files.set(scanned[1]);
+                    } catch (IOException e) {
+                        logger.warn("QuotaService: could not walk project " + projectId + ": " + e.getMessage());
+                    }
+                });
+        }
+        Usage existing = usages.putIfAbsent(projectId, loaded);
+        return existing != null ? existing : loaded;
+    }
+}
@@ -0,0 +1,129 @@
+package fr.epita.assistants.ping.service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// in memory token buckets, one per (user, class) and one per (project, class)
+// each bucket is a single AtomicLong (the "theoretical arrival time" of GCRA, same behaviour as a token bucket
+// with capacity = burst and refill = rate) so taking a token is one CAS, no lock at all
+@ApplicationScoped
+public class RateLimiter {
+
+    public enum Kind { READ, WRITE, EXEC }
+
+    @Inject
+    Logger logger;
+
+    @ConfigProperty(name = "RATE_LIMIT_ENABLED", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "RATE_LIMIT_READ_PER_SECOND", defaultValue = "50")
+    double readRate;
+    @ConfigProperty(name = "RATE_LIMIT_READ_BURST", defaultValue = "100")
+    int readBurst;
+
+    @ConfigProperty(name = "RATE_LIMIT_WRITE_PER_SECOND", defaultValue = "10")
+    double writeRate;
+    @ConfigProperty(name = "RATE_LIMIT_WRITE_BURST", defaultValue = "30")
+    int writeBurst;
+
+    @ConfigProperty(name = "RATE_LIMIT_EXEC_PER_SECOND", defaultValue = "1")
+    double execRate;
+    @ConfigProperty(name = "RATE_LIMIT_EXEC_BURST", defaultValue = "5")
+    int execBurst;
+
+    // a project is shared by its members so its buckets are this many times bigger than a user's
+    @ConfigProperty(name = "RATE_LIMIT_PROJECT_FACTOR", defaultValue = "4")
+    int projectFactor;
+
+    @ConfigProperty(name = "RATE_LIMIT_MAX_BUCKETS", defaultValue = "100000")
+    int maxBuckets;
+
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger callsSinceCleanup = new AtomicInteger();
+
+    // indexed by Kind.ordinal()
+    private long[] interval;
+    private int[] burst;
+
+    @PostConstruct
+    void init() {
+        interval = new long[] { intervalNanos(readRate), intervalNanos(writeRate), intervalNanos(execRate) };
+        burst = new int[] { readBurst, writeBurst, execBurst };
+    }
+
+    // 0 if the request can go, otherwise how many nanos to wait before retrying
+    // a request refused by the project bucket gives its token back to the user bucket, it didn't run
+    public long tryAcquire(String subject, UUID projectId, Kind kind) {
+        if (!enabled) {
+            return 0;
+        }
+        maybeCleanup();
+
+        int i = kind.ordinal();
+        String userKey = "u:" + subject + ":" + kind;
+        long wait = take(userKey, interval[i], burst[i]);
+        if (wait > 0 || projectId == null) {
+            return wait;
+        }
+        wait = take("p:" + projectId + ":" + kind, interval[i] / projectFactor, burst[i] * projectFactor);
+        if (wait > 0) {
+            giveBack(userKey, interval[i]);
+        }
+        return wait;
+    }
+
+    private long take(String key, long emissionInterval, int burstSize) {
+        long burstTolerance = emissionInterval * burstSize;
+        AtomicLong tat = buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+        while (true) {
+            long now = System.nanoTime();
+            long current = tat.get();
+            long next = Math.max(current, now) + emissionInterval;
+            long excess = next - now - burstTolerance;
+            if (excess > 0) {
+                return excess;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // moving the arrival time back by one interval undoes one take, whatever was taken after it
+    private void giveBack(String key, long emissionInterval) {
+        AtomicLong tat = buckets.get(key);
+        if (tat != null) {
+            tat.addAndGet(-emissionInterval);
+        }
+    }
+
+    // a bucket whose arrival time is in the past is full again, dropping it changes nothing
+    private void maybeCleanup() {
+        // sooner when the map is over its size, but still not on every call
+        int threshold = buckets.size() < maxBuckets ? 10_000 : 100;
+        if (callsSinceCleanup.incrementAndGet() < threshold) {
+            return;
+        }
+        callsSinceCleanup.set(0);
+        long now = System.nanoTime();
+        int before = buckets.size();
+        buckets.entrySet().removeIf(entry -> entry.getValue().get() < now);
+        logger.debug("RateLimiter: cleanup removed " + (before - buckets.size()) + " idle buckets");
+    }
+
+    private static long intervalNanos(double perSecond) {
+        return (long) (TimeUnit.SECONDS.toNanos(1) / Math.max(perSecond, 0.001));
+    }
+}
@@ -0,0 +1,313 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.domain.executor.ProjectLanes;
+import fr.epita.assistants.ping.dto.ProjectDTOs.SnapshotInfo;
+import fr.epita.assistants.ping.dto.ProjectDTOs.SnapshotUsage;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// copy on write snapshots of a project: every file of the snapshot is a hard link to the project's file,
+// so taking one only costs directory entries, no data is copied
+// FileSystemService writes a new file and renames it over the shared one, the snapshot keeps the old content
+// git doesn't: it rewrites the reflogs, COMMIT_EDITMSG, the config... in place, so .git is copied, only its objects
+// are linked (an object file is written once under a temporary name and never changed after)
+// create and restore hold the write lock of the project directory (PathLocks) and its exec lane (ProjectLanes),
+// no file write and no git command runs on the project while its tree is linked or swapped
+// layout, next to the projects so the links stay on the same filesystem:
+//   <projects dir>/.snapshots/<projectId>/<snapshotId>/tree        the files
+//   <projects dir>/.snapshots/<projectId>/<snapshotId>/snapshot.properties
+@ApplicationScoped
+public class SnapshotService {
+
+    public static final String SNAPSHOTS_DIR = ".snapshots";
+    private static final String TREE = "tree";
+    private static final String META = "snapshot.properties";
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    QuotaService quotaService;
+
+    @Inject
+    CompressedStorage compressedStorage;
+
+    @Inject
+    PathLocks pathLocks;
+
+    @Inject
+    ProjectLanes lanes;
+
+    @Inject
+    FileChangeNotifier fileChangeNotifier;
+
+    @ConfigProperty(name = "SNAPSHOT_MAX_PER_PROJECT", defaultValue = "20")
+    int maxPerProject;
+
+    public static class SnapshotLimitException extends RuntimeException {
+        public SnapshotLimitException(String message) {
+            super(message);
+        }
+    }
+
+    public SnapshotInfo create(ProjectModel project, String label, UUID createdBy) throws IOException {
+        Path projectDir = Paths.get(project.path);
+        Path snapshots = snapshotsOf(project);
+        Files.createDirectories(snapshots);
+
+        UUID snapshotId = UUID.randomUUID();
+        // built under a temporary name and renamed at the end, a half built snapshot is never listed
+        Path building = snapshots.resolve(snapshotId + ".tmp");
+        try (ProjectLanes.Held lane = lanes.enter(projectDir.toFile(), null);
+             PathLocks.Held held = pathLocks.lock(projectDir)) {
+            // under the lock, two creates can't both see room for one more
+            if (list(project).size() >= maxPerProject) {
+                throw new SnapshotLimitException("A project can't have more than " + maxPerProject + " snapshots");
+            }
+            int[] files = linkTree(projectDir, building.resolve(TREE));
+            Properties meta = new Properties();
+            meta.setProperty("label", label != null ? label : "");
+            meta.setProperty("createdAt", Instant.now().toString());
+            meta.setProperty("createdBy", createdBy != null ? createdBy.toString() : "");
+            meta.setProperty("files", String.valueOf(files[0]));
+            try (OutputStream out = Files.newOutputStream(building.resolve(META))) {
+                meta.store(out, null);
+            }
+            Files.move(building, snapshots.resolve(snapshotId.toString()), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            deleteTree(building);
+            throw e;
+        }
+        logger.info("SnapshotService: created snapshot " + snapshotId + " of project " + project.id);
+        return info(snapshots.resolve(snapshotId.toString()));
+    }
+
+    public List<SnapshotInfo> list(ProjectModel project) throws IOException {
+        Path snapshots = snapshotsOf(project);
+        if (!Files.isDirectory(snapshots)) {
+            return List.of();
+        }
+        List<SnapshotInfo> result = new ArrayList<>();
+        try (Stream<Path> dirs = Files.list(snapshots)) {
+            for (Path dir : dirs.filter(dir -> Files.exists(dir.resolve(META))).toList()) {
+                result.add(info(dir));
+            }
+        }
+        result.sort(Comparator.comparing((SnapshotInfo info) -> info.createdAt).reversed());
+        return result;
+    }
+
+    // puts the project back as it was in the snapshot, the snapshot itself is kept
+    // the new tree is linked next to the project and swapped in with two renames
+    public void restore(ProjectModel project, UUID snapshotId) throws IOException {
+        Path tree = snapshotDir(project, snapshotId).resolve(TREE);
+        Path projectDir = Paths.get(project.path);
+        Path incoming = projectDir.resolveSibling(projectDir.getFileName() + ".restore-" + snapshotId);
+        Path outgoing = projectDir.resolveSibling(projectDir.getFileName() + ".old-" + snapshotId);
+
+        try (ProjectLanes.Held lane = lanes.enter(projectDir.toFile(), null);
+             PathLocks.Held held = pathLocks.lock(projectDir)) {
+            try {
+                linkTree(tree, incoming);
+                Files.move(projectDir, outgoing, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(incoming, projectDir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                if (!Files.exists(projectDir) && Files.exists(outgoing)) {
+                    Files.move(outgoing, projectDir, StandardCopyOption.ATOMIC_MOVE);
+                }
+                deleteTree(incoming);
+                throw e;
+            }
+            // the snapshot may hold compressed files, the new project directory doesn't carry the mark
+            compressedStorage.markProject(projectDir);
+        }
+        deleteTree(outgoing);
+        quotaService.markStale(project.id);
+        // every file may have changed, the editors reload the whole tree
+        fileChangeNotifier.resync(projectDir);
+        logger.info("SnapshotService: restored project " + project.id + " from snapshot " + snapshotId);
+    }
+
+    public void delete(ProjectModel project, UUID snapshotId) throws IOException {
+        Path dir = snapshotDir(project, snapshotId);
+        // renamed first so it disappears from the list at once, even if removing the files takes a while
+        Path trash = dir.resolveSibling(snapshotId + ".deleting");
+        Files.move(dir, trash, StandardCopyOption.ATOMIC_MOVE);
+        deleteTree(trash);
+        logger.info("SnapshotService: deleted snapshot " + snapshotId + " of project " + project.id);
+    }
+
+    // physical space of the project and its snapshots, each inode counted once
+    // snapshotsBytes is what the snapshots cost on top of the project (files changed or deleted since)
+    public SnapshotUsage usage(ProjectModel project) throws IOException {
+        Set<Object> seen = new HashSet<>();
+        SnapshotUsage usage = new SnapshotUsage();
+        usage.projectBytes = sumUnique(Paths.get(project.path), seen);
+        Path snapshots = snapshotsOf(project);
+        if (Files.isDirectory(snapshots)) {
+            usage.snapshotsBytes = sumUnique(snapshots, seen);
+        }
+        usage.snapshots = list(project).size();
+        usage.totalBytes = usage.projectBytes + usage.snapshotsBytes;
+        return usage;
+    }
+
+    private SnapshotInfo info(Path dir) throws IOException {
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(dir.resolve(META))) {
+            meta.load(in);
+        }
+        SnapshotInfo info = new SnapshotInfo();
+        info.id = UUID.fromString(dir.getFileName().toString());
+        info.label = meta.getProperty("label", "");
+        info.createdAt = meta.getProperty("createdAt");
+        String createdBy = meta.getProperty("createdBy", "");
+        info.createdBy = createdBy.isEmpty() ? null : UUID.fromString(createdBy);
+        info.files = Integer.parseInt(meta.getProperty("files", "0"));
+
+        // a file only this snapshot still links to is space that deleting the snapshot gives back
+        long[] sizes = new long[2];
+        Path tree = dir.resolve(TREE);
+        if (Files.isDirectory(tree)) {
+            try (Stream<Path> files = Files.walk(tree)) {
+                files.filter(file -> Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)).forEach(file -> {
+                    try {
+                        long size = Files.size(file);
+                        sizes[0] += size;
+                        if (linkCount(file) <= 1) {
+                            sizes[1] += size;
+                        }
+                    } catch (IOException e) {
+                        // removed meanwhile
+                    }
+                });
+            }
+        }
+        info.logicalBytes = sizes[0];
+        info.exclusiveBytes = sizes[1];
+        return info;
+    }
+
+    private Path snapshotsOf(ProjectModel project) {
+        Path projectDir = Paths.get(project.path).normalize();
+        return projectDir.resolveSibling(SNAPSHOTS_DIR).resolve(project.id.toString());
+    }
+
+    private Path snapshotDir(ProjectModel project, UUID snapshotId) throws NoSuchFileException {
+        Path dir = snapshotsOf(project).resolve(snapshotId.toString());
+        if (!Files.exists(dir.resolve(META))) {
+            throw new NoSuchFileException("Snapshot not found");
+        }
+        return dir;
+    }
+
+    // same tree as from under to, regular files hard linked (copied in .git but for its objects), symlinks
+    // recreated as they are
+    // returns {files}
+    private static int[] linkTree(Path from, Path to) throws IOException {
+        Path gitDir = from.resolve(".git");
+        Path gitObjects = gitDir.resolve("objects");
+        if (Files.exists(to)) {
+            throw new FileAlreadyExistsException(to.toString());
+        }
+        int[] count = new int[1];
+        Files.walkFileTree(from, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(to.resolve(from.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path target = to.resolve(from.relativize(file));
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(target, Files.readSymbolicLink(file));
+                } else if (attrs.isRegularFile()) {
+                    if (file.startsWith(gitDir) && !file.startsWith(gitObjects)) {
+                        Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+                    } else {
+                        Files.createLink(target, file);
+                    }
+                    count[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count;
+    }
+
+    private static long sumUnique(Path root, Set<Object> seen) throws IOException {
+        long[] total = new long[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Object key = attrs.fileKey() != null ? attrs.fileKey() : file;
+                if (attrs.isRegularFile() && seen.add(key)) {
+                    total[0] += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    // number of names the file has, a file of the project with more than one is shared with a snapshot
+    // when the filesystem can't tell, the file is treated as shared (breaking a link that isn't there is harmless)
+    public static int linkCount(Path file) {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private void deleteTree(Path dir) {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("SnapshotService: could not delete " + path + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("SnapshotService: could not clean " + dir + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.dto.StorageStatus;
+import fr.epita.assistants.ping.repository.ProjectRepository;
+import fr.epita.assistants.ping.utils.Logger;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// moves projects between storage roots while they stay usable:
+// 1. the project (and its snapshots) is copied to <new root>/<id>.moving, requests keep going on the old copy
+// 2. the storage gate of the project is closed (new requests wait, running ones finish)
+// 3. what changed during the copy is synced again, usually a few files
+// 4. the copy is renamed in place, the new path is committed, the gate opens, the old copy is deleted
+// hard links inside a project (snapshots, blobs) are kept as links in the copy
+// the storage gate only exists in this instance: another one would keep writing to the old copy, and its writes
+// would be deleted with it, so a rebalance only runs while no other instance is alive (InstanceRegistry),
+// checked when it starts and again once the gate of each project is closed
+@ApplicationScoped
+public class StorageRebalancer {
+
+    @Inject
+    Logger logger;
+
+    @Inject
+    ProjectStorage storage;
+
+    @Inject
+    ProjectRepository projectRepo;
+
+    @Inject
+    BlobStore blobStore;
+
+    @Inject
+    InstanceRegistry instanceRegistry;
+
+    @Inject
+    CompressedStorage compressedStorage;
+
+    public record Move(UUID projectId, String from, String to) {}
+
+    public static class OtherInstancesException extends RuntimeException {
+        public OtherInstancesException(String message) {
+            super(message);
+        }
+    }
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile int moved;
+    private volatile int failed;
+    private volatile int planned;
+
+    // moves to do so every project is where the policy wants it
+    // hash: the ring position of each project (after adding a root, about 1/n of them)
+    // least-used: from the roots with more projects than the average to the ones with fewer
+    public List<Move> plan(int max) {
+        List<ProjectModel> projects = projectRepo.listAllProjects().stream()
+            .filter(project -> project.path != null)
+            .toList();
+        List<Move> moves = new ArrayList<>();
+
+        if (storage.isHashPolicy()) {
+            for (ProjectModel project : projects) {
+                Path current = currentRoot(project);
+                Path wanted = storage.hashedRoot(project.id);
+                if (!wanted.equals(current)) {
+                    moves.add(new Move(project.id, current.toString(), wanted.toString()));
+                }
+            }
+        } else {
+            Map<Path, List<ProjectModel>> byRoot = new HashMap<>();
+            storage.roots().forEach(root -> byRoot.put(root, new ArrayList<>()));
+            for (ProjectModel project : projects) {
+                byRoot.computeIfAbsent(currentRoot(project), root -> new ArrayList<>()).add(project);
+            }
+            int average = (projects.size() + storage.roots().size() - 1) / storage.roots().size();
+            List<Path> targets = new ArrayList<>(storage.roots());
+            for (Map.Entry<Path, List<ProjectModel>> entry : byRoot.entrySet()) {
+                List<ProjectModel> extra = entry.getValue();
+                // projects of a root that is no longer configured all have to go
+                int keep = storage.roots().contains(entry.getKey()) ? average : 0;
+                while (extra.size() > keep) {
+                    targets.sort(Comparator.comparingInt(root -> byRoot.get(root).size()));
+                    Path target = targets.get(0);
+                    if (byRoot.get(target).size() >= average && keep > 0) {
+                        break;
+                    }
+                    ProjectModel project = extra.remove(extra.size() - 1);
+                    byRoot.get(target).add(project);
+                    moves.add(new Move(project.id, entry.getKey().toString(), target.toString()));
+                }
+            }
+        }
+        return moves.size() > max ? moves.subList(0, max) : moves;
+    }
+
+    // runs the moves one after the other on a background thread, false if a rebalance is already running
+    // OtherInstancesException when other instances are up
+    public boolean start(List<Move> moves) {
+        requireSingleInstance();
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        planned = moves.size();
+        moved = 0;
+        failed = 0;
+        Thread.ofVirtual().name("storage-rebalancer").start(() -> {
+            try {
+                for (Move move : moves) {
+                    try {
+                        move(move.projectId(), Paths.get(move.to()));
+                        moved++;
+                    } catch (Exception e) {
+                        failed++;
+                        logger.error("StorageRebalancer: moving project " + move.projectId() + " failed: " + e.getMessage());
+                    }
+                }
+                logger.info("StorageRebalancer: done, " + moved + " moved, " + failed + " failed");
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public void move(UUID projectId, Path targetRoot) throws IOException {
+        ProjectModel project = projectRepo.findProjectById(projectId)
+            .orElseThrow(() -> new IOException("Project not found"));
+        Path source = Paths.get(project.path);
+        if (currentRoot(project).equals(targetRoot)) {
+            return;
+        }
+        Path target = targetRoot.resolve(projectId.toString());
+        Path staging = targetRoot.resolve(projectId + ".moving");
+        Path sourceSnapshots = source.resolveSibling(SnapshotService.SNAPSHOTS_DIR).resolve(projectId.toString());
+        Path targetSnapshots = targetRoot.resolve(SnapshotService.SNAPSHOTS_DIR).resolve(projectId.toString());
+        Path stagingSnapshots = targetRoot.resolve(SnapshotService.SNAPSHOTS_DIR).resolve(projectId + ".moving");
+        if (Files.exists(target)) {
+            throw new IOException("Target " + target + " already exists");
+        }
+
+        logger.info("StorageRebalancer: moving project " + projectId + " from " + source + " to " + target);
+        try {
+            // 1. bulk copy, the project is still used meanwhile
+            sync(source, staging, new HashMap<>());
+
+            // 2. + 3. short pause for the writes done during the copy
+            if (!storage.close(projectId)) {
+                throw new IOException("Project still in use after the gate timeout");
+            }
+            try {
+                // an instance started since the rebalance began would not see the gate
+                requireSingleInstance();
+                // snapshots share the inodes of the project, same pass so the links are kept between them
+                Map<Object, Path> copied = new HashMap<>();
+                sync(source, staging, copied);
+                if (Files.isDirectory(sourceSnapshots)) {
+                    sync(sourceSnapshots, stagingSnapshots, copied);
+                }
+                // 4.
+                // the files keep their codec xattr (COPY_ATTRIBUTES), the directory mark is set again
+                compressedStorage.markProject(staging);
+                Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+                if (Files.isDirectory(stagingSnapshots)) {
+                    Files.move(stagingSnapshots, targetSnapshots, StandardCopyOption.ATOMIC_MOVE);
+                }
+                projectRepo.moveProject(projectId, targetRoot.toString(), target.toString());
+            } finally {
+                storage.open(projectId);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteTree(staging);
+            deleteTree(stagingSnapshots);
+            throw e;
+        }
+
+        deleteTree(source);
+        deleteTree(sourceSnapshots);
+        // the links to the old root's blobs became plain copies, share them again in the new root
+        if (blobStore.isEnabled()) {
+            blobStore.dedupTree(target);
+        }
+        logger.info("StorageRebalancer: project " + projectId + " now in " + target);
+    }
+
+    public StorageStatus status() {
+        StorageStatus status = new StorageStatus();
+        Map<String, Long> counts = projectRepo.countByStorageRoot();
+        status.policy = storage.isHashPolicy() ? "hash" : "least-used";
+        status.roots = new ArrayList<>();
+        for (Path root : storage.roots()) {
+            StorageStatus.Root info = new StorageStatus.Root();
+            info.path = root.toString();
+            info.projects = counts.getOrDefault(root.toString(), 0L);
+            info.usableBytes = storage.usableSpace(root);
+            info.totalBytes = storage.totalSpace(root);
+            status.roots.add(info);
+        }
+        status.rebalancing = running.get();
+        status.planned = planned;
+        status.moved = moved;
+        status.failed = failed;
+        return status;
+    }
+
+    private void requireSingleInstance() {
+        long others = instanceRegistry.otherInstances();
+        if (others > 0) {
+            throw new OtherInstancesException(others + " other instance(s) running, stop them to rebalance the storage");
+        }
+    }
+
+    private Path currentRoot(ProjectModel project) {
+        if (project.storageRoot != null) {
+            return Paths.get(project.storageRoot).toAbsolutePath().normalize();
+        }
+        return Paths.get(project.path).toAbsolutePath().normalize().getParent();
+    }
+
+    // makes to the same tree as from, copying only files whose size or mtime differ (the copies keep the mtime)
+    // copied maps each source inode seen during this pass to its copy, so a second name of the same file
+    // becomes a link again (only this pass: an inode number freed since the last one may be reused by another file)
+    private static void sync(Path from, Path to, Map<Object, Path> copied) throws IOException {
+        Set<Path> seen = new HashSet<>();
+        Files.walkFileTree(from, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path target = to.resolve(from.relativize(dir).toString());
+                Files.createDirectories(target);
+                seen.add(target);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path target = to.resolve(from.relativize(file).toString());
+                seen.add(target);
+                if (attrs.isSymbolicLink()) {
+                    Files.deleteIfExists(target);
+                    Files.createSymbolicLink(target, Files.readSymbolicLink(file));
+                    return FileVisitResult.CONTINUE;
+                }
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Object key = attrs.fileKey() != null ? attrs.fileKey() : file;
+                Path twin = copied.get(key);
+                if (twin != null && !twin.equals(target) && Files.exists(twin)) {
+                    if (!Files.exists(target) || !Files.isSameFile(twin, target)) {
+                        Files.deleteIfExists(target);
+                        Files.createLink(target, twin);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                BasicFileAttributes existing = Files.exists(target, LinkOption.NOFOLLOW_LINKS)
+                    ? Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS) : null;
+                boolean same = existing != null && existing.isRegularFile() && existing.size() == attrs.size()
+                    && existing.lastModifiedTime().equals(attrs.lastModifiedTime());
+                if (!same) {
+                    // a new file rather than a rewrite, the target may already be linked elsewhere in the copy
+                    Files.deleteIfExists(target);
+                    Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                copied.put(key, target);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // files deleted from the source since the last pass
+        try (Stream<Path> files = Files.walk(to)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                if (!seen.contains(path)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private void deleteTree(Path dir) {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("StorageRebalancer: could not delete " + path + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("StorageRebalancer: could not clean " + dir + ": " + e.getMessage());
+        }
+    }
+}
@@ -8,9 +8,15 @@ import jakarta.transaction.Transactional;
 import fr.epita.assistants.ping.utils.Logger;
 
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
+import fr.epita.assistants.ping.dto.BulkUserReport;
+import fr.epita.assistants.ping.dto.newUserRequest;
+
 
 @ApplicationScoped
 public class UserService {
@@ -21,6 +27,9 @@ public class UserService {
     @Inject
     UserRepository userRepo;
 
+    @Inject
+    PasswordService passwordService;
+
     public UserModel getUserByLogin(String login) {
         if (login == null) {
             logger.error("getUserByLogin called with null login parameter");
@@ -48,7 +57,7 @@ public class UserService {
         logger.error("createUser called with null parameters - login: " + login + ", password: " + (password != null ? "[PROVIDED]" : "null"));
         return null;
     }
-    return userRepo.saveUser(login, password, isAdmin);
+    return userRepo.saveUser(login, passwordService.hash(password), isAdmin);
 }
     @Transactional
     public UserModel updateUser(UserModel user, String displayName, String password, String avatar) {
@@ -56,7 +65,26 @@ public class UserService {
             logger.error("updateUser called with null user");
             return null;
         }
-        return userRepo.modifyUser(user, displayName, password, avatar);
+        String passwordHash = (password != null && !password.isBlank()) ? passwordService.hash(password) : null;
+        return userRepo.modifyUser(user, displayName, passwordHash, avatar);
+    }
+
+    // returns the user if the credentials are valid, null otherwise
+    // legacy plaintext rows (and rows hashed with an old cost) are rehashed on the first successful login
+    public UserModel authenticate(String login, String password) {
+        if (login == null || password == null) {
+            logger.error("authenticate called with null parameters");
+            return null;
+        }
+        UserModel user = userRepo.findUserByLogin(login).orElse(null);
+        if (user == null || !passwordService.verify(login, password, user.getPassword())) {
+            return null;
+        }
+        if (passwordService.needsRehash(user.getPassword())) {
+            logger.info("Rehashing password of user: " + login);
+            user = userRepo.updatePasswordHash(user.getId(), passwordService.hash(password));
+        }
+        return user;
     }
 
     @Transactional
@@ -68,6 +96,78 @@ public class UserService {
         return userRepo.removeUser(id);
     }
 
+    // validates every row, checks all the logins with a single query and inserts the valid rows in batches
+    // invalid or already taken logins are reported per row and don't stop the import
+    @Transactional
+    public BulkUserReport importUsers(List<newUserRequest> rows) {
+        BulkUserReport report = new BulkUserReport();
+        List<newUserRequest> valid = new ArrayList<>();
+        List<BulkUserReport.Row> validRows = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        for (int i = 0; i < rows.size(); i++) {
+            newUserRequest row = rows.get(i);
+            int line = i + 1;
+            if (row == null || row.login == null || row.password == null || row.login.isBlank() || row.password.isBlank()) {
+                report.rows.add(new BulkUserReport.Row(line, row != null ? row.login : null, "invalid", "Login and password cannot be empty"));
+                continue;
+            }
+            if (!isValidLogin(row.login)) {
+                report.rows.add(new BulkUserReport.Row(line, row.login, "invalid", "Login must contain exactly one dot or underscore"));
+                continue;
+            }
+            if (!seen.add(row.login)) {
+                report.rows.add(new BulkUserReport.Row(line, row.login, "conflict", "Login is duplicated in the import"));
+                continue;
+            }
+            valid.add(row);
+            validRows.add(new BulkUserReport.Row(line, row.login, "created", null));
+        }
+
+        Set<String> existing = new HashSet<>(userRepo.findExistingLogins(seen));
+        List<newUserRequest> toCreate = new ArrayList<>();
+        List<BulkUserReport.Row> createdRows = new ArrayList<>();
+        for (int i = 0; i < valid.size(); i++) {
+            BulkUserReport.Row row = validRows.get(i);
+            if (existing.contains(row.login)) {
+                row.status = "conflict";
+                row.message = "Login is already taken";
+                report.rows.add(row);
+            } else {
+                toCreate.add(valid.get(i));
+                createdRows.add(row);
+            }
+        }
+
+        List<String> hashes = passwordService.hashAll(toCreate.stream().map(row -> row.password).toList());
+        for (int i = 0; i < toCreate.size(); i++) {
+            toCreate.get(i).password = hashes.get(i);
+        }
+
+        List<UserModel> created = userRepo.saveUsers(toCreate);
+        for (int i = 0; i < created.size(); i++) {
+            BulkUserReport.Row row = createdRows.get(i);
+            row.id = created.get(i).getId();
+            report.rows.add(row);
+        }
+
+        report.rows.sort((a, b) -> Integer.compare(a.line, b.line));
+        report.created = created.size();
+        report.rejected = rows.size() - created.size();
+        logger.info("Bulk import done - created: " + report.created + ", rejected: " + report.rejected);
+        return report;
+    }
+
+    // same rule as POST /api/user: exactly one dot or underscore between two non empty parts
+    public static boolean isValidLogin(String login) {
+        int dotCount = login.length() - login.replace(".", "").length();
+        int underscoreCount = login.length() - login.replace("_", "").length();
+        if (dotCount + underscoreCount != 1) {
+            return false;
+        }
+        return login.split("[._]").length == 2;
+    }
+
     public long countUsers() {
         return userRepo.totalUserCount();
     }
@@ -0,0 +1,29 @@
+-- Schema as it was generated by hibernate (database.generation=update) before flyway.
+-- Existing databases are baselined at this version, so this only runs on a fresh database.
+
+create table if not exists users (
+    id uuid not null,
+    login varchar(255) not null,
+    password varchar(255) not null,
+    displayName varchar(255),
+    avatar varchar(255),
+    isAdmin boolean not null,
+    primary key (id),
+    constraint users_login_key unique (login)
+);
+
+create table if not exists projects (
+    id uuid not null,
+    name varchar(255) not null,
+    path varchar(255),
+    owner_id uuid not null,
+    primary key (id),
+    constraint projects_owner_fk foreign key (owner_id) references users (id)
+);
+
+create table if not exists project_members (
+    project_id uuid not null,
+    user_id uuid not null,
+    constraint project_members_project_fk foreign key (project_id) references projects (id),
+    constraint project_members_user_fk foreign key (user_id) references users (id)
+);
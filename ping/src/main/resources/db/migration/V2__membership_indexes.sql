@@ -0,0 +1,16 @@
+-- Indexes for the membership lookups (findProjectsByUser, members:batch).
+
+-- the old add-member code could insert the same membership twice, keep one row before the unique index
+delete from project_members a
+    using project_members b
+    where a.ctid > b.ctid
+      and a.project_id = b.project_id
+      and a.user_id = b.user_id;
+
+-- one row per (project, user), also the conflict target of the members:batch insert
+create unique index if not exists project_members_project_user_idx on project_members (project_id, user_id);
+
+-- "projects of a user" side of the lookup
+create index if not exists project_members_user_project_idx on project_members (user_id, project_id);
+
+create index if not exists projects_owner_idx on projects (owner_id);
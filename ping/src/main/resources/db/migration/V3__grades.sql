@@ -0,0 +1,19 @@
+-- Results of the autograder, one row per grading run of a project.
+
+create table if not exists grades (
+    id uuid not null primary key,
+    project_id uuid not null references projects (id) on delete cascade,
+    requested_by uuid references users (id) on delete set null,
+    job_id uuid,
+    status varchar(16) not null,
+    passed integer not null default 0,
+    failed integer not null default 0,
+    skipped integer not null default 0,
+    score double precision,
+    message text,
+    created_at timestamp with time zone not null,
+    finished_at timestamp with time zone
+);
+
+-- "latest grades of a project"
+create index if not exists grades_project_created_idx on grades (project_id, created_at desc);
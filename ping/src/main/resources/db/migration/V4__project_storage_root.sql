@@ -0,0 +1,19 @@
+-- Storage root (PROJECT_STORAGE_ROOTS entry) each project directory lives in.
+
+alter table projects add column if not exists storage_root varchar(1024);
+
+-- every project created before was under a single root, the parent directory of its path
+update projects
+    set storage_root = regexp_replace(path, '/[^/]+/?$', '')
+    where storage_root is null and path is not null;
+
+-- projects per root, for the least-used placement and the rebalancer
+create index if not exists projects_storage_root_idx on projects (storage_root);
+
+-- running instances, each one writes its row every INSTANCE_HEARTBEAT_INTERVAL (InstanceRegistry), the rebalancer
+-- only moves projects while it is alone
+create table if not exists instances (
+    id varchar(64) not null primary key,
+    started_at timestamp with time zone not null,
+    seen_at timestamp with time zone not null
+);
@@ -0,0 +1,10 @@
+-- Disk usage of each project, kept up to date in memory by QuotaService and saved here periodically
+-- so a restart doesn't need a walk of every project.
+
+create table if not exists project_usage (
+    project_id uuid not null primary key references projects (id) on delete cascade,
+    bytes bigint not null default 0,
+    files bigint not null default 0,
+    updated_at timestamp with time zone not null,
+    reconciled_at timestamp with time zone
+);
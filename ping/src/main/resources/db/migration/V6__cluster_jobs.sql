@@ -0,0 +1,23 @@
+-- Periodic jobs run by one instance at a time (ClusterScheduler). The postgres advisory lock does the exclusion,
+-- these tables say when each job is due again, which instance holds it and what its last runs did.
+
+create table if not exists cluster_jobs (
+    name varchar(100) not null primary key,
+    owner varchar(64),
+    lease_until timestamp with time zone,
+    next_run_at timestamp with time zone,
+    last_run_id uuid
+);
+
+create table if not exists cluster_job_runs (
+    id uuid not null primary key,
+    job_name varchar(100) not null,
+    node varchar(64) not null,
+    status varchar(16) not null,
+    error text,
+    started_at timestamp with time zone not null,
+    finished_at timestamp with time zone
+);
+
+-- "last runs of a job"
+create index if not exists cluster_job_runs_job_started_idx on cluster_job_runs (job_name, started_at desc);
@@ -0,0 +1,3 @@
+-- What each cluster job run did (ex: the space git-maintenance reclaimed), shown with the run history.
+
+alter table cluster_job_runs add column if not exists summary varchar(1000);
@@ -0,0 +1,22 @@
+-- Summary of each project for the dashboard (GET /api/projects/stats), read with project_usage in one query.
+-- member_count is updated with the members, the activity columns by ProjectStatsService.
+
+create table if not exists project_stats (
+    project_id uuid not null primary key references projects (id) on delete cascade,
+    member_count integer not null default 0,
+    last_modified_at timestamp with time zone,
+    last_commit_id varchar(40),
+    last_commit_message varchar(200),
+    last_commit_author varchar(255),
+    last_commit_at timestamp with time zone,
+    updated_at timestamp with time zone not null
+);
+
+-- "most recently modified first"
+create index if not exists project_stats_last_modified_idx on project_stats (last_modified_at desc nulls last);
+
+-- the existing projects start with their members, their activity comes with the next save or commit
+insert into project_stats (project_id, member_count, updated_at)
+select p.id, (select count(*) from project_members pm where pm.project_id = p.id), now()
+from projects p
+on conflict (project_id) do nothing;
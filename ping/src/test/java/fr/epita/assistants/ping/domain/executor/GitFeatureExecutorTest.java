@@ -0,0 +1,157 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitCommit;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitDiffEntry;
+import fr.epita.assistants.ping.dto.ProjectDTOs.GitLogPage;
+
+class GitFeatureExecutorTest {
+
+    @TempDir
+    Path projectRoot;
+
+    private GitFeatureExecutor executor;
+    private GitReadCache readCache;
+    private int commitTime = 1_700_000_000;
+
+    @BeforeEach
+    void setUp() {
+        readCache = new GitReadCache();
+        readCache.maxBytes = 1 << 20;
+        readCache.worktreeTtlMs = 0;
+        readCache.init();
+        executor = new GitFeatureExecutor();
+        executor.readCache = readCache;
+        executor.maxLogLimit = 200;
+        executor.maxPatchBytes = 1000;
+        executor.maxTotalPatchBytes = 1500;
+    }
+
+    private RevCommit commit(Git git, String file, String content) throws Exception {
+        Files.writeString(projectRoot.resolve(file), content);
+        git.add().addFilepattern(file).call();
+        // distinct times, the walk orders by commit time
+        PersonIdent ident = new PersonIdent("student", "student@epita.fr", (long) commitTime++ * 1000, 0);
+        return git.commit().setMessage(file + " " + content).setAuthor(ident).setCommitter(ident).setSign(false).call();
+    }
+
+    @Test
+    void logPagesCoverEveryCommitOnceAcrossMerges() throws Exception {
+        try (Git git = Git.init().setDirectory(projectRoot.toFile()).setInitialBranch("main").call()) {
+            commit(git, "a", "1");
+            git.branchCreate().setName("side").call();
+            commit(git, "a", "2");
+            commit(git, "a", "3");
+            git.checkout().setName("side").call();
+            commit(git, "b", "1");
+            commit(git, "b", "2");
+            git.checkout().setName("main").call();
+            git.merge().include(git.getRepository().resolve("side")).setFastForward(MergeCommand.FastForwardMode.NO_FF)
+                .setMessage("merge").call();
+            commit(git, "a", "4");
+        }
+
+        List<String> all = new ArrayList<>();
+        for (GitCommit commit : executor.log(projectRoot.toFile(), 100, null).commits) {
+            all.add(commit.id);
+        }
+        assertThat(all).hasSize(7);
+
+        for (int pageSize = 1; pageSize <= 3; pageSize++) {
+            List<String> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                GitLogPage page = executor.log(projectRoot.toFile(), pageSize, cursor);
+                page.commits.forEach(commit -> paged.add(commit.id));
+                cursor = page.nextCursor;
+            } while (cursor != null);
+            assertThat(paged).as("page size " + pageSize).isEqualTo(all);
+        }
+    }
+
+    @Test
+    void logCursorStaysOnItsStartWhenHeadMoves() throws Exception {
+        try (Git git = Git.init().setDirectory(projectRoot.toFile()).setInitialBranch("main").call()) {
+            commit(git, "a", "1");
+            commit(git, "a", "2");
+            commit(git, "a", "3");
+            GitLogPage first = executor.log(projectRoot.toFile(), 2, null);
+            commit(git, "a", "4");
+            GitLogPage second = executor.log(projectRoot.toFile(), 2, first.nextCursor);
+            assertThat(second.commits).hasSize(1);
+            assertThat(second.commits.get(0).message).isEqualTo("a 1");
+            assertThat(second.nextCursor).isNull();
+        }
+    }
+
+    @Test
+    void invalidCursorIsRejected() throws Exception {
+        try (Git git = Git.init().setDirectory(projectRoot.toFile()).setInitialBranch("main").call()) {
+            commit(git, "a", "1");
+        }
+        File root = projectRoot.toFile();
+        assertThatThrownBy(() -> executor.log(root, 1, "HEAD")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> executor.log(root, 1, "HEAD:1")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> executor.log(root, 1, "0".repeat(40) + ":-1")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void diffIsCutPerPatchAndInTotal() throws Exception {
+        try (Git git = Git.init().setDirectory(projectRoot.toFile()).setInitialBranch("main").call()) {
+            commit(git, "a", "x");
+        }
+        Files.writeString(projectRoot.resolve("a"), "y\n".repeat(2000));
+        Files.writeString(projectRoot.resolve("b"), "small\n");
+        Files.writeString(projectRoot.resolve("c"), "z\n".repeat(2000));
+        try (Git git = Git.open(projectRoot.toFile())) {
+            git.add().addFilepattern(".").call();
+        }
+
+        List<GitDiffEntry> entries = executor.diff(projectRoot.toFile(), null, null);
+        assertThat(entries).extracting(entry -> entry.newPath).containsExactly("a", "b", "c");
+        assertThat(entries.get(0).truncated).isTrue();
+        assertThat(entries.get(0).patch).hasSize(1000);
+        assertThat(entries.get(1).truncated).isFalse();
+        assertThat(entries.get(1).patch).contains("+small");
+        // what is left of the 1500 bytes after a and b
+        assertThat(entries.get(2).truncated).isTrue();
+        assertThat(entries.get(2).patch.length()).isEqualTo(1500 - 1000 - entries.get(1).patch.length());
+    }
+
+    @Test
+    void cacheDropsTheLeastRecentlyUsedPastItsSize() {
+        readCache.maxBytes = 10_000;
+        String big = "x".repeat(2000); // about 4KB
+        readCache.get("r|1", false, () -> big, GitReadCache::weightOf);
+        readCache.get("r|2", false, () -> big, GitReadCache::weightOf);
+        readCache.get("r|1", false, () -> "reloaded", GitReadCache::weightOf); // r|1 is now the most recent
+        readCache.get("r|3", false, () -> big, GitReadCache::weightOf);
+
+        assertThat(readCache.<String>get("r|1", false, () -> "reloaded", GitReadCache::weightOf)).isEqualTo(big);
+        assertThat(readCache.<String>get("r|2", false, () -> "reloaded", GitReadCache::weightOf)).isEqualTo("reloaded");
+    }
+
+    @Test
+    void cacheDoesNotKeepAResultBiggerThanItself() {
+        readCache.maxBytes = 1000;
+        String big = "x".repeat(1000);
+        readCache.get("r|1", false, () -> big, GitReadCache::weightOf);
+        assertThat(readCache.<String>get("r|1", false, () -> "reloaded", GitReadCache::weightOf)).isEqualTo("reloaded");
+    }
+}
@@ -0,0 +1,103 @@
+package fr.epita.assistants.ping.domain.executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestResultsTest {
+
+    private static final String GLOB = "**/TEST-*.xml";
+
+    @TempDir
+    Path dir;
+
+    private Path report(String relativePath, String testCases) throws IOException {
+        Path report = dir.resolve(relativePath);
+        Files.createDirectories(report.getParent());
+        Files.writeString(report, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<testsuite name=\"suite\">\n" + testCases + "</testsuite>\n");
+        return report;
+    }
+
+    @Test
+    void countsEachOutcomeOfTheTestCases() throws IOException {
+        report("target/surefire-reports/TEST-a.xml",
+            "<testcase name=\"ok1\"/>\n"
+            + "<testcase name=\"ok2\"><system-out>hello</system-out></testcase>\n"
+            + "<testcase name=\"fails\"><failure message=\"expected\">trace</failure></testcase>\n"
+            + "<testcase name=\"errors\"><error type=\"NPE\"/></testcase>\n"
+            + "<testcase name=\"skipped\"><skipped/></testcase>\n");
+
+        TestResults results = TestResults.fromJUnit(dir, GLOB, 0);
+        assertThat(results).isEqualTo(new TestResults(2, 2, 1));
+        assertThat(results.total()).isEqualTo(5);
+        assertThat(results.score()).isEqualTo(50.0);
+    }
+
+    @Test
+    void sumsEveryMatchingReport() throws IOException {
+        report("module-a/target/surefire-reports/TEST-a.xml", "<testcase name=\"a\"/>\n");
+        report("module-b/target/surefire-reports/TEST-b.xml", "<testcase name=\"b\"><failure/></testcase>\n");
+        report("target/other.xml", "<testcase name=\"not a report\"/>\n");
+
+        assertThat(TestResults.fromJUnit(dir, GLOB, 0)).isEqualTo(new TestResults(1, 1, 0));
+    }
+
+    @Test
+    void ignoresReportsOlderThanTheRun() throws IOException {
+        Path old = report("target/surefire-reports/TEST-old.xml", "<testcase name=\"old\"/>\n");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(1_000));
+
+        assertThat(TestResults.fromJUnit(dir, GLOB, 2_000)).isNull();
+    }
+
+    @Test
+    void refusesDoctypes() throws IOException {
+        Path report = dir.resolve("TEST-evil.xml");
+        Files.writeString(report, "<?xml version=\"1.0\"?>\n"
+            + "<!DOCTYPE t [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>\n"
+            + "<testsuite><testcase name=\"&x;\"/></testsuite>\n");
+
+        assertThatThrownBy(() -> TestResults.fromJUnit(dir, "*.xml", 0)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void noScoreWhenNothingRan() {
+        assertThat(new TestResults(0, 0, 3).score()).isNull();
+    }
+
+    private static void feed(TestResults.TapCounter tap, String stream, String text) {
+        tap.onLine(new ExecJob.OutputLine(0, stream, text));
+    }
+
+    @Test
+    void tapCountsTopLevelResults() {
+        TestResults.TapCounter tap = new TestResults.TapCounter();
+        feed(tap, "stdout", "TAP version 13");
+        feed(tap, "stdout", "1..6");
+        feed(tap, "stdout", "ok 1 - adds");
+        feed(tap, "stdout", "not ok 2 - subtracts");
+        feed(tap, "stdout", "ok 3 - divides # SKIP no float support");
+        feed(tap, "stdout", "not ok 4 - multiplies # todo later");
+        feed(tap, "stdout", "    ok 1 - a subtest");
+        feed(tap, "stdout", "ok 5 - handles # in names");
+        feed(tap, "stdout", "okay, not a result");
+        feed(tap, "stderr", "ok 6 - printed on stderr");
+
+        assertThat(tap.results()).isEqualTo(new TestResults(2, 1, 2));
+    }
+
+    @Test
+    void tapWithoutResultsIsNull() {
+        TestResults.TapCounter tap = new TestResults.TapCounter();
+        feed(tap, "stdout", "BUILD SUCCESS");
+        assertThat(tap.results()).isNull();
+    }
+}
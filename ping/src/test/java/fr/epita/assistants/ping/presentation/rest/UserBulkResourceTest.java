@@ -0,0 +1,65 @@
+package fr.epita.assistants.ping.presentation.rest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class UserBulkResourceTest {
+
+    private static List<List<String>> records(String csv) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(csv));
+        List<List<String>> records = new ArrayList<>();
+        List<String> record;
+        while ((record = UserBulkResource.readRecord(reader)) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Test
+    void plainFieldsAreTrimmed() throws IOException {
+        assertThat(records("login,password,isAdmin\n alice , secret ,true\nbob,pw\n"))
+            .containsExactly(List.of("login", "password", "isAdmin"), List.of("alice", "secret", "true"), List.of("bob", "pw"));
+    }
+
+    @Test
+    void emptyTrailingFieldIsKept() throws IOException {
+        assertThat(records("alice,secret,\n")).containsExactly(List.of("alice", "secret", ""));
+    }
+
+    @Test
+    void quotedFieldKeepsCommasQuotesAndSpaces() throws IOException {
+        assertThat(records("alice,\"a,b\"\"c \",false\n"))
+            .containsExactly(List.of("alice", "a,b\"c ", "false"));
+    }
+
+    @Test
+    void quotedFieldSpansLines() throws IOException {
+        assertThat(records("alice,\"line1\nline2\",true\nbob,pw\n"))
+            .containsExactly(List.of("alice", "line1\nline2", "true"), List.of("bob", "pw"));
+    }
+
+    @Test
+    void spacesAroundQuotedFieldAreIgnored() throws IOException {
+        assertThat(records("alice,  \"pw\"  ,true\n")).containsExactly(List.of("alice", "pw", "true"));
+    }
+
+    @Test
+    void unterminatedQuoteIsRejected() {
+        assertThatThrownBy(() -> records("alice,\"pw\n"))
+            .isInstanceOf(UserBulkResource.CsvException.class);
+    }
+
+    @Test
+    void textAfterClosingQuoteIsRejected() {
+        assertThatThrownBy(() -> records("alice,\"pw\"x\n"))
+            .isInstanceOf(UserBulkResource.CsvException.class);
+    }
+}
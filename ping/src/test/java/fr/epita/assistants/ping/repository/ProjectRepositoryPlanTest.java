@@ -0,0 +1,43 @@
+package fr.epita.assistants.ping.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import io.quarkus.test.TestTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+
+// needs the postgres of application.properties, excluded from a plain mvn test (see the surefire config in the pom),
+// run it with mvn test -Dtest.excludedGroups= -Dtest=ProjectRepositoryPlanTest
+@QuarkusTest
+@Tag("postgres")
+class ProjectRepositoryPlanTest {
+
+    @Inject
+    EntityManager entityManager;
+
+    // on an empty or small table a seq scan is cheaper and postgres picks it whatever the indexes, so seq scans are
+    // priced out for the transaction: what is left in the plan is what the indexes can do on a big table
+    @Test
+    @TestTransaction
+    @SuppressWarnings("unchecked")
+    void projectsOfUserUsesAnIndexOnBothSides() {
+        entityManager.createNativeQuery("set local enable_seqscan = off").executeUpdate();
+
+        List<String> lines = entityManager.createNativeQuery("explain " + ProjectRepository.PROJECTS_OF_USER_SQL)
+            .setParameter("userId", UUID.randomUUID())
+            .getResultList();
+        String plan = lines.stream().collect(Collectors.joining("\n"));
+
+        assertThat(plan).contains("projects_owner_idx");
+        assertThat(plan).contains("project_members_user_project_idx");
+        assertThat(plan).doesNotContain("Seq Scan");
+    }
+}
@@ -0,0 +1,176 @@
+package fr.epita.assistants.ping.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.dto.ProjectDTOs.FileSignature;
+import fr.epita.assistants.ping.dto.ProjectDTOs.PatchOp;
+
+class FileSystemServiceTest {
+
+    private static final int BLOCK = 256;
+
+    @TempDir
+    Path storageRoot;
+
+    private FileSystemService fileSystemService;
+    private QuotaService quotaService;
+    private ProjectModel project;
+    private Path file;
+    private byte[] base;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        StorageFixture storage = new StorageFixture(storageRoot);
+        quotaService = storage.quotaService;
+
+        project = storage.project();
+        file = Path.of(project.path).resolve("data.bin");
+        // 3 full blocks and a short one
+        base = new byte[3 * BLOCK + 100];
+        new Random(42).nextBytes(base);
+        Files.write(file, base);
+        storage.savedUsage.put(project.id, new long[] {base.length, 1});
+
+        ProjectStatsService projectStats = new ProjectStatsService();
+        projectStats.quotaService = quotaService;
+        BlobStore blobStore = new BlobStore();
+        blobStore.projectStorage = storage.projectStorage;
+
+        fileSystemService = new FileSystemService();
+        fileSystemService.blobStore = blobStore;
+        fileSystemService.quotaService = quotaService;
+        fileSystemService.compressedStorage = storage.compressedStorage;
+        fileSystemService.pathLocks = storage.pathLocks;
+        fileSystemService.fileChangeNotifier = storage.fileChangeNotifier;
+        fileSystemService.projectStats = projectStats;
+        fileSystemService.fsync = false;
+    }
+
+    private static PatchOp copy(int block, int count) {
+        PatchOp op = new PatchOp();
+        op.op = "copy";
+        op.block = block;
+        op.count = count;
+        return op;
+    }
+
+    private static PatchOp data(String text) {
+        PatchOp op = new PatchOp();
+        op.op = "data";
+        op.data = Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+        return op;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int size = 0;
+        for (byte[] part : parts) {
+            size += part.length;
+        }
+        byte[] all = new byte[size];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, all, offset, part.length);
+            offset += part.length;
+        }
+        return all;
+    }
+
+    @Test
+    void weakChecksumRollsOneByteAtATime() {
+        byte[] bytes = new byte[2000];
+        new Random(7).nextBytes(bytes);
+        int length = 300;
+
+        int checksum = FileSystemService.weakChecksum(bytes, 0, length);
+        for (int offset = 1; offset + length <= bytes.length; offset++) {
+            int out = bytes[offset - 1] & 0xff;
+            int in = bytes[offset + length - 1] & 0xff;
+            // the update the clients do, from the comment of weakChecksum
+            int a = (checksum & 0xffff) + in - out;
+            int b = (checksum >>> 16) + a - length * out;
+            checksum = (a & 0xffff) | (b & 0xffff) << 16;
+
+            assertThat(checksum).as("offset %d", offset).isEqualTo(FileSystemService.weakChecksum(bytes, offset, length));
+        }
+    }
+
+    @Test
+    void signatureBlocksMatchTheWeakChecksumOfEachBlock() throws IOException {
+        FileSignature signature = fileSystemService.signature(file, BLOCK);
+
+        assertThat(signature.size).isEqualTo(base.length);
+        assertThat(signature.etag).isEqualTo(fileSystemService.etagOf(file));
+        assertThat(signature.blocks).hasSize(4);
+        assertThat(signature.blocks.get(3).weak).isEqualTo(FileSystemService.weakChecksum(base, 3 * BLOCK, 100));
+    }
+
+    @Test
+    void applyDeltaRebuildsTheFileFromCopiesAndLiterals() throws IOException {
+        String etag = fileSystemService.etagOf(file);
+
+        // the short last block, a literal, the first block, a literal
+        fileSystemService.applyDelta(file, etag, BLOCK, List.of(copy(2, 2), data("hello"), copy(0, 1), data("!")));
+
+        byte[] expected = concat(Arrays.copyOfRange(base, 2 * BLOCK, base.length), "hello".getBytes(StandardCharsets.UTF_8),
+            Arrays.copyOfRange(base, 0, BLOCK), "!".getBytes(StandardCharsets.UTF_8));
+        assertThat(Files.readAllBytes(file)).isEqualTo(expected);
+        assertThat(fileSystemService.etagOf(file)).isNotEqualTo(etag);
+    }
+
+    @Test
+    void applyDeltaRefusesAFileWrittenSinceTheSignature() throws IOException {
+        String etag = fileSystemService.etagOf(file);
+        byte[] written = "written meanwhile".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, written);
+
+        assertThatThrownBy(() -> fileSystemService.applyDelta(file, etag, BLOCK, List.of(data("stale"))))
+            .isInstanceOf(FileSystemService.BaseChangedException.class);
+        assertThat(Files.readAllBytes(file)).isEqualTo(written);
+    }
+
+    @Test
+    void applyDeltaRefusesACopyPastTheLastBlock() throws IOException {
+        String etag = fileSystemService.etagOf(file);
+
+        assertThatThrownBy(() -> fileSystemService.applyDelta(file, etag, BLOCK, List.of(copy(3, 2))))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> fileSystemService.applyDelta(file, etag, BLOCK, List.of(copy(-1, 1))))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(Files.readAllBytes(file)).isEqualTo(base);
+    }
+
+    @Test
+    void applyDeltaCountsOnlyTheGrowthAgainstTheQuota() throws IOException {
+        quotaService.quotaBytes = base.length + 10;
+        String etag = fileSystemService.etagOf(file);
+
+        // 20 more bytes than the file: over the quota
+        assertThatThrownBy(() -> fileSystemService.applyDelta(file, etag, BLOCK, List.of(copy(0, 4), data("x".repeat(20)))))
+            .isInstanceOf(QuotaService.QuotaExceededException.class);
+        assertThat(Files.readAllBytes(file)).isEqualTo(base);
+
+        // 5 more: fits, and the usage moves by the difference only
+        fileSystemService.applyDelta(file, etag, BLOCK, List.of(copy(0, 4), data("x".repeat(5))));
+        assertThat(quotaService.usageOf(project).bytes).isEqualTo(base.length + 5);
+        assertThat(quotaService.usageOf(project).files).isEqualTo(1);
+
+        // dropping the last block gives the space back
+        fileSystemService.applyDelta(file, fileSystemService.etagOf(file), BLOCK, List.of(copy(0, 3)));
+        assertThat(quotaService.usageOf(project).bytes).isEqualTo(3 * BLOCK);
+    }
+}
@@ -0,0 +1,56 @@
+package fr.epita.assistants.ping.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class GradingServiceTest {
+
+    private static final Path COPY = Path.of("/tmp/ping-grading/grade-1");
+
+    private GradingService gradingService;
+
+    @BeforeEach
+    void setUp() {
+        gradingService = new GradingService();
+        gradingService.enabled = true;
+        gradingService.sandbox = Optional.of(List.of("bwrap", "--bind", "{dir}", "{dir}", "--chdir", "{dir}"));
+        gradingService.allowUnsandboxed = false;
+        gradingService.envKeep = List.of("PATH", "SURELY_NOT_SET_ANYWHERE");
+    }
+
+    @Test
+    void disabledByDefaultConfig() {
+        gradingService.enabled = false;
+        assertThatThrownBy(gradingService::checkEnabled).isInstanceOf(GradingService.GradingDisabledException.class);
+    }
+
+    @Test
+    void enabledWithoutSandboxNeedsExplicitConsent() {
+        gradingService.sandbox = Optional.empty();
+        assertThatThrownBy(gradingService::checkEnabled).isInstanceOf(GradingService.GradingDisabledException.class);
+        gradingService.allowUnsandboxed = true;
+        assertThatCode(gradingService::checkEnabled).doesNotThrowAnyException();
+    }
+
+    @Test
+    void commandRunsInsideTheSandbox() {
+        assertThat(gradingService.sandboxed(COPY, List.of("sh", "-c", "mvn test"))).containsExactly(
+            "bwrap", "--bind", COPY.toString(), COPY.toString(), "--chdir", COPY.toString(), "sh", "-c", "mvn test");
+    }
+
+    @Test
+    void environmentOnlyHasTheKeptVariables() {
+        Map<String, String> environment = gradingService.environmentFor(COPY);
+        assertThat(environment.keySet()).containsExactlyInAnyOrder("PATH", "HOME", "TMPDIR");
+        assertThat(environment).containsEntry("HOME", COPY.toString()).containsEntry("PATH", System.getenv("PATH"));
+    }
+}
@@ -0,0 +1,42 @@
+package fr.epita.assistants.ping.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.quarkus.elytron.security.common.BcryptUtil;
+
+class PasswordServiceTest {
+
+    private PasswordService passwordService;
+
+    @BeforeEach
+    void setUp() {
+        passwordService = new PasswordService();
+        passwordService.cost = 10;
+    }
+
+    @Test
+    void bcryptHashIsHashed() {
+        String hash = BcryptUtil.bcryptHash("secret", 4);
+        assertThat(passwordService.isHashed(hash)).isTrue();
+        assertThat(passwordService.isHashed("$2b$12$" + "a".repeat(53))).isTrue();
+    }
+
+    @Test
+    void plaintextStartingWithDollarTwoIsNotHashed() {
+        assertThat(passwordService.isHashed("$2secret")).isFalse();
+        assertThat(passwordService.isHashed("$2a$10$tooShort")).isFalse();
+        assertThat(passwordService.isHashed("$2x$10$" + "a".repeat(53))).isFalse();
+        assertThat(passwordService.isHashed("$2a$10$" + "a".repeat(52) + "!")).isFalse();
+        assertThat(passwordService.isHashed(null)).isFalse();
+    }
+
+    @Test
+    void rehashWhenCostDiffersOrPlaintext() {
+        assertThat(passwordService.needsRehash("$2a$10$" + "a".repeat(53))).isFalse();
+        assertThat(passwordService.needsRehash("$2a$04$" + "a".repeat(53))).isTrue();
+        assertThat(passwordService.needsRehash("$2a$10$x")).isTrue();
+    }
+}
@@ -0,0 +1,76 @@
+package fr.epita.assistants.ping.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+
+class QuotaServiceTest {
+
+    @TempDir
+    Path storageRoot;
+
+    private QuotaService quotaService;
+    private ProjectModel project;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        StorageFixture storage = new StorageFixture(storageRoot);
+        quotaService = storage.quotaService;
+        quotaService.quotaBytes = 100;
+        project = storage.project();
+        file = Path.of(project.path).resolve("a.txt");
+        storage.savedUsage.put(project.id, new long[] {40, 1});
+    }
+
+    @Test
+    void twoWritesCannotShareTheSameRoom() {
+        QuotaService.Reservation first = quotaService.reserve(file, 50, 0);
+
+        // 40 used + 50 taken, 10 left
+        assertThatThrownBy(() -> quotaService.reserve(file, 20, 0))
+            .isInstanceOf(QuotaService.QuotaExceededException.class);
+
+        first.close();
+        quotaService.reserve(file, 60, 0).close();
+    }
+
+    @Test
+    void anUploadWithoutLengthTakesRoomAsItIsRead() throws IOException {
+        QuotaService.Reservation upload = quotaService.reserve(file, 0, 1);
+        InputStream limited = quotaService.limit(upload, new ByteArrayInputStream(new byte[50]), -1);
+        limited.readAllBytes();
+        assertThat(upload.bytes()).isEqualTo(50);
+
+        // what the upload read is not available to another write
+        assertThatThrownBy(() -> quotaService.reserve(file, 20, 0))
+            .isInstanceOf(QuotaService.QuotaExceededException.class);
+
+        InputStream tooBig = quotaService.limit(quotaService.reserve(file, 0, 0), new ByteArrayInputStream(new byte[20]), -1);
+        assertThatThrownBy(tooBig::readAllBytes).isInstanceOf(QuotaService.QuotaExceededException.class);
+    }
+
+    @Test
+    void givenUpRoomIsBackAndWrittenRoomIsCounted() throws IOException {
+        try (QuotaService.Reservation room = quotaService.reserve(file, 30, 1)) {
+            java.nio.file.Files.write(file, new byte[30]);
+            room.written(file, -1);
+        }
+
+        assertThat(quotaService.usageOf(project).bytes).isEqualTo(70);
+        assertThat(quotaService.usageOf(project).files).isEqualTo(2);
+        quotaService.reserve(file, 30, 0).close();
+        assertThatThrownBy(() -> quotaService.reserve(file, 31, 0))
+            .isInstanceOf(QuotaService.QuotaExceededException.class);
+    }
+}
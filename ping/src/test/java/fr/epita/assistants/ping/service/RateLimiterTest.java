@@ -0,0 +1,100 @@
+package fr.epita.assistants.ping.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fr.epita.assistants.ping.service.RateLimiter.Kind;
+
+// the rates are low enough that the buckets don't refill during a test
+class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private RateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        rateLimiter = new RateLimiter();
+        rateLimiter.enabled = true;
+        rateLimiter.readRate = 1;
+        rateLimiter.readBurst = 5;
+        rateLimiter.writeRate = 0.5;
+        rateLimiter.writeBurst = 2;
+        rateLimiter.execRate = 1;
+        rateLimiter.execBurst = 1;
+        rateLimiter.projectFactor = 2;
+        rateLimiter.maxBuckets = 100_000;
+        rateLimiter.init();
+    }
+
+    @Test
+    void burstThenOneEmissionIntervalToWait() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(rateLimiter.tryAcquire("alice", null, Kind.READ)).isZero();
+        }
+        long wait = rateLimiter.tryAcquire("alice", null, Kind.READ);
+        // the next token is one interval (1s at 1/s) after the burst was taken, minus the time the test took
+        assertThat(wait).isPositive().isLessThanOrEqualTo(SECOND).isGreaterThan(SECOND / 2);
+    }
+
+    @Test
+    void rejectedRequestTakesNoToken() {
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.tryAcquire("alice", null, Kind.READ);
+        }
+        long first = rateLimiter.tryAcquire("alice", null, Kind.READ);
+        long second = rateLimiter.tryAcquire("alice", null, Kind.READ);
+        // still about one interval, refused calls don't push the arrival time further
+        assertThat(second).isLessThanOrEqualTo(first);
+    }
+
+    @Test
+    void intervalFollowsTheRate() {
+        rateLimiter.tryAcquire("alice", null, Kind.WRITE);
+        rateLimiter.tryAcquire("alice", null, Kind.WRITE);
+        // 0.5/s: 2s between tokens
+        assertThat(rateLimiter.tryAcquire("alice", null, Kind.WRITE)).isGreaterThan(SECOND).isLessThanOrEqualTo(2 * SECOND);
+    }
+
+    @Test
+    void bucketsAreSeparatePerUserAndKind() {
+        assertThat(rateLimiter.tryAcquire("alice", null, Kind.EXEC)).isZero();
+        assertThat(rateLimiter.tryAcquire("alice", null, Kind.EXEC)).isPositive();
+        assertThat(rateLimiter.tryAcquire("bob", null, Kind.EXEC)).isZero();
+        assertThat(rateLimiter.tryAcquire("alice", null, Kind.READ)).isZero();
+    }
+
+    @Test
+    void projectBucketIsFactorTimesBiggerAndShared() {
+        UUID project = UUID.randomUUID();
+        // exec: 1 per user, 2 for the project
+        assertThat(rateLimiter.tryAcquire("alice", project, Kind.EXEC)).isZero();
+        assertThat(rateLimiter.tryAcquire("bob", project, Kind.EXEC)).isZero();
+        assertThat(rateLimiter.tryAcquire("carol", project, Kind.EXEC)).isPositive();
+        assertThat(rateLimiter.tryAcquire("carol", UUID.randomUUID(), Kind.EXEC)).isZero();
+    }
+
+    @Test
+    void projectRejectionGivesTheUserTokenBack() {
+        UUID project = UUID.randomUUID();
+        rateLimiter.tryAcquire("alice", project, Kind.EXEC);
+        rateLimiter.tryAcquire("bob", project, Kind.EXEC);
+        // refused by the project, carol's own token must still be there for another project
+        assertThat(rateLimiter.tryAcquire("carol", project, Kind.EXEC)).isPositive();
+        assertThat(rateLimiter.tryAcquire("carol", project, Kind.EXEC)).isPositive();
+        assertThat(rateLimiter.tryAcquire("carol", null, Kind.EXEC)).isZero();
+    }
+
+    @Test
+    void disabledAlwaysLetsThrough() {
+        rateLimiter.enabled = false;
+        for (int i = 0; i < 100; i++) {
+            assertThat(rateLimiter.tryAcquire("alice", null, Kind.EXEC)).isZero();
+        }
+    }
+}
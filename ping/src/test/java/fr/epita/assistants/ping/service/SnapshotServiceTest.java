@@ -0,0 +1,129 @@
+package fr.epita.assistants.ping.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.domain.executor.ProjectLanes;
+import fr.epita.assistants.ping.dto.ProjectDTOs.SnapshotInfo;
+import fr.epita.assistants.ping.utils.QuietLogger;
+
+class SnapshotServiceTest {
+
+    @TempDir
+    Path storageRoot;
+
+    private StorageFixture storage;
+    private SnapshotService snapshotService;
+    private ProjectModel project;
+    private Path projectDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        storage = new StorageFixture(storageRoot);
+
+        snapshotService = new SnapshotService();
+        snapshotService.logger = new QuietLogger();
+        snapshotService.quotaService = storage.quotaService;
+        snapshotService.compressedStorage = storage.compressedStorage;
+        snapshotService.pathLocks = storage.pathLocks;
+        snapshotService.lanes = new ProjectLanes();
+        snapshotService.fileChangeNotifier = storage.fileChangeNotifier;
+        snapshotService.maxPerProject = 5;
+
+        project = storage.project();
+        projectDir = Path.of(project.path);
+
+        Files.createDirectories(projectDir.resolve("src"));
+        Files.writeString(projectDir.resolve("src/Main.java"), "class Main {}");
+        Files.createDirectories(projectDir.resolve(".git/objects/ab"));
+        Files.createDirectories(projectDir.resolve(".git/logs"));
+        Files.writeString(projectDir.resolve(".git/objects/ab/cdef"), "object");
+        Files.writeString(projectDir.resolve(".git/logs/HEAD"), "first commit\n");
+        Files.writeString(projectDir.resolve(".git/COMMIT_EDITMSG"), "first\n");
+    }
+
+    private Path treeOf(SnapshotInfo snapshot) {
+        return storageRoot.resolve(SnapshotService.SNAPSHOTS_DIR).resolve(project.id.toString())
+            .resolve(snapshot.id.toString()).resolve("tree");
+    }
+
+    @Test
+    void gitRewritesInPlaceDoNotReachTheSnapshot() throws IOException {
+        SnapshotInfo snapshot = snapshotService.create(project, "before", null);
+        Path tree = treeOf(snapshot);
+
+        // what git does on the next commit: appends to the reflog, truncates COMMIT_EDITMSG
+        Files.writeString(projectDir.resolve(".git/logs/HEAD"), "second commit\n", StandardOpenOption.APPEND);
+        Files.writeString(projectDir.resolve(".git/COMMIT_EDITMSG"), "second\n", StandardOpenOption.TRUNCATE_EXISTING);
+
+        assertThat(tree.resolve(".git/logs/HEAD")).hasContent("first commit");
+        assertThat(tree.resolve(".git/COMMIT_EDITMSG")).hasContent("first");
+        assertThat(snapshot.files).isEqualTo(4);
+    }
+
+    @Test
+    void workTreeAndGitObjectsAreLinked() throws IOException {
+        SnapshotInfo snapshot = snapshotService.create(project, null, null);
+        Path tree = treeOf(snapshot);
+
+        assertThat(Files.isSameFile(tree.resolve("src/Main.java"), projectDir.resolve("src/Main.java"))).isTrue();
+        assertThat(Files.isSameFile(tree.resolve(".git/objects/ab/cdef"), projectDir.resolve(".git/objects/ab/cdef"))).isTrue();
+        assertThat(Files.isSameFile(tree.resolve(".git/logs/HEAD"), projectDir.resolve(".git/logs/HEAD"))).isFalse();
+    }
+
+    @Test
+    void restoredGitDirIsNotSharedWithTheSnapshot() throws IOException {
+        SnapshotInfo snapshot = snapshotService.create(project, null, null);
+        // the way FileSystemService saves: a new file renamed over the linked one
+        Path saved = Files.writeString(projectDir.resolve("src/.Main.java.tmp"), "class Main { int broken; }");
+        Files.move(saved, projectDir.resolve("src/Main.java"), StandardCopyOption.REPLACE_EXISTING);
+
+        snapshotService.restore(project, snapshot.id);
+        assertThat(projectDir.resolve("src/Main.java")).hasContent("class Main {}");
+
+        Files.writeString(projectDir.resolve(".git/COMMIT_EDITMSG"), "after restore\n", StandardOpenOption.TRUNCATE_EXISTING);
+        assertThat(treeOf(snapshot).resolve(".git/COMMIT_EDITMSG")).hasContent("first");
+        // nothing left next to the project
+        try (var siblings = Files.list(storageRoot)) {
+            assertThat(siblings.map(path -> path.getFileName().toString()).toList())
+                .containsExactlyInAnyOrderElementsOf(List.of(project.id.toString(), SnapshotService.SNAPSHOTS_DIR));
+        }
+    }
+
+    @Test
+    void noMoreSnapshotsThanTheLimit() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            snapshotService.create(project, "n" + i, null);
+        }
+
+        assertThatThrownBy(() -> snapshotService.create(project, "one too many", null))
+            .isInstanceOf(SnapshotService.SnapshotLimitException.class);
+        assertThat(snapshotService.list(project)).hasSize(5);
+    }
+
+    @Test
+    void restoreTellsTheEditorsToReloadTheTree() throws Exception {
+        SnapshotInfo snapshot = snapshotService.create(project, null, null);
+        BlockingQueue<String> batches = new LinkedBlockingQueue<>();
+        storage.fileChangeNotifier.subscribe(project.id, batches::add);
+
+        snapshotService.restore(project, snapshot.id);
+
+        assertThat(batches.poll(5, TimeUnit.SECONDS)).contains("\"resync\"");
+    }
+}
@@ -0,0 +1,83 @@
+package fr.epita.assistants.ping.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.epita.assistants.ping.data.model.ProjectModel;
+import fr.epita.assistants.ping.data.model.ProjectUsageModel;
+import fr.epita.assistants.ping.repository.ProjectUsageRepository;
+import fr.epita.assistants.ping.utils.QuietLogger;
+
+// the storage beans wired by hand on one temporary root, for the tests of the services working on project files
+// the saved usage of a project is what the test puts in savedUsage, nothing by default
+class StorageFixture {
+
+    final Path root;
+    final ProjectStorage projectStorage;
+    final PathLocks pathLocks;
+    final CompressedStorage compressedStorage;
+    final QuotaService quotaService;
+    final FileChangeNotifier fileChangeNotifier;
+    final Map<UUID, long[]> savedUsage = new HashMap<>();
+
+    StorageFixture(Path root) {
+        this.root = root;
+
+        projectStorage = new ProjectStorage();
+        projectStorage.logger = new QuietLogger();
+        projectStorage.defaultProjectPath = root.toString();
+        projectStorage.configuredRoots = Optional.empty();
+        projectStorage.policy = "hash";
+        projectStorage.virtualNodes = 1;
+        projectStorage.init();
+
+        pathLocks = new PathLocks();
+        pathLocks.projectStorage = projectStorage;
+        pathLocks.stripeCount = 16;
+        pathLocks.init();
+
+        compressedStorage = new CompressedStorage();
+        compressedStorage.logger = new QuietLogger();
+        compressedStorage.projectStorage = projectStorage;
+        compressedStorage.pathLocks = pathLocks;
+
+        quotaService = new QuotaService();
+        quotaService.logger = new QuietLogger();
+        quotaService.projectStorage = projectStorage;
+        quotaService.usageRepository = new ProjectUsageRepository() {
+            @Override
+            public Optional<ProjectUsageModel> findUsage(UUID projectId) {
+                long[] saved = savedUsage.getOrDefault(projectId, new long[2]);
+                ProjectUsageModel usage = new ProjectUsageModel();
+                usage.projectId = projectId;
+                usage.bytes = saved[0];
+                usage.files = saved[1];
+                return Optional.of(usage);
+            }
+        };
+        compressedStorage.quotaService = quotaService;
+
+        fileChangeNotifier = new FileChangeNotifier();
+        fileChangeNotifier.logger = new QuietLogger();
+        fileChangeNotifier.projectStorage = projectStorage;
+        fileChangeNotifier.objectMapper = new ObjectMapper();
+        fileChangeNotifier.windowMs = 0;
+        fileChangeNotifier.maxBatch = 500;
+        fileChangeNotifier.init();
+    }
+
+    // a new project with its directory under the root
+    ProjectModel project() throws IOException {
+        ProjectModel project = new ProjectModel();
+        project.id = UUID.randomUUID();
+        project.path = Files.createDirectories(root.resolve(project.id.toString())).toString();
+        return project;
+    }
+}
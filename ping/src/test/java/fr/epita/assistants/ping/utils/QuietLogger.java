@@ -0,0 +1,12 @@
+package fr.epita.assistants.ping.utils;
+
+import java.util.Optional;
+
+// a Logger for the tests that build their beans by hand, prints to the console only
+public class QuietLogger extends Logger {
+
+    public QuietLogger() {
+        logFile = Optional.empty();
+        errorLogFile = Optional.empty();
+    }
+}